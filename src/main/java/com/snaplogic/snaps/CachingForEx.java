@@ -0,0 +1,191 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.snaplogic.snaps.CurrencyConverter.ForEx;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link ForEx} decorator that caches the exchange rates of each currency for a limited time.
+ *
+ * <p>The cache holds at most a configured number of currencies and evicts the least recently
+ * used one when full. Its time-to-live and maximum size are taken from the {@link Settings} bound
+ * by the Snap when the cache is first used, so that a Snap can set them while it is configured.
+ * Concurrent lookups of a currency that is not cached share a single call to the underlying
+ * {@link ForEx}, and bulk lookups fetch all missing currencies in one call. Asynchronous lookups
+ * are coalesced the same way while they are in flight.</p>
+ */
+public class CachingForEx implements ForEx {
+    static final String DELEGATE = "forExDelegate";
+    static final long DEFAULT_TTL_SECONDS = 60;
+    static final long DEFAULT_MAX_SIZE = 256;
+
+    private final ForEx delegate;
+    private final Settings settings;
+    private volatile LoadingCache<String, Map<String, Object>> cache;
+    private final ConcurrentMap<String, CompletableFuture<Map<String, Object>>> inFlight =
+            new ConcurrentHashMap<>();
+
+    @Inject
+    public CachingForEx(@Named(DELEGATE) ForEx delegate, Settings settings) {
+        this.delegate = delegate;
+        this.settings = settings;
+    }
+
+    CachingForEx(ForEx delegate, long ttl, TimeUnit ttlUnit, long maxSize, Ticker ticker) {
+        this.delegate = delegate;
+        this.settings = null;
+        cache = buildCache(ttl, ttlUnit, maxSize, ticker);
+    }
+
+    private LoadingCache<String, Map<String, Object>> cache() {
+        LoadingCache<String, Map<String, Object>> current = cache;
+        if (current == null) {
+            synchronized (this) {
+                if (cache == null) {
+                    cache = buildCache(settings.ttlSeconds, TimeUnit.SECONDS, settings.maxSize,
+                            Ticker.systemTicker());
+                }
+                current = cache;
+            }
+        }
+        return current;
+    }
+
+    private LoadingCache<String, Map<String, Object>> buildCache(long ttl, TimeUnit ttlUnit,
+            long maxSize, Ticker ticker) {
+        // a single segment keeps the eviction order strictly least recently used
+        return CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .expireAfterWrite(ttl, ttlUnit)
+                .maximumSize(maxSize)
+                .ticker(ticker)
+                .recordStats()
+                .build(new CacheLoader<String, Map<String, Object>>() {
+                    @Override
+                    public Map<String, Object> load(String currencyCode) {
+                        return delegate.getExchangeRates(currencyCode);
+                    }
+
+                    @Override
+                    public Map<String, Map<String, Object>> loadAll(
+                            Iterable<? extends String> currencyCodes) {
+                        Set<String> missing = new LinkedHashSet<>();
+                        Iterables.addAll(missing, currencyCodes);
+                        return delegate.getAllExchangeRates(missing);
+                    }
+                });
+    }
+
+    @Override
+    public Map<String, Object> getExchangeRates(String currencyCode) {
+        try {
+            return cache().getUnchecked(currencyCode);
+        } catch (CacheLoader.InvalidCacheLoadException e) {
+            // the delegate had no rates for this currency; nothing is cached
+            return null;
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<String, Map<String, Object>> getAllExchangeRates(Set<String> currencyCodes) {
+        try {
+            return cache().getAll(currencyCodes);
+        } catch (CacheLoader.InvalidCacheLoadException e) {
+            // some currencies have no rates; the ones that were found are cached by now
+            Map<String, Map<String, Object>> rates = new LinkedHashMap<>();
+            for (String currencyCode : currencyCodes) {
+                Map<String, Object> rate = getExchangeRates(currencyCode);
+                if (rate != null) {
+                    rates.put(currencyCode, rate);
+                }
+            }
+            return rates;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new UncheckedExecutionException(e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> getExchangeRatesAsync(
+            final String currencyCode) {
+        Map<String, Object> cached = cache().getIfPresent(currencyCode);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        final CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        CompletableFuture<Map<String, Object>> pending = inFlight.putIfAbsent(currencyCode, future);
+        if (pending != null) {
+            return pending;
+        }
+        delegate.getExchangeRatesAsync(currencyCode).whenComplete(
+                new BiConsumer<Map<String, Object>, Throwable>() {
+                    @Override
+                    public void accept(Map<String, Object> rates, Throwable failure) {
+                        // cache before leaving the in-flight map, so later lookups never miss
+                        if (failure == null && rates != null) {
+                            cache().put(currencyCode, rates);
+                        }
+                        inFlight.remove(currencyCode, future);
+                        if (failure != null) {
+                            future.completeExceptionally(failure);
+                        } else {
+                            future.complete(rates);
+                        }
+                    }
+                });
+        return future;
+    }
+
+    CacheStats stats() {
+        return cache().stats();
+    }
+
+    /**
+     * The time-to-live and maximum size of the cache, set by the Snap that binds them.
+     */
+    public static final class Settings {
+        private volatile long ttlSeconds = DEFAULT_TTL_SECONDS;
+        private volatile long maxSize = DEFAULT_MAX_SIZE;
+
+        void set(long ttlSeconds, long maxSize) {
+            this.ttlSeconds = ttlSeconds;
+            this.maxSize = maxSize;
+        }
+    }
+}
@@ -10,10 +10,13 @@
  */
 package com.snaplogic.snaps;
 
-import com.google.common.collect.HashMultiset;
-import com.google.common.collect.Multiset;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Inject;
 import com.snaplogic.api.ConfigurationException;
 import com.snaplogic.api.ExecutionException;
+import com.snaplogic.common.SnapType;
 import com.snaplogic.common.properties.builders.PropertyBuilder;
 import com.snaplogic.snap.api.BinaryOutput;
 import com.snaplogic.snap.api.Document;
@@ -27,23 +30,57 @@ import com.snaplogic.snap.api.capabilities.ViewType;
 import com.snaplogic.snap.api.write.SimpleBinaryWriteSnap;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.Reader;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
  * A Snap that counts the number of occurrences of each letter in the English language for the
  * incoming data, and writes the result to a binary output view
+ *
+ * <p>The input is read in bulk into a reused buffer and counted by a {@link CharacterHistogram},
+ * which only decodes runs of non-ASCII bytes.</p>
+ *
+ * <p>In code point mode every code point is counted instead, and the counts of those in the
+ * configured alphabet or Unicode blocks are written as a JSON object keyed by character.</p>
+ *
+ * <p>In n-gram mode the character n-grams of the given length are counted by an
+ * {@link NGramCounter}, and the most frequent ones are written as a JSON object.</p>
+ *
+ * <p>With a window size or interval, the counts are also written while the input is read:
+ * either those of each window, or cumulative ones. The output header describes the window, and
+ * the last window written is the final one. Windows are closed by the thread reading the input,
+ * so a window whose interval has passed is only written once more input arrives.</p>
+ *
+ * <p>The counts of all the documents of an execution can also be aggregated into one histogram,
+ * which is written once every document was processed, with or without the counts of each
+ * document. Without the latter, documents are counted straight into the aggregate.</p>
+ *
+ * <p>With a parallelism above one, inputs larger than the read buffer are spooled to a temporary
+ * file, unless they already are a file, and counted in chunks by a {@link ParallelCharacterCount}.
+ * </p>
  */
 @General(title = "Character Counter", purpose = "Demo writing to Binary Output View",
         author = "Your Company Name", docLink = "http://yourdocslinkhere.com")
@@ -51,42 +88,332 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 @Errors(min = 1, max = 1, offers = ViewType.DOCUMENT)
 @Version(snap = 1)
 public class CharacterCounter extends SimpleBinaryWriteSnap {
+    private static final String MODE_PROP = "mode";
+    private static final String ALPHABET_PROP = "alphabet";
+    private static final String UNICODE_BLOCKS_PROP = "unicodeBlocks";
+    private static final String N_GRAM_LENGTH_PROP = "nGramLength";
+    private static final String TOP_K_PROP = "topK";
+    private static final String MEMORY_BUDGET_PROP = "memoryBudget";
+    private static final String PARALLELISM_PROP = "parallelism";
+    private static final String OUTPUT_PROP = "output";
+    private static final String EACH_DOCUMENT_OUTPUT = "Each document";
+    private static final String ALL_DOCUMENTS_OUTPUT = "All documents";
+    private static final String EACH_AND_ALL_DOCUMENTS_OUTPUT = "Each and all documents";
+    private static final String WINDOW_SIZE_PROP = "windowSize";
+    private static final String WINDOW_INTERVAL_PROP = "windowInterval";
+    private static final String WINDOW_TYPE_PROP = "windowType";
+    private static final String TUMBLING_WINDOW = "Tumbling";
+    private static final String CUMULATIVE_WINDOW = "Cumulative";
+    private static final String LETTERS_MODE = "English letters";
+    private static final String CODE_POINTS_MODE = "Code points";
+    private static final String N_GRAMS_MODE = "N-grams";
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private boolean countCodePoints;
+    private int nGramLength;
+    private int topK;
+    private long memoryBudget;
+    private long windowBytes;
+    private long windowNanos;
+    private boolean cumulative;
+    private int[] alphabet;
+    private Set<Character.UnicodeBlock> unicodeBlocks;
+    private ForkJoinPool pool;
+    private boolean writeEachDocument;
+    private CharacterHistogram aggregate;
+    private long aggregatedDocuments;
+
+    // the SnapLogic platform takes care of injecting an ObjectMapper instance
+    @Inject
+    private ObjectMapper mapper;
 
     @Override
     public void defineProperties(PropertyBuilder propertyBuilder) {
+        propertyBuilder.describe(MODE_PROP, "Mode",
+                "English letters writes the counts of a to z; Code points writes a JSON object "
+                        + "with the count of every character; N-grams writes a JSON object "
+                        + "with the counts of the most frequent character n-grams")
+                .withAllowedValues(ImmutableSet.of(LETTERS_MODE, CODE_POINTS_MODE, N_GRAMS_MODE))
+                .defaultValue(LETTERS_MODE)
+                .add();
+
+        propertyBuilder.describe(ALPHABET_PROP, "Alphabet",
+                "Characters whose counts are written in code point mode")
+                .add();
+
+        propertyBuilder.describe(UNICODE_BLOCKS_PROP, "Unicode Blocks",
+                "Comma separated names of Unicode blocks, such as BASIC_LATIN or CYRILLIC, "
+                        + "whose characters' counts are written in code point mode; with no "
+                        + "alphabet or blocks every character is written")
+                .add();
+
+        propertyBuilder.describe(N_GRAM_LENGTH_PROP, "N-gram Length",
+                "Number of characters of the n-grams counted in n-gram mode, from 1 to 4")
+                .type(SnapType.INTEGER)
+                .defaultValue(2)
+                .add();
+
+        propertyBuilder.describe(TOP_K_PROP, "Top K",
+                "Number of most frequent n-grams written in n-gram mode; 0 writes every n-gram. "
+                        + "When counting every n-gram exceeds the memory budget, the counts of "
+                        + "the top K n-grams are estimated")
+                .type(SnapType.INTEGER)
+                .defaultValue(0)
+                .add();
+
+        propertyBuilder.describe(MEMORY_BUDGET_PROP, "Memory Budget (MB)",
+                "Memory the n-gram counts of an input may take")
+                .type(SnapType.INTEGER)
+                .defaultValue(64)
+                .add();
+
+        propertyBuilder.describe(WINDOW_SIZE_PROP, "Window Size (bytes)",
+                "Number of input bytes after which the counts so far are written, in letter or "
+                        + "code point mode; 0 only writes the counts of the whole input")
+                .type(SnapType.INTEGER)
+                .defaultValue(0)
+                .add();
+
+        propertyBuilder.describe(WINDOW_INTERVAL_PROP, "Window Interval (seconds)",
+                "Number of seconds after which the counts so far are written, in letter or "
+                        + "code point mode; 0 only writes the counts of the whole input. Windows "
+                        + "close as input arrives, so while no input arrives no counts are written")
+                .type(SnapType.INTEGER)
+                .defaultValue(0)
+                .add();
+
+        propertyBuilder.describe(WINDOW_TYPE_PROP, "Window Type",
+                "Tumbling writes the counts of each window; Cumulative writes the counts from "
+                        + "the start of the input")
+                .withAllowedValues(ImmutableSet.of(TUMBLING_WINDOW, CUMULATIVE_WINDOW))
+                .defaultValue(TUMBLING_WINDOW)
+                .add();
+
+        propertyBuilder.describe(OUTPUT_PROP, "Output",
+                "Each document writes the counts of each input; All documents writes the "
+                        + "aggregated counts of every input once they were all counted, in "
+                        + "letter or code point mode; Each and all documents writes both")
+                .withAllowedValues(ImmutableSet.of(EACH_DOCUMENT_OUTPUT, ALL_DOCUMENTS_OUTPUT,
+                        EACH_AND_ALL_DOCUMENTS_OUTPUT))
+                .defaultValue(EACH_DOCUMENT_OUTPUT)
+                .add();
+
+        propertyBuilder.describe(PARALLELISM_PROP, "Parallelism",
+                "Number of threads counting each input in letter or code point mode without "
+                        + "windows; inputs larger than 64 KiB are spooled to a temporary file "
+                        + "to be counted in parallel")
+                .type(SnapType.INTEGER)
+                .defaultValue(1)
+                .add();
     }
 
     @Override
     public void configure(PropertyValues propertyValues) throws ConfigurationException {
+        String mode = propertyValues.get(MODE_PROP);
+        countCodePoints = CODE_POINTS_MODE.equals(mode);
+        if (N_GRAMS_MODE.equals(mode)) {
+            BigInteger lengthValue = propertyValues.get(N_GRAM_LENGTH_PROP);
+            nGramLength = lengthValue == null ? 2 : lengthValue.intValue();
+            BigInteger topKValue = propertyValues.get(TOP_K_PROP);
+            topK = topKValue == null ? 0 : topKValue.intValue();
+            BigInteger memoryBudgetValue = propertyValues.get(MEMORY_BUDGET_PROP);
+            memoryBudget = (memoryBudgetValue == null ? 64 : memoryBudgetValue.longValue())
+                    * 1024 * 1024;
+            if (nGramLength < 1 || nGramLength > NGramCounter.MAX_LENGTH || topK < 0
+                    || memoryBudget <= 0) {
+                throw new ConfigurationException("Invalid n-gram settings")
+                        .withReason("The n-gram length must be from 1 to 4, Top K cannot be "
+                                + "negative and the memory budget must be positive")
+                        .withResolution("Ensure the n-gram length, Top K and memory budget "
+                                + "are within range");
+            }
+        }
+
+        String alphabetValue = propertyValues.get(ALPHABET_PROP);
+        if (StringUtils.isNotEmpty(alphabetValue)) {
+            // counts are kept by lower case form
+            alphabet = alphabetValue.codePoints()
+                    .map(new IntUnaryOperator() {
+                        @Override
+                        public int applyAsInt(int codePoint) {
+                            return Character.toLowerCase(codePoint);
+                        }
+                    })
+                    .sorted()
+                    .distinct()
+                    .toArray();
+        }
+        String unicodeBlocksValue = propertyValues.get(UNICODE_BLOCKS_PROP);
+        if (StringUtils.isNotBlank(unicodeBlocksValue)) {
+            unicodeBlocks = new HashSet<>();
+            for (String name : Splitter.on(',').trimResults().omitEmptyStrings()
+                    .split(unicodeBlocksValue)) {
+                try {
+                    unicodeBlocks.add(Character.UnicodeBlock.forName(name));
+                } catch (IllegalArgumentException e) {
+                    throw new ConfigurationException(e,
+                            String.format("Unknown Unicode block %s", name))
+                            .withReason("The name is not the name of a Unicode block")
+                            .withResolution("Use block names such as BASIC_LATIN, "
+                                    + "LATIN_1_SUPPLEMENT or CYRILLIC");
+                }
+            }
+        }
+
+        BigInteger windowSizeValue = propertyValues.get(WINDOW_SIZE_PROP);
+        windowBytes = windowSizeValue == null ? 0 : windowSizeValue.longValue();
+        BigInteger windowIntervalValue = propertyValues.get(WINDOW_INTERVAL_PROP);
+        windowNanos = windowIntervalValue == null ? 0 :
+                TimeUnit.SECONDS.toNanos(windowIntervalValue.longValue());
+        if (windowBytes < 0 || windowNanos < 0) {
+            throw new ConfigurationException("Invalid window settings")
+                    .withReason("The window size and interval cannot be negative")
+                    .withResolution("Ensure the window size and interval are at least zero");
+        }
+        cumulative = CUMULATIVE_WINDOW.equals(propertyValues.get(WINDOW_TYPE_PROP));
+
+        BigInteger parallelismValue = propertyValues.get(PARALLELISM_PROP);
+        int parallelism = parallelismValue == null ? 1 : parallelismValue.intValue();
+        if (parallelism < 1) {
+            throw new ConfigurationException(
+                    String.format("Invalid parallelism value %d", parallelism))
+                    .withReason("Value of the parallelism must be positive")
+                    .withResolution("Ensure the parallelism is greater than or equal to one");
+        }
+        if (parallelism > 1) {
+            pool = new ForkJoinPool(parallelism);
+        }
+
+        String output = propertyValues.get(OUTPUT_PROP);
+        writeEachDocument = !ALL_DOCUMENTS_OUTPUT.equals(output) || nGramLength > 0;
+        if (nGramLength == 0 && (ALL_DOCUMENTS_OUTPUT.equals(output)
+                || EACH_AND_ALL_DOCUMENTS_OUTPUT.equals(output))) {
+            aggregate = new CharacterHistogram(countCodePoints);
+        }
     }
 
     @Override
     protected void process(final Document header, final ReadableByteChannel readChannel) {
-        final StringBuilder sb = new StringBuilder();
+        if (nGramLength > 0) {
+            countNGrams(header, readChannel);
+            return;
+        }
+        if (aggregate != null) {
+            aggregatedDocuments++;
+        }
+        if (writeEachDocument && (windowBytes > 0 || windowNanos > 0)) {
+            countInWindows(header, readChannel);
+            return;
+        }
+        // without per document counts to write, the input is counted straight into the aggregate
+        CharacterHistogram histogram = writeEachDocument ?
+                new CharacterHistogram(countCodePoints) : aggregate;
+
+        try (ReadableByteChannel channel = readChannel) {
+            if (pool == null) {
+                count(channel, histogram);
+            } else {
+                countInParallel(channel, histogram);
+            }
+        } catch (IOException e) {
+            errorViews.write(new SnapDataException(e, e.getMessage()), header);
+        }
 
-        // Guava Multiset
-        final Multiset<Character> bagOfChars = HashMultiset.create();
+        if (writeEachDocument) {
+            writeCounts(header, histogram);
+            addToAggregate(histogram);
+        }
+    }
 
-        try (InputStream inputStream = Channels.newInputStream(readChannel)) {
-            Reader reader = new InputStreamReader(new BufferedInputStream(inputStream), UTF_8);
+    private void addToAggregate(CharacterHistogram histogram) {
+        if (aggregate != null) {
+            aggregate.add(histogram);
+        }
+    }
 
-            // read in each character
-            int characterRead;
-            while ((characterRead = reader.read()) != -1) {
-                // add the lowercase version of the character to the Multiset
-                bagOfChars.add((char) Character.toLowerCase(characterRead));
+    private void countInWindows(Document header, ReadableByteChannel readChannel) {
+        CharacterHistogram histogram = new CharacterHistogram(countCodePoints);
+        long position = 0;
+        long windowStart = 0;
+        long windowStartNanos = System.nanoTime();
+        boolean windowFull = false;
+        int index = 0;
+        try (ReadableByteChannel channel = readChannel) {
+            readBuffer.clear();
+            while (true) {
+                if (windowBytes > 0) {
+                    // read no further than the end of the window
+                    long windowEnd = (windowFull ? position : windowStart) + windowBytes;
+                    readBuffer.limit(readBuffer.position() + (int) Math.min(
+                            readBuffer.capacity() - readBuffer.position(), windowEnd - position));
+                }
+                int read = channel.read(readBuffer);
+                if (read == -1) {
+                    break;
+                }
+                // a full window is only written once more input follows, so that the last
+                // window written is always the final one
+                if (windowFull) {
+                    writeCounts(windowHeader(header, index++, windowStart, position, false),
+                            histogram);
+                    if (!cumulative) {
+                        addToAggregate(histogram);
+                        histogram = new CharacterHistogram(countCodePoints);
+                    }
+                    windowStart = position;
+                    windowStartNanos = System.nanoTime();
+                    windowFull = false;
+                }
+                position += read;
+                readBuffer.flip();
+                histogram.count(readBuffer, false);
+                readBuffer.compact();
+                windowFull = (windowBytes > 0 && position - windowStart >= windowBytes)
+                        || (windowNanos > 0
+                        && System.nanoTime() - windowStartNanos >= windowNanos);
             }
+            readBuffer.flip();
+            histogram.count(readBuffer, true);
         } catch (IOException e) {
             errorViews.write(new SnapDataException(e, e.getMessage()), header);
         }
+        writeCounts(windowHeader(header, index, windowStart, position, true), histogram);
+        addToAggregate(histogram);
+    }
+
+    private Document windowHeader(Document header, int index, long start, long end,
+            boolean last) {
+        Map<String, Object> headerData = new LinkedHashMap<>();
+        Object data = header.get();
+        if (data instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) data).entrySet()) {
+                headerData.put(String.valueOf(entry.getKey()), entry.getValue());
+            }
+        }
+        Map<String, Object> window = new LinkedHashMap<>();
+        window.put("index", index);
+        // cumulative counts always start at the beginning of the input
+        window.put("start", cumulative ? 0 : start);
+        window.put("end", end);
+        window.put("final", last);
+        headerData.put("window", window);
+        return documentUtility.newDocumentFor(header, headerData);
+    }
 
+    private void writeCounts(Document header, CharacterHistogram histogram) {
+        StringBuilder sb = new StringBuilder();
         try {
-            // for each letter of English alphabet, write a line with the number of times
-            // it appeared in the input data
-            for (char letter = 'a'; letter <= 'z'; letter++) {
-                sb.append(letter).append(":").append(bagOfChars.count(letter)).append(",");
+            if (countCodePoints) {
+                sb.append(mapper.writeValueAsString(toCodePointCounts(histogram)));
+            } else {
+                // for each letter of English alphabet, write a line with the number of times
+                // it appeared in the input data
+                for (char letter = 'a'; letter <= 'z'; letter++) {
+                    sb.append(letter).append(":").append(histogram.count(letter)).append(",");
+                }
+                sb.deleteCharAt(sb.length() - 1);
             }
-            sb.deleteCharAt(sb.length() - 1);
         } catch (Exception e) {
             // write to the error view when a problem processing the input data is encountered
             SnapDataException ex = new SnapDataException(e, "Unable to complete counting "
@@ -99,6 +426,41 @@ public class CharacterCounter extends SimpleBinaryWriteSnap {
             return;
         }
 
+        write(header, sb.toString());
+    }
+
+    private void countNGrams(Document header, ReadableByteChannel readChannel) {
+        NGramCounter counter = new NGramCounter(nGramLength, topK, memoryBudget);
+        String content;
+        try (ReadableByteChannel channel = readChannel) {
+            readBuffer.clear();
+            while (channel.read(readBuffer) != -1) {
+                readBuffer.flip();
+                counter.count(readBuffer, false);
+                readBuffer.compact();
+            }
+            readBuffer.flip();
+            counter.count(readBuffer, true);
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("length", nGramLength);
+            result.put("total", counter.total());
+            result.put("approximate", counter.isApproximate());
+            result.put("nGrams", counter.mostFrequent());
+            content = mapper.writeValueAsString(result);
+        } catch (IOException | IllegalArgumentException e) {
+            errorViews.write(new SnapDataException(e, e.getMessage()), header);
+            return;
+        } catch (IllegalStateException e) {
+            errorViews.write(new SnapDataException(e, e.getMessage())
+                    .withResolution("Set Top K to only estimate the counts of the most "
+                            + "frequent n-grams, or raise the memory budget"), header);
+            return;
+        }
+        write(header, content);
+    }
+
+    private void write(final Document header, final String content) {
         outputViews.write(new BinaryOutput() {
             @Override
             public Document getHeader() {
@@ -109,7 +471,7 @@ public class CharacterCounter extends SimpleBinaryWriteSnap {
             public void write(WritableByteChannel writeChannel) throws IOException {
                 OutputStream outputStream = Channels.newOutputStream(writeChannel);
                 try {
-                    IOUtils.write(sb.toString(), outputStream, UTF_8);
+                    IOUtils.write(content, outputStream, UTF_8);
                 } finally {
                     IOUtils.closeQuietly(outputStream);
                 }
@@ -117,9 +479,89 @@ public class CharacterCounter extends SimpleBinaryWriteSnap {
         });
     }
 
+    private Map<String, Object> toCodePointCounts(CharacterHistogram histogram) {
+        CountTable codePoints = histogram.codePoints();
+        Map<String, Long> counts = new LinkedHashMap<>();
+        long total = 0;
+        for (long key : codePoints.sortedKeys()) {
+            int codePoint = (int) key;
+            if (isSelected(codePoint)) {
+                long count = codePoints.get(codePoint);
+                counts.put(new String(Character.toChars(codePoint)), count);
+                total += count;
+            }
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("total", total);
+        result.put("distinct", counts.size());
+        result.put("counts", counts);
+        return result;
+    }
+
+    private boolean isSelected(int codePoint) {
+        if (alphabet == null && unicodeBlocks == null) {
+            return true;
+        }
+        return (alphabet != null && Arrays.binarySearch(alphabet, codePoint) >= 0)
+                || (unicodeBlocks != null
+                && unicodeBlocks.contains(Character.UnicodeBlock.of(codePoint)));
+    }
+
+    private void count(ReadableByteChannel channel, CharacterHistogram histogram)
+            throws IOException {
+        readBuffer.clear();
+        while (channel.read(readBuffer) != -1) {
+            readBuffer.flip();
+            histogram.count(readBuffer, false);
+            // keep the bytes of a character that continues in the next read
+            readBuffer.compact();
+        }
+        readBuffer.flip();
+        histogram.count(readBuffer, true);
+    }
+
+    private void countInParallel(ReadableByteChannel channel, CharacterHistogram histogram)
+            throws IOException {
+        if (channel instanceof FileChannel) {
+            histogram.add(ParallelCharacterCount.count((FileChannel) channel, pool,
+                    countCodePoints));
+            return;
+        }
+        // an input that fits in the read buffer is not worth spooling
+        readBuffer.clear();
+        while (readBuffer.hasRemaining()) {
+            if (channel.read(readBuffer) == -1) {
+                readBuffer.flip();
+                histogram.count(readBuffer, true);
+                return;
+            }
+        }
+        Path spool = Files.createTempFile("character-counter", ".tmp");
+        try (FileChannel file = FileChannel.open(spool, READ, WRITE, DELETE_ON_CLOSE)) {
+            do {
+                readBuffer.flip();
+                while (readBuffer.hasRemaining()) {
+                    file.write(readBuffer);
+                }
+                readBuffer.clear();
+            } while (channel.read(readBuffer) != -1);
+            file.position(0);
+            histogram.add(ParallelCharacterCount.count(file, pool, countCodePoints));
+        }
+    }
+
     @Override
     public void cleanup() throws ExecutionException {
-        // no-op
+        if (aggregate != null && aggregatedDocuments > 0) {
+            Map<String, Object> headerData = new LinkedHashMap<>();
+            headerData.put("documents", aggregatedDocuments);
+            writeCounts(documentUtility.newDocument(headerData), aggregate);
+            aggregate = null;
+        }
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
     }
 }
 
@@ -0,0 +1,198 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Counts the lower case form of each character of UTF-8 encoded bytes that is an ASCII
+ * character.
+ *
+ * <p>ASCII bytes are counted directly in a table indexed by the byte; upper case letters are
+ * folded into their lower case letters when the counts are read. Only runs of non-ASCII bytes
+ * are decoded, since such a run can never contain part of an ASCII character. Malformed input
+ * is decoded as replacement characters, like an {@link java.io.InputStreamReader} does.</p>
+ *
+ * <p>A histogram created to count code points also counts the lower case form of every other
+ * code point, in a {@link CountTable}.</p>
+ */
+final class CharacterHistogram {
+    private static final int ASCII = 128;
+    private static final int DECODE_BUFFER_SIZE = 4096;
+
+    private final long[] counts = new long[ASCII];
+    private final CharsetDecoder decoder = UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer chars = CharBuffer.allocate(DECODE_BUFFER_SIZE);
+    private final CountTable codePoints;
+
+    CharacterHistogram() {
+        this(false);
+    }
+
+    /**
+     * @param countCodePoints whether to count non-ASCII code points as well
+     */
+    CharacterHistogram(boolean countCodePoints) {
+        codePoints = countCodePoints ? new CountTable() : null;
+    }
+
+    /**
+     * Counts the characters of the remaining bytes of the buffer.
+     *
+     * <p>Unless this is the end of the input, bytes of a character that continues past the
+     * buffer's limit are left remaining, so the caller can compact the buffer and read more.</p>
+     *
+     * @param bytes      the bytes to count
+     * @param endOfInput whether no more bytes follow
+     */
+    void count(ByteBuffer bytes, boolean endOfInput) {
+        int position = bytes.position();
+        int limit = bytes.limit();
+        while (position < limit) {
+            position = bytes.hasArray()
+                    ? countAscii(bytes.array(), bytes.arrayOffset(), position, limit)
+                    : countAscii(bytes, position, limit);
+            if (position == limit) {
+                break;
+            }
+            int runEnd = position + 1;
+            while (runEnd < limit && bytes.get(runEnd) < 0) {
+                runEnd++;
+            }
+            bytes.position(position);
+            bytes.limit(runEnd);
+            // a run that ends before an ASCII byte is complete, even if it is malformed
+            decode(bytes, runEnd < limit || endOfInput);
+            position = bytes.position();
+            bytes.limit(limit);
+            if (position < runEnd) {
+                // an incomplete character at the end of the buffer
+                break;
+            }
+        }
+        bytes.position(position);
+    }
+
+    private int countAscii(byte[] array, int offset, int position, int limit) {
+        long[] counts = this.counts;
+        int i = offset + position;
+        int end = offset + limit;
+        while (i < end) {
+            byte b = array[i];
+            if (b < 0) {
+                break;
+            }
+            counts[b]++;
+            i++;
+        }
+        return i - offset;
+    }
+
+    private int countAscii(ByteBuffer bytes, int position, int limit) {
+        long[] counts = this.counts;
+        int i = position;
+        while (i < limit) {
+            byte b = bytes.get(i);
+            if (b < 0) {
+                break;
+            }
+            counts[b]++;
+            i++;
+        }
+        return i;
+    }
+
+    private void decode(ByteBuffer bytes, boolean endOfInput) {
+        decoder.reset();
+        while (true) {
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            if (endOfInput && result.isUnderflow()) {
+                decoder.flush(chars);
+            }
+            countDecoded();
+            if (result.isUnderflow()) {
+                return;
+            }
+        }
+    }
+
+    private void countDecoded() {
+        chars.flip();
+        if (codePoints == null) {
+            for (int i = 0; i < chars.limit(); i++) {
+                int lowerCase = Character.toLowerCase(chars.get(i));
+                if (lowerCase < ASCII) {
+                    counts[lowerCase]++;
+                }
+            }
+        } else {
+            char[] array = chars.array();
+            int limit = chars.limit();
+            for (int i = 0; i < limit; ) {
+                int codePoint = Character.codePointAt(array, i, limit);
+                int lowerCase = Character.toLowerCase(codePoint);
+                if (lowerCase < ASCII) {
+                    counts[lowerCase]++;
+                } else {
+                    codePoints.increment(lowerCase);
+                }
+                i += Character.charCount(codePoint);
+            }
+        }
+        chars.clear();
+    }
+
+    /**
+     * Returns the number of characters whose lower case form is the given ASCII character.
+     */
+    long count(char lowerCase) {
+        long count = counts[lowerCase];
+        if (lowerCase >= 'a' && lowerCase <= 'z') {
+            count += counts[lowerCase - 'a' + 'A'];
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of occurrences of the lower case form of each code point, when this
+     * histogram counts code points.
+     */
+    CountTable codePoints() {
+        CountTable all = new CountTable(codePoints.size() + ASCII);
+        all.addAll(codePoints);
+        for (int i = 0; i < ASCII; i++) {
+            if (counts[i] > 0) {
+                all.add(Character.toLowerCase(i), counts[i]);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     */
+    void add(CharacterHistogram other) {
+        for (int i = 0; i < ASCII; i++) {
+            counts[i] += other.counts[i];
+        }
+        if (codePoints != null && other.codePoints != null) {
+            codePoints.addAll(other.codePoints);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+/**
+ * Estimates the counts of long keys in a fixed amount of memory.
+ *
+ * <p>Each key is counted in one cell of each row, chosen by a different hash of the key. Keys
+ * sharing a cell add to each other's counts, so the smallest of a key's cells is an estimate
+ * that is never below its actual count.</p>
+ */
+final class CountMinSketch {
+    private static final int DEPTH = 4;
+    private static final int MIN_WIDTH = 64;
+    private static final int MAX_WIDTH = 1 << 28;
+
+    private final long[] cells;
+    private final int mask;
+
+    /**
+     * @param maxBytes the memory the cells may take
+     */
+    CountMinSketch(long maxBytes) {
+        long width = Long.highestOneBit(Math.max(maxBytes / (DEPTH * 8), MIN_WIDTH));
+        // keeps all the rows in one array
+        width = Math.min(width, MAX_WIDTH);
+        cells = new long[(int) width * DEPTH];
+        mask = (int) width - 1;
+    }
+
+    /**
+     * Adds the given amount to the count of the given key and returns its new estimate.
+     */
+    long add(long key, long delta) {
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int cell = row * (mask + 1) + ((h1 + row * h2) & mask);
+            cells[cell] += delta;
+            estimate = Math.min(estimate, cells[cell]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns the estimated count of the given key.
+     */
+    long estimate(long key) {
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, cells[row * (mask + 1) + ((h1 + row * h2) & mask)]);
+        }
+        return estimate;
+    }
+
+    // the finalizer of MurmurHash3, which spreads every key bit over the whole hash
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
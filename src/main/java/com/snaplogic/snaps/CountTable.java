@@ -0,0 +1,202 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import java.util.Arrays;
+
+/**
+ * Counts occurrences of long keys, such as code points or packed n-grams, in an open-addressing
+ * table of primitive arrays.
+ *
+ * <p>Keys are placed by a multiplicative hash and collisions are resolved by linear probing. The
+ * table doubles when it becomes half full, so incrementing the count of a key only allocates
+ * when a new key triggers a resize. The key -1 marks empty slots and cannot be counted.</p>
+ */
+final class CountTable {
+    private static final long EMPTY = -1;
+    private static final int MIN_CAPACITY = 16;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final int BYTES_PER_SLOT = 16;
+
+    private long[] keys;
+    private long[] counts;
+    private int shift;
+    private int size;
+
+    CountTable() {
+        this(MIN_CAPACITY);
+    }
+
+    CountTable(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Returns the number of bytes of a table holding the given number of keys.
+     */
+    static long bytesFor(int size) {
+        return (long) capacityFor(size) * BYTES_PER_SLOT;
+    }
+
+    /**
+     * Returns the number of bytes the table takes.
+     */
+    long bytes() {
+        return (long) keys.length * BYTES_PER_SLOT;
+    }
+
+    /**
+     * Adds one to the count of the given key.
+     */
+    void increment(long key) {
+        add(key, 1);
+    }
+
+    /**
+     * Adds the given amount to the count of the given key.
+     *
+     * @param key   any key but -1
+     * @param delta the amount to add
+     */
+    void add(long key, long delta) {
+        int slot = insert(key);
+        counts[slot] += delta;
+    }
+
+    /**
+     * Sets the count of the given key.
+     */
+    void put(long key, long count) {
+        int slot = insert(key);
+        counts[slot] = count;
+    }
+
+    /**
+     * Adds the counts of another table to this one.
+     */
+    void addAll(CountTable other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != EMPTY) {
+                add(other.keys[i], other.counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the count of the given key, or 0 when it was never counted.
+     */
+    long get(long key) {
+        int slot = slot(key);
+        return keys[slot] == EMPTY ? 0 : counts[slot];
+    }
+
+    /**
+     * Removes the given key and returns its count, or 0 when it was never counted.
+     */
+    long remove(long key) {
+        int slot = slot(key);
+        if (keys[slot] == EMPTY) {
+            return 0;
+        }
+        long count = counts[slot];
+        // shift back the keys that probed past the freed slot
+        int mask = keys.length - 1;
+        int free = slot;
+        for (int next = (free + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = home(keys[next]);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                counts[free] = counts[next];
+                free = next;
+            }
+        }
+        keys[free] = EMPTY;
+        counts[free] = 0;
+        size--;
+        return count;
+    }
+
+    /**
+     * Returns the number of distinct keys counted.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the counted keys in ascending order.
+     */
+    long[] sortedKeys() {
+        long[] sorted = new long[size];
+        int next = 0;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                sorted[next++] = key;
+            }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private int insert(long key) {
+        int slot = slot(key);
+        if (keys[slot] == EMPTY) {
+            if (2 * (size + 1) > keys.length) {
+                resize();
+                slot = slot(key);
+            }
+            keys[slot] = key;
+            size++;
+        }
+        return slot;
+    }
+
+    private int home(long key) {
+        return (int) ((key * HASH_MULTIPLIER) >>> shift);
+    }
+
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int slot = home(key);
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldCounts = counts;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        counts = new long[capacity];
+        shift = Long.numberOfLeadingZeros(capacity) + 1;
+    }
+
+    private static int capacityFor(int size) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2 * size) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
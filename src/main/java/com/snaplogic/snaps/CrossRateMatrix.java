@@ -0,0 +1,88 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The exchange rate between every pair of currencies of an {@link ExchangeRates} table.
+ *
+ * <p>Currency codes are mapped to small indices once, in a hash map, and the rate from one
+ * currency to another is precomputed as {@code rate(to) / rate(from)} relative to the table's
+ * base currency, so a lookup hashes the two codes and reads one array element. Rates from the
+ * base currency are copied from the table unchanged.</p>
+ */
+final class CrossRateMatrix {
+    private final Map<String, Integer> indices;
+    private final int size;
+    // the rate from currency i to currency j at i * size + j
+    private final double[] rates;
+
+    private CrossRateMatrix(Map<String, Integer> indices, double[] rates) {
+        this.indices = indices;
+        this.size = indices.size();
+        this.rates = rates;
+    }
+
+    static CrossRateMatrix of(ExchangeRates exchangeRates) {
+        String base = exchangeRates.getBase();
+        int tableSize = exchangeRates.size();
+        boolean addBase = base != null && exchangeRates.indexOf(base) < 0;
+        int size = addBase ? tableSize + 1 : tableSize;
+        Map<String, Integer> indices = new HashMap<>(2 * size);
+        double[] baseRates = new double[size];
+        for (int i = 0; i < tableSize; i++) {
+            indices.put(exchangeRates.code(i), i);
+            baseRates[i] = exchangeRates.rate(i);
+        }
+        if (addBase) {
+            indices.put(base, tableSize);
+            baseRates[tableSize] = 1;
+        }
+
+        Integer baseIndex = base == null ? null : indices.get(base);
+        double[] rates = new double[size * size];
+        for (int from = 0; from < size; from++) {
+            boolean isBase = baseIndex != null && from == baseIndex;
+            for (int to = 0; to < size; to++) {
+                rates[from * size + to] = isBase ? baseRates[to] : baseRates[to] / baseRates[from];
+            }
+        }
+        return new CrossRateMatrix(indices, rates);
+    }
+
+    /**
+     * Returns the index of the currency, or a negative value if the matrix does not contain it.
+     */
+    int indexOf(String currencyCode) {
+        Integer index = currencyCode == null ? null : indices.get(currencyCode);
+        return index == null ? -1 : index;
+    }
+
+    double rate(int from, int to) {
+        return rates[from * size + to];
+    }
+
+    /**
+     * Returns the rate from one currency to another, or {@link Double#NaN} if either currency
+     * is unknown.
+     */
+    double get(String fromCurrency, String toCurrency) {
+        int from = indexOf(fromCurrency);
+        int to = indexOf(toCurrency);
+        return from < 0 || to < 0 ? Double.NaN : rates[from * size + to];
+    }
+
+    int size() {
+        return size;
+    }
+}
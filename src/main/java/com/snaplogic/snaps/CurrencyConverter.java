@@ -10,13 +10,18 @@
  */
 package com.snaplogic.snaps;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
+import com.google.inject.name.Names;
 import com.snaplogic.api.ConfigurationException;
 import com.snaplogic.api.DependencyManager;
+import com.snaplogic.api.ExecutionException;
+import com.snaplogic.common.SnapType;
 import com.snaplogic.common.properties.SnapProperty;
 import com.snaplogic.common.properties.builders.PropertyBuilder;
 import com.snaplogic.snap.api.Document;
@@ -36,14 +41,32 @@ import com.snaplogic.snap.api.fs.URLEncoder;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.format.DateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
 import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import static org.joda.time.DateTime.now;
@@ -52,8 +75,36 @@ import static org.joda.time.DateTimeZone.UTC;
 /**
  * A basic example of a Snap that converts amount values from USD to another currency.
  *
+ * <p>A document may name its source currency in an optional {@code from} field, in which case
+ * the amount is converted at the cross rate between the two currencies. Exchange rates read from
+ * a file precompute these cross rates once, see {@link CrossRateMatrix}.</p>
+ *
  * <p>{@link DependencyManager} is used to inject dependencies for {@link ForEx} and
- * {@link ObjectMapper}.</p>
+ * {@link ObjectMapper}. Exchange rate lookups are cached per currency by
+ * {@link CachingForEx}.</p>
+ *
+ * <p>Exchange rates read from a file are loaded once per execution, or shared through the
+ * {@link ExchangeRatesCache} when a cache time-to-live is configured. The file is streamed and
+ * only its base, date and rates are kept, see {@link ExchangeRates}. A cached local
+ * {@code file:///} file is also reloaded as soon as it changes.</p>
+ *
+ * <p>With a batch size greater than one, documents are buffered and each batch looks up the
+ * exchange rates of its distinct target currencies in a single {@link ForEx} call. Converted
+ * documents are written in input order.</p>
+ *
+ * <p>With more than one lookup in flight, exchange rates are looked up asynchronously while
+ * later documents keep arriving; {@link ForExImpl} looks them up on a bounded pool of threads.
+ * Completed conversions wait in a reorder buffer until all earlier documents have been written,
+ * so the output stays in input order.</p>
+ *
+ * <p>A lookup timeout bounds the wait for exchange rates, see {@link ResilientForEx}; documents
+ * converted at the last known rates instead are marked with a {@code stale} field.</p>
+ *
+ * <p>With a historical rates file, every document is converted at the rates in effect on the
+ * date in its {@code date} field, see {@link HistoricalRates}.</p>
+ *
+ * <p>Fixed point arithmetic multiplies amounts and rates as scaled {@code long} values and rounds
+ * the converted amount to the configured scale, see {@link FixedPointArithmetic}.</p>
  */
 @General(title = "Currency Converter", author = "Your Company Name",
         purpose = "Demonstrates dependency injection",
@@ -64,14 +115,48 @@ import static org.joda.time.DateTimeZone.UTC;
 @Category(snap = SnapCategory.READ)
 public class CurrencyConverter extends SimpleSnap implements DependencyManager {
 
+    private static final Logger log = LoggerFactory.getLogger(CurrencyConverter.class);
     private static final String INPUT_FILE_PROP = "inputFile";
+    private static final String HISTORICAL_RATES_FILE_PROP = "historicalRatesFile";
+    private static final String RATES_CACHE_TTL_PROP = "ratesCacheTtl";
+    private static final String LOOKUP_CACHE_TTL_PROP = "lookupCacheTtl";
+    private static final String LOOKUP_CACHE_SIZE_PROP = "lookupCacheSize";
+    private static final String BATCH_SIZE_PROP = "batchSize";
+    private static final String BATCH_TIMEOUT_PROP = "batchTimeout";
+    private static final String MAX_IN_FLIGHT_PROP = "maxInFlight";
+    private static final String LOOKUP_TIMEOUT_PROP = "lookupTimeout";
+    private static final String CIRCUIT_BREAKER_THRESHOLD_PROP = "circuitBreakerThreshold";
+    private static final String CIRCUIT_BREAKER_RESET_PROP = "circuitBreakerReset";
+    private static final String ARITHMETIC_PROP = "arithmetic";
+    private static final String SCALE_PROP = "scale";
+    private static final String ROUNDING_MODE_PROP = "roundingMode";
+    private static final String DECIMAL_ARITHMETIC = "Decimal";
+    private static final String FIXED_POINT_ARITHMETIC = "Fixed point";
     private static final String REGEX_PATTERN_PROTOCOL = "^sldb:///|^http://|^https://|^file:///";
     private static final Pattern PATTERN = Pattern.compile(REGEX_PATTERN_PROTOCOL);
 
     private String filePath;
-    private TypeReference<Map<String, Object>> mapTypeReference =
-            new TypeReference<Map<String, Object>>() {
-            };
+    private long ratesCacheTtl;
+    private URI filePathUri;
+    private ExchangeRatesCache.Lease ratesLease;
+    private ExchangeRates fileExchangeRates;
+    private String historicalFilePath;
+    private HistoricalRates historicalRates;
+    private int batchSize;
+    private long batchTimeoutNanos;
+    private long batchStartNanos;
+    private final List<Document> batchDocuments = new ArrayList<>();
+    private final List<Map<String, Object>> batchData = new ArrayList<>();
+    private int maxInFlight;
+    private long lookupTimeout;
+    private int circuitBreakerThreshold;
+    private long circuitBreakerReset;
+    private ForEx resilientForeignExchange;
+    private final Deque<PendingConversion> pendingConversions = new ArrayDeque<>();
+    private FixedPointArithmetic fixedPointArithmetic;
+    private final Map<String, FixedPointArithmetic.Rate> fixedPointRates = new HashMap<>();
+    // bound for the CachingForEx, which reads it once the Snap is configured
+    private final CachingForEx.Settings lookupCacheSettings = new CachingForEx.Settings();
 
     // the SnapLogic platform takes care of injecting an ObjectMapper instance
     @Inject
@@ -89,7 +174,11 @@ public class CurrencyConverter extends SimpleSnap implements DependencyManager {
         return new AbstractModule() {
             @Override
             protected void configure() {
-                bind(ForEx.class).to(ForExImpl.class);
+                // lookups go through a cache in front of the actual ForEx implementation
+                bind(ForEx.class).to(CachingForEx.class);
+                bind(ForEx.class).annotatedWith(Names.named(CachingForEx.DELEGATE))
+                        .to(ForExImpl.class);
+                bind(CachingForEx.Settings.class).toInstance(lookupCacheSettings);
                 bind(JfsUtils.class).toInstance(JfsUtils.getInstance());
             }
         };
@@ -104,78 +193,676 @@ public class CurrencyConverter extends SimpleSnap implements DependencyManager {
                 .fileBrowsing()
                 .schemaAware(SnapProperty.DecoratorType.ACCEPTS_SCHEMA)
                 .add();
+
+        propertyBuilder.describe(HISTORICAL_RATES_FILE_PROP, "Historical Rates File",
+                "File containing a JSON array of daily foreign exchange rates; documents are "
+                        + "converted at the rates of the date in their 'date' field")
+                .expression()
+                .fileBrowsing()
+                .add();
+
+        // 0 reads the file once per execution; otherwise the rates are shared JVM-wide
+        propertyBuilder.describe(RATES_CACHE_TTL_PROP, "Rates Cache TTL (seconds)",
+                "Number of seconds exchange rates read from the file are shared across "
+                        + "executions before being reloaded; 0 reads the file once per execution. "
+                        + "Cached local files are also reloaded as soon as they change")
+                .type(SnapType.INTEGER)
+                .defaultValue(0)
+                .add();
+
+        propertyBuilder.describe(LOOKUP_CACHE_TTL_PROP, "Lookup Cache TTL (seconds)",
+                "Number of seconds the exchange rates looked up for a currency are reused "
+                        + "before being looked up again; 0 looks them up for every document")
+                .type(SnapType.INTEGER)
+                .defaultValue(CachingForEx.DEFAULT_TTL_SECONDS)
+                .add();
+
+        propertyBuilder.describe(LOOKUP_CACHE_SIZE_PROP, "Lookup Cache Size",
+                "Maximum number of currencies whose looked up exchange rates are kept; the "
+                        + "least recently used currency is evicted first")
+                .type(SnapType.INTEGER)
+                .defaultValue(CachingForEx.DEFAULT_MAX_SIZE)
+                .add();
+
+        propertyBuilder.describe(BATCH_SIZE_PROP, "Batch Size",
+                "Number of documents converted together with one exchange rate lookup per "
+                        + "distinct currency; 1 converts each document as it arrives")
+                .type(SnapType.INTEGER)
+                .defaultValue(1)
+                .add();
+
+        propertyBuilder.describe(BATCH_TIMEOUT_PROP, "Batch Timeout (milliseconds)",
+                "Maximum time a document waits for its batch to fill up; 0 waits until the "
+                        + "batch is full or the input ends. The timeout is checked as documents "
+                        + "arrive, so while the input stalls a partial batch waits for the next "
+                        + "document or the end of the input")
+                .type(SnapType.INTEGER)
+                .defaultValue(0)
+                .add();
+
+        propertyBuilder.describe(MAX_IN_FLIGHT_PROP, "Maximum Lookups In Flight",
+                "Number of asynchronous exchange rate lookups that may be outstanding at once; "
+                        + "1 looks up the rates of each document before reading the next one")
+                .type(SnapType.INTEGER)
+                .defaultValue(1)
+                .add();
+
+        propertyBuilder.describe(LOOKUP_TIMEOUT_PROP, "Lookup Timeout (milliseconds)",
+                "Maximum time to wait for the exchange rates of a lookup before using the last "
+                        + "known rates, which are marked as stale; 0 waits indefinitely")
+                .type(SnapType.INTEGER)
+                .defaultValue(0)
+                .add();
+
+        propertyBuilder.describe(CIRCUIT_BREAKER_THRESHOLD_PROP, "Circuit Breaker Threshold",
+                "Number of consecutive failed or timed out lookups after which lookups are "
+                        + "paused and the last known rates are used")
+                .type(SnapType.INTEGER)
+                .defaultValue(5)
+                .add();
+
+        propertyBuilder.describe(CIRCUIT_BREAKER_RESET_PROP, "Circuit Breaker Reset (seconds)",
+                "Time lookups stay paused before a single lookup checks whether the exchange "
+                        + "rate service has recovered")
+                .type(SnapType.INTEGER)
+                .defaultValue(30)
+                .add();
+
+        propertyBuilder.describe(ARITHMETIC_PROP, "Arithmetic",
+                "Decimal multiplies amounts and rates as BigDecimals; Fixed point multiplies "
+                        + "them as scaled long values and rounds the result to the scale")
+                .withAllowedValues(ImmutableSet.of(DECIMAL_ARITHMETIC, FIXED_POINT_ARITHMETIC))
+                .defaultValue(DECIMAL_ARITHMETIC)
+                .add();
+
+        propertyBuilder.describe(SCALE_PROP, "Scale",
+                "Number of decimal places of converted amounts when using fixed point arithmetic")
+                .type(SnapType.INTEGER)
+                .defaultValue(6)
+                .add();
+
+        propertyBuilder.describe(ROUNDING_MODE_PROP, "Rounding Mode",
+                "How converted amounts are rounded to the scale when using fixed point arithmetic")
+                .withAllowedValues(ImmutableSet.of(RoundingMode.HALF_EVEN.name(),
+                        RoundingMode.HALF_UP.name(), RoundingMode.HALF_DOWN.name(),
+                        RoundingMode.UP.name(), RoundingMode.DOWN.name(),
+                        RoundingMode.CEILING.name(), RoundingMode.FLOOR.name()))
+                .defaultValue(RoundingMode.HALF_EVEN.name())
+                .add();
     }
 
     @Override
     public void configure(PropertyValues propertyValues) throws ConfigurationException {
         filePath = propertyValues.getAsExpression(INPUT_FILE_PROP).eval(null);
+        historicalFilePath = propertyValues.getAsExpression(HISTORICAL_RATES_FILE_PROP)
+                .eval(null);
+        if (StringUtils.isNotBlank(filePath) && StringUtils.isNotBlank(historicalFilePath)) {
+            throw new ConfigurationException("Both exchange rates files are set")
+                    .withReason("Documents are converted either at the current rates or at "
+                            + "the historical rates of their date")
+                    .withResolution("Set either the exchange rates file or the historical "
+                            + "rates file");
+        }
+
+        BigInteger ttlValue = propertyValues.get(RATES_CACHE_TTL_PROP);
+        ratesCacheTtl = ttlValue == null ? 0 : ttlValue.longValue();
+        if (ratesCacheTtl < 0) {
+            throw new ConfigurationException(
+                    String.format("Invalid rates cache TTL value %d", ratesCacheTtl))
+                    .withReason("Value of the rates cache TTL cannot be negative")
+                    .withResolution("Ensure the rates cache TTL is greater than or equal to zero");
+        }
+
+        BigInteger lookupCacheTtlValue = propertyValues.get(LOOKUP_CACHE_TTL_PROP);
+        long lookupCacheTtl = lookupCacheTtlValue == null ? CachingForEx.DEFAULT_TTL_SECONDS :
+                lookupCacheTtlValue.longValue();
+        BigInteger lookupCacheSizeValue = propertyValues.get(LOOKUP_CACHE_SIZE_PROP);
+        long lookupCacheSize = lookupCacheSizeValue == null ? CachingForEx.DEFAULT_MAX_SIZE :
+                lookupCacheSizeValue.longValue();
+        if (lookupCacheTtl < 0 || lookupCacheSize < 0) {
+            throw new ConfigurationException("Invalid lookup cache settings")
+                    .withReason("The lookup cache TTL and size cannot be negative")
+                    .withResolution("Ensure the lookup cache TTL and size are greater than or "
+                            + "equal to zero");
+        }
+        lookupCacheSettings.set(lookupCacheTtl, lookupCacheSize);
+
+        BigInteger batchSizeValue = propertyValues.get(BATCH_SIZE_PROP);
+        batchSize = batchSizeValue == null ? 1 : batchSizeValue.intValue();
+        if (batchSize < 1) {
+            throw new ConfigurationException(
+                    String.format("Invalid batch size value %d", batchSize))
+                    .withReason("Value of the batch size must be positive")
+                    .withResolution("Ensure the batch size is greater than or equal to one");
+        }
+        BigInteger batchTimeoutValue = propertyValues.get(BATCH_TIMEOUT_PROP);
+        long batchTimeout = batchTimeoutValue == null ? 0 : batchTimeoutValue.longValue();
+        if (batchTimeout < 0) {
+            throw new ConfigurationException(
+                    String.format("Invalid batch timeout value %d", batchTimeout))
+                    .withReason("Value of the batch timeout must not be negative")
+                    .withResolution("Ensure the batch timeout is greater than or equal to zero");
+        }
+        batchTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(batchTimeout);
+
+        BigInteger maxInFlightValue = propertyValues.get(MAX_IN_FLIGHT_PROP);
+        maxInFlight = maxInFlightValue == null ? 1 : maxInFlightValue.intValue();
+        if (maxInFlight < 1) {
+            throw new ConfigurationException(
+                    String.format("Invalid maximum lookups in flight value %d", maxInFlight))
+                    .withReason("Value of the maximum lookups in flight must be positive")
+                    .withResolution("Ensure the maximum lookups in flight is greater than or "
+                            + "equal to one");
+        }
+        if (maxInFlight > 1 && batchSize > 1) {
+            throw new ConfigurationException("Batching and asynchronous lookups are both enabled")
+                    .withReason("Documents are either converted in batches or looked up "
+                            + "asynchronously one by one")
+                    .withResolution("Set either the batch size or the maximum lookups in flight "
+                            + "to one");
+        }
+
+        BigInteger lookupTimeoutValue = propertyValues.get(LOOKUP_TIMEOUT_PROP);
+        lookupTimeout = lookupTimeoutValue == null ? 0 : lookupTimeoutValue.longValue();
+        BigInteger thresholdValue = propertyValues.get(CIRCUIT_BREAKER_THRESHOLD_PROP);
+        circuitBreakerThreshold = thresholdValue == null ? 5 : thresholdValue.intValue();
+        BigInteger resetValue = propertyValues.get(CIRCUIT_BREAKER_RESET_PROP);
+        circuitBreakerReset = resetValue == null ? 30 : resetValue.longValue();
+        if (lookupTimeout < 0 || circuitBreakerThreshold < 1 || circuitBreakerReset < 0) {
+            throw new ConfigurationException("Invalid lookup timeout or circuit breaker settings")
+                    .withReason("The lookup timeout and circuit breaker reset cannot be "
+                            + "negative, and the circuit breaker threshold must be positive")
+                    .withResolution("Ensure the lookup timeout and circuit breaker reset are "
+                            + "at least zero and the threshold is at least one");
+        }
+
+        String arithmetic = propertyValues.get(ARITHMETIC_PROP);
+        if (FIXED_POINT_ARITHMETIC.equals(arithmetic)) {
+            BigInteger scaleValue = propertyValues.get(SCALE_PROP);
+            int scale = scaleValue == null ? 6 : scaleValue.intValue();
+            if (scale < 0 || scale > FixedPointArithmetic.MAX_SCALE) {
+                throw new ConfigurationException(String.format("Invalid scale value %d", scale))
+                        .withReason("Fixed point arithmetic supports a limited number of "
+                                + "decimal places")
+                        .withResolution(String.format("Ensure the scale is between 0 and %d",
+                                FixedPointArithmetic.MAX_SCALE));
+            }
+            String roundingMode = propertyValues.get(ROUNDING_MODE_PROP);
+            fixedPointArithmetic = new FixedPointArithmetic(scale, roundingMode == null ?
+                    RoundingMode.HALF_EVEN : RoundingMode.valueOf(roundingMode));
+        }
+    }
+
+    @Override
+    public void execute() throws ExecutionException {
+        super.execute();
+        // convert the documents of a partially filled batch once the input is exhausted
+        flushBatch();
+        while (!pendingConversions.isEmpty()) {
+            writeNextPendingConversion();
+        }
     }
 
     @Override
     protected void process(Document document, String inputViewName) {
         @SuppressWarnings("unchecked")
         Map<String, Object> docAsMap = documentUtility.getAsMap(document, errorViews);
-        String targetCurrency = (String) docAsMap.get("to");
-        BigDecimal amount = BigDecimal.valueOf(((Number) docAsMap.get("amount")).doubleValue());
 
-        Map<String, Object> exchangeRates = null;
+        // historical rates are in memory, so there is nothing to batch or look up
+        if (StringUtils.isNotBlank(historicalFilePath)) {
+            convertAtHistoricalRates(document, docAsMap);
+            return;
+        }
+        if (batchSize > 1) {
+            addToBatch(document, docAsMap);
+            return;
+        }
+        // rates read from a file are already in memory, so they are never looked up
+        // asynchronously
+        if (maxInFlight > 1 && StringUtils.isBlank(filePath)) {
+            addToPipeline(document, docAsMap);
+            return;
+        }
+
+        String targetCurrency = (String) docAsMap.get("to");
 
         // If a file was provided, use the exchange rates within it; otherwise, look them up from
         // the service
         if (StringUtils.isNotBlank(filePath)) {
-            exchangeRates = getExchangeRatesFromFile(document);
+            convert(document, docAsMap, getExchangeRatesFromFile(document));
         } else {
-            exchangeRates = foreignExchange.getExchangeRates(targetCurrency);
+            Map<String, Object> exchangeRates;
+            try {
+                exchangeRates = getForeignExchange().getExchangeRates(targetCurrency);
+            } catch (RuntimeException e) {
+                errorViews.write(lookupFailure(document, e), document);
+                return;
+            }
+            convert(document, docAsMap, exchangeRates);
         }
+    }
 
-        if (exchangeRates != null) {
-            outputViews.write(documentUtility.newDocument(
-                    getExchangeRateForCurrency(targetCurrency, amount, exchangeRates)), document);
+    @Override
+    public void cleanup() throws ExecutionException {
+        ExchangeRatesCache cache = ExchangeRatesCache.getInstance();
+        if (ratesLease != null) {
+            try {
+                ratesLease.close();
+            } catch (IOException e) {
+                log.warn("Unable to stop watching {}", filePathUri, e);
+            }
+            ratesLease = null;
+        }
+        log.debug("Exchange rates cache hits={}, misses={}, reloads={}", cache.hitCount(),
+                cache.missCount(), cache.reloadCount());
+    }
+
+    private void addToBatch(Document document, Map<String, Object> docAsMap) {
+        if (batchDocuments.isEmpty()) {
+            batchStartNanos = System.nanoTime();
+        }
+        batchDocuments.add(document);
+        batchData.add(docAsMap);
+
+        // the timeout is checked as documents arrive, so output is only ever written from the
+        // thread that processes the input
+        if (batchDocuments.size() >= batchSize || (batchTimeoutNanos > 0
+                && System.nanoTime() - batchStartNanos >= batchTimeoutNanos)) {
+            flushBatch();
+        }
+    }
+
+    private void flushBatch() {
+        if (batchDocuments.isEmpty()) {
+            return;
+        }
+        try {
+            ExchangeRates fileRates = null;
+            Map<String, Map<String, Object>> ratesByCurrency = null;
+            try {
+                if (StringUtils.isNotBlank(filePath)) {
+                    fileRates = getExchangeRatesFromFile(batchDocuments.get(0));
+                } else {
+                    Set<String> currencies = new LinkedHashSet<>();
+                    for (Map<String, Object> docAsMap : batchData) {
+                        currencies.add((String) docAsMap.get("to"));
+                    }
+                    ratesByCurrency = getForeignExchange().getAllExchangeRates(currencies);
+                }
+            } catch (SnapDataException e) {
+                for (Document document : batchDocuments) {
+                    errorViews.write(e, document);
+                }
+                return;
+            } catch (RuntimeException e) {
+                for (Document document : batchDocuments) {
+                    errorViews.write(lookupFailure(document, e), document);
+                }
+                return;
+            }
+
+            for (int i = 0; i < batchDocuments.size(); i++) {
+                Document document = batchDocuments.get(i);
+                Map<String, Object> docAsMap = batchData.get(i);
+                try {
+                    if (fileRates != null) {
+                        convert(document, docAsMap, fileRates);
+                    } else {
+                        convert(document, docAsMap, getLookedUpRates(document, docAsMap,
+                                ratesByCurrency));
+                    }
+                } catch (SnapDataException e) {
+                    errorViews.write(e, document);
+                } catch (RuntimeException e) {
+                    // one bad document must not prevent the rest of the batch from being written
+                    errorViews.write(new SnapDataException(e,
+                            "Unable to convert the document amount"), document);
+                }
+            }
+        } finally {
+            batchDocuments.clear();
+            batchData.clear();
+        }
+    }
+
+    // a bulk lookup leaves out the currencies it has no rates of, which fails only their documents
+    private static Map<String, Object> getLookedUpRates(Document document,
+            Map<String, Object> docAsMap, Map<String, Map<String, Object>> ratesByCurrency) {
+        Object targetCurrency = docAsMap.get("to");
+        Map<String, Object> exchangeRates = ratesByCurrency.get(targetCurrency);
+        if (exchangeRates == null) {
+            throw new SnapDataException(document,
+                    String.format("No exchange rates for currency %s", targetCurrency))
+                    .withReason("The exchange rate lookup failed or returned no rates for the "
+                            + "currency")
+                    .withResolution("Ensure the exchange rate service is available and the "
+                            + "document's 'to' field is a supported currency");
         }
+        return exchangeRates;
     }
 
-    private Map<String, Object> getExchangeRatesFromFile(Document document) {
+    // a lookup that failed, timed out or was refused by an open circuit without rates to fall
+    // back on fails only the documents that needed its rates
+    private static SnapDataException lookupFailure(Document document, Throwable cause) {
+        return new SnapDataException(document, cause, "Unable to look up the exchange rates")
+                .withReason("The exchange rate lookup failed or timed out, and no earlier rates "
+                        + "of the currency are known")
+                .withResolution("Ensure the exchange rate service is available, or increase "
+                        + "the lookup timeout");
+    }
+
+    private void addToPipeline(Document document, Map<String, Object> docAsMap) {
+        pendingConversions.add(new PendingConversion(document, docAsMap,
+                getForeignExchange().getExchangeRatesAsync((String) docAsMap.get("to"))));
+
+        // write the conversions that completed in order, and wait for the oldest lookup while
+        // all lookups are in flight; output is only ever written from the processing thread
+        while (!pendingConversions.isEmpty() && (pendingConversions.peek().exchangeRates.isDone()
+                || pendingConversions.size() >= maxInFlight)) {
+            writeNextPendingConversion();
+        }
+    }
+
+    private void writeNextPendingConversion() {
+        PendingConversion conversion = pendingConversions.poll();
         Map<String, Object> exchangeRates;
-        InputStream inputStream = null;
         try {
-            URI filePathUri = urlEncoder.validateAndEncodeURI(filePath, PATTERN, null);
-            inputStream = jfsUtils.openURLConnection(filePathUri).getInputStream();
-            exchangeRates = mapper.readValue(inputStream, mapTypeReference);
+            exchangeRates = conversion.exchangeRates.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pendingConversions.clear();
+            throw new ExecutionException(e, "Interrupted while waiting for exchange rates")
+                    .withResolutionAsDefect();
+        } catch (java.util.concurrent.ExecutionException e) {
+            errorViews.write(lookupFailure(conversion.document, e.getCause()),
+                    conversion.document);
+            return;
+        }
+        try {
+            convert(conversion.document, conversion.docAsMap, exchangeRates);
+        } catch (SnapDataException e) {
+            errorViews.write(e, conversion.document);
+        }
+    }
+
+    private void convert(Document document, Map<String, Object> docAsMap,
+            Map<String, Object> exchangeRates) {
+        if (exchangeRates != null) {
+            Map<String, Object> forExRates = (Map<String, Object>) exchangeRates.get("rates");
+            Number forExRate = (Number) forExRates.get(docAsMap.get("to"));
+            Object sourceCurrency = docAsMap.get("from");
+            if (forExRate != null && sourceCurrency != null
+                    && !sourceCurrency.equals(exchangeRates.get("base"))) {
+                Number sourceRate = (Number) forExRates.get(sourceCurrency);
+                forExRate = sourceRate == null ? null :
+                        forExRate.doubleValue() / sourceRate.doubleValue();
+            }
+            convert(document, docAsMap, forExRate,
+                    Boolean.TRUE.equals(exchangeRates.get(ResilientForEx.STALE)));
+        }
+    }
+
+    private void convert(Document document, Map<String, Object> docAsMap,
+            ExchangeRates exchangeRates) {
+        String targetCurrency = (String) docAsMap.get("to");
+        String sourceCurrency = (String) docAsMap.get("from");
+        double forExRate = sourceCurrency == null ? exchangeRates.get(targetCurrency) :
+                exchangeRates.crossRates().get(sourceCurrency, targetCurrency);
+        convert(document, docAsMap, Double.isNaN(forExRate) ? null : forExRate, false);
+    }
+
+    private void convertAtHistoricalRates(Document document, Map<String, Object> docAsMap) {
+        Object date = docAsMap.get("date");
+        if (!(date instanceof String)) {
+            throw new SnapDataException(document, "Document has no date")
+                    .withReason("Historical rates are looked up by the document's date")
+                    .withResolution("Ensure the document has a 'date' field in yyyy-MM-dd "
+                            + "format");
+        }
+        int epochDay;
+        try {
+            epochDay = HistoricalRates.toEpochDay((String) date);
+        } catch (IllegalArgumentException e) {
+            throw new SnapDataException(document, e,
+                    String.format("Invalid document date %s", date))
+                    .withReason("Historical rates are looked up by the document's date")
+                    .withResolution("Ensure the document's 'date' field is in yyyy-MM-dd "
+                            + "format");
+        }
+        double forExRate = getHistoricalRates(document).get((String) docAsMap.get("from"),
+                (String) docAsMap.get("to"), epochDay);
+        convert(document, docAsMap, Double.isNaN(forExRate) ? null : forExRate, false);
+    }
+
+    private void convert(Document document, Map<String, Object> docAsMap, Number forExRate,
+            boolean stale) {
+        String targetCurrency = (String) docAsMap.get("to");
+        if (forExRate == null) {
+            Object sourceCurrency = docAsMap.get("from");
+            throw new SnapDataException(document, sourceCurrency == null ?
+                    String.format("No exchange rate for currency %s", targetCurrency) :
+                    String.format("No exchange rate from %s to %s", sourceCurrency,
+                            targetCurrency))
+                    .withReason("The exchange rates do not contain the currency")
+                    .withResolution("Ensure the document's 'from' and 'to' fields are "
+                            + "supported currencies");
+        }
+        Number amount = (Number) docAsMap.get("amount");
+        Map<String, BigDecimal> convertedCurrency;
+        if (fixedPointArithmetic != null) {
+            convertedCurrency = getFixedPointExchangeRateForCurrency(targetCurrency, amount,
+                    getFixedPointRate(targetCurrency, forExRate), fixedPointArithmetic);
+        } else {
+            convertedCurrency = getExchangeRateForCurrency(targetCurrency,
+                    BigDecimal.valueOf(amount.doubleValue()), forExRate);
+        }
+        if (stale) {
+            Map<String, Object> staleConversion = new LinkedHashMap<String, Object>(
+                    convertedCurrency);
+            staleConversion.put(ResilientForEx.STALE, true);
+            outputViews.write(documentUtility.newDocument(staleConversion), document);
+        } else {
+            outputViews.write(documentUtility.newDocument(convertedCurrency), document);
+        }
+    }
+
+    // the rate of each currency is converted to long units once, and again only when it changes
+    private FixedPointArithmetic.Rate getFixedPointRate(String targetCurrency, Number forExRate) {
+        FixedPointArithmetic.Rate rate = fixedPointRates.get(targetCurrency);
+        if (rate == null || !rate.value().equals(forExRate)) {
+            rate = new FixedPointArithmetic.Rate(forExRate);
+            fixedPointRates.put(targetCurrency, rate);
+        }
+        return rate;
+    }
+
+    private ForEx getForeignExchange() {
+        if (lookupTimeout <= 0) {
+            return foreignExchange;
+        }
+        // created on first use, once the lookup service has been injected
+        if (resilientForeignExchange == null) {
+            resilientForeignExchange = new ResilientForEx(foreignExchange, lookupTimeout,
+                    circuitBreakerThreshold, TimeUnit.SECONDS.toMillis(circuitBreakerReset),
+                    TimeUnit.MILLISECONDS);
+        }
+        return resilientForeignExchange;
+    }
+
+    private ExchangeRates getExchangeRatesFromFile(Document document) {
+        try {
+            if (filePathUri == null) {
+                filePathUri = urlEncoder.validateAndEncodeURI(filePath, PATTERN, null);
+            }
+            if (ratesCacheTtl > 0) {
+                if (ratesLease == null) {
+                    ratesLease = ExchangeRatesCache.getInstance().acquire(filePathUri,
+                            TimeUnit.SECONDS.toMillis(ratesCacheTtl),
+                            new ExchangeRatesCache.Loader() {
+                                @Override
+                                public ExchangeRates load(URI uri) throws IOException {
+                                    return readExchangeRates(uri);
+                                }
+                            });
+                }
+                return ratesLease.get();
+            }
+            if (fileExchangeRates == null) {
+                fileExchangeRates = readExchangeRates(filePathUri);
+            }
+            return fileExchangeRates;
         } catch (IOException e) {
             throw new SnapDataException(document, e,
                     String.format("Unable to read from file path %s", filePath));
+        }
+    }
+
+    private ExchangeRates readExchangeRates(URI uri) throws IOException {
+        JsonParser parser = openParser(uri);
+        try {
+            return ExchangeRates.read(parser);
         } finally {
+            IOUtils.closeQuietly(parser);
+        }
+    }
+
+    private HistoricalRates getHistoricalRates(Document document) {
+        if (historicalRates == null) {
+            JsonParser parser = null;
+            try {
+                parser = openParser(urlEncoder.validateAndEncodeURI(historicalFilePath, PATTERN,
+                        null));
+                historicalRates = HistoricalRates.read(parser);
+                log.debug("Loaded historical rates of {} currencies, about {} bytes",
+                        historicalRates.currencyCount(), historicalRates.estimatedBytes());
+            } catch (IOException e) {
+                throw new SnapDataException(document, e,
+                        String.format("Unable to read from file path %s", historicalFilePath));
+            } finally {
+                IOUtils.closeQuietly(parser);
+            }
+        }
+        return historicalRates;
+    }
+
+    // the parser closes the input stream when it is closed
+    private JsonParser openParser(URI uri) throws IOException {
+        InputStream inputStream = jfsUtils.openURLConnection(uri).getInputStream();
+        try {
+            return mapper.getFactory().createParser(inputStream);
+        } catch (IOException e) {
             IOUtils.closeQuietly(inputStream);
+            throw e;
         }
-        return exchangeRates;
     }
 
-    private Map<String, BigDecimal> getExchangeRateForCurrency(String targetCurrency,
-            BigDecimal amount, Map<String, Object> rate) {
-        Map<String, Object> forExRates = (Map<String, Object>) rate.get("rates");
-        BigDecimal forExRate = BigDecimal.valueOf(
-                ((Number) forExRates.get(targetCurrency)).doubleValue());
+    static Map<String, BigDecimal> getExchangeRateForCurrency(String targetCurrency,
+            BigDecimal amount, Number rate) {
+        BigDecimal forExRate = BigDecimal.valueOf(rate.doubleValue());
 
         Map<String, BigDecimal> convertedCurrency = new LinkedHashMap<>();
         convertedCurrency.put(targetCurrency, amount.multiply(forExRate));
         return convertedCurrency;
     }
 
+    static Map<String, BigDecimal> getFixedPointExchangeRateForCurrency(String targetCurrency,
+            Number amount, FixedPointArithmetic.Rate rate, FixedPointArithmetic arithmetic) {
+        return Collections.singletonMap(targetCurrency, arithmetic.multiply(amount, rate));
+    }
+
+    private static class PendingConversion {
+        private final Document document;
+        private final Map<String, Object> docAsMap;
+        private final CompletableFuture<Map<String, Object>> exchangeRates;
+
+        private PendingConversion(Document document, Map<String, Object> docAsMap,
+                CompletableFuture<Map<String, Object>> exchangeRates) {
+            this.document = document;
+            this.docAsMap = docAsMap;
+            this.exchangeRates = exchangeRates;
+        }
+    }
+
     public interface ForEx {
         Map<String, Object> getExchangeRates(String currencyCode);
+
+        /**
+         * Looks up the exchange rates of several currencies at once.
+         *
+         * <p>The default implementation looks up each currency in turn; implementations that
+         * can fetch several currencies in one call should override it.</p>
+         *
+         * @param currencyCodes the currencies to look up
+         * @return the exchange rates keyed by currency code; currencies without rates are absent
+         */
+        default Map<String, Map<String, Object>> getAllExchangeRates(Set<String> currencyCodes) {
+            Map<String, Map<String, Object>> rates = new LinkedHashMap<>();
+            for (String currencyCode : currencyCodes) {
+                Map<String, Object> rate = getExchangeRates(currencyCode);
+                if (rate != null) {
+                    rates.put(currencyCode, rate);
+                }
+            }
+            return rates;
+        }
+
+        /**
+         * Looks up the exchange rates of a currency without blocking the caller.
+         *
+         * <p>The default implementation performs the lookup synchronously; implementations that
+         * call a remote service should override it.</p>
+         *
+         * @param currencyCode the currency to look up
+         * @return the exchange rates, or null if there are none for the currency
+         */
+        default CompletableFuture<Map<String, Object>> getExchangeRatesAsync(
+                String currencyCode) {
+            CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+            try {
+                future.complete(getExchangeRates(currencyCode));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
     }
 
     // An implementation of the ForEx interface. Normally this would call out to a database or
     // web service; in this demonstration, it returns random exchange rates.
     public static class ForExImpl implements ForEx {
-        private Map<String, Object> rate;
+        private static final int LOOKUP_THREADS = 8;
+        private static final int LOOKUP_QUEUE_SIZE = 256;
+        // shared by all Snap instances; once the queue is full, the caller looks the rates up
+        // itself, which holds back its pipeline rather than queueing without bound
+        private static final Executor LOOKUP_EXECUTOR = newLookupExecutor();
+
+        private final Executor executor;
 
+        @Inject
         public ForExImpl() {
-            rate = new LinkedHashMap<>();
+            this(LOOKUP_EXECUTOR);
+        }
+
+        ForExImpl(Executor executor) {
+            this.executor = executor;
+        }
+
+        private static Executor newLookupExecutor() {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(LOOKUP_THREADS, LOOKUP_THREADS,
+                    60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(LOOKUP_QUEUE_SIZE),
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("forex-lookup-%d")
+                            .setDaemon(true)
+                            .build(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
         }
 
         @Override
         public Map<String, Object> getExchangeRates(String currencyCode) {
+            // a new map per lookup, since callers may cache the rates of each currency
+            Map<String, Object> rate = new LinkedHashMap<>();
             rate.put("base", currencyCode.toUpperCase());
             rate.put("date", DateTimeFormat.forPattern("yyyy-MM-dd").print(now(UTC)));
 
@@ -188,5 +875,16 @@ public class CurrencyConverter extends SimpleSnap implements DependencyManager {
 
             return rate;
         }
+
+        @Override
+        public CompletableFuture<Map<String, Object>> getExchangeRatesAsync(
+                final String currencyCode) {
+            return CompletableFuture.supplyAsync(new Supplier<Map<String, Object>>() {
+                @Override
+                public Map<String, Object> get() {
+                    return getExchangeRates(currencyCode);
+                }
+            }, executor);
+        }
     }
 }
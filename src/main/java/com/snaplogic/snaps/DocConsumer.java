@@ -10,15 +10,24 @@
  */
 package com.snaplogic.snaps;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
 import com.google.inject.Inject;
 import com.snaplogic.api.ConfigurationException;
 import com.snaplogic.api.ExecutionException;
 import com.snaplogic.api.Snap;
+import com.snaplogic.common.SnapType;
 import com.snaplogic.common.properties.builders.PropertyBuilder;
 import com.snaplogic.snap.api.Document;
+import com.snaplogic.snap.api.DocumentUtility;
+import com.snaplogic.snap.api.ErrorViews;
 import com.snaplogic.snap.api.InputViews;
 import com.snaplogic.snap.api.PropertyValues;
 import com.snaplogic.snap.api.SnapCategory;
+import com.snaplogic.snap.api.SnapDataException;
 import com.snaplogic.snap.api.capabilities.Category;
 import com.snaplogic.snap.api.capabilities.Errors;
 import com.snaplogic.snap.api.capabilities.General;
@@ -28,15 +37,33 @@ import com.snaplogic.snap.api.capabilities.Version;
 import com.snaplogic.snap.api.capabilities.ViewType;
 import com.snaplogic.snap.view.InputView;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A Snap that consumes all incoming documents.
  *
+ * <p>While consuming, it measures the documents per second over a sliding window of one second
+ * slots, the time from the start of the execution to the first document, the time between
+ * consecutive documents in a {@link LatencyHistogram}, and the serialized size of a sample of
+ * the documents. A summary of them is logged, or written to the error view, on cleanup.</p>
+ *
+ * <p>Instead of discarding the documents, it can also persist them, encoded as Smile, to
+ * segment files written by a {@link SegmentWriter}.</p>
+ *
  * @author <you>
  */
 @General(title = "Doc Consumer", purpose = "Consumes the incoming documents",
@@ -48,32 +75,269 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Category(snap = SnapCategory.WRITE)
 public class DocConsumer implements Snap {
     private static final Logger log = LoggerFactory.getLogger(DocConsumer.class);
+    private static final String SUMMARY_PROP = "summary";
+    private static final String SAMPLE_INTERVAL_PROP = "sampleInterval";
+    private static final String RATE_WINDOW_PROP = "rateWindow";
+    private static final String SINK_PROP = "sink";
+    private static final String DIRECTORY_PROP = "directory";
+    private static final String SEGMENT_SIZE_PROP = "segmentSize";
+    private static final String COMMIT_DOCUMENTS_PROP = "commitDocuments";
+    private static final String COMMIT_INTERVAL_PROP = "commitInterval";
+    private static final String DISCARD_SINK = "Discard";
+    private static final String SEGMENT_FILES_SINK = "Segment files";
+    private static final String LOG_SUMMARY = "Log";
+    private static final String ERROR_VIEW_SUMMARY = "Error view";
+    private static final long SLOT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double NANOS_PER_MICRO = TimeUnit.MICROSECONDS.toNanos(1);
+
     private AtomicInteger count = new AtomicInteger(0);
 
     @Inject
     private InputViews inputViews;
+    @Inject
+    private ErrorViews errorViews;
+    @Inject
+    private DocumentUtility documentUtility;
+    // the SnapLogic platform takes care of injecting an ObjectMapper instance
+    @Inject
+    private ObjectMapper mapper;
+    private boolean summaryToErrorView;
+    private int sampleInterval;
+    private final LatencyHistogram interArrival = new LatencyHistogram();
+    private SlidingWindowRate rate;
+    private SegmentWriter segmentWriter;
+    private long documents;
+    private long sampledDocuments;
+    private long sampledBytes;
+    private long startNanos;
+    private long firstNanos;
+    private long lastNanos;
 
     @Override
     public void defineProperties(PropertyBuilder propertyBuilder) {
+        propertyBuilder.describe(SUMMARY_PROP, "Summary",
+                "Where the summary of the throughput, latency and size of the documents "
+                        + "consumed goes on cleanup")
+                .withAllowedValues(ImmutableSet.of(LOG_SUMMARY, ERROR_VIEW_SUMMARY))
+                .defaultValue(LOG_SUMMARY)
+                .add();
+
+        propertyBuilder.describe(SAMPLE_INTERVAL_PROP, "Byte Sample Interval",
+                "Every how many documents one is serialized to measure the size of the "
+                        + "documents; 0 does not measure it")
+                .type(SnapType.INTEGER)
+                .defaultValue(100)
+                .add();
+
+        propertyBuilder.describe(RATE_WINDOW_PROP, "Rate Window (seconds)",
+                "Number of seconds of the sliding window the recent documents per second are "
+                        + "measured over")
+                .type(SnapType.INTEGER)
+                .defaultValue(10)
+                .add();
+
+        propertyBuilder.describe(SINK_PROP, "Sink",
+                "Discard drops the documents; Segment files appends them, encoded as Smile, "
+                        + "to segment files in the directory")
+                .withAllowedValues(ImmutableSet.of(DISCARD_SINK, SEGMENT_FILES_SINK))
+                .defaultValue(DISCARD_SINK)
+                .add();
+
+        propertyBuilder.describe(DIRECTORY_PROP, "Directory",
+                "Local directory the segment files are written to")
+                .add();
+
+        propertyBuilder.describe(SEGMENT_SIZE_PROP, "Segment Size (MB)",
+                "Size at which a segment file is closed and the next one started")
+                .type(SnapType.INTEGER)
+                .defaultValue(256)
+                .add();
+
+        propertyBuilder.describe(COMMIT_DOCUMENTS_PROP, "Commit Documents",
+                "Number of documents after which the segment file is forced to disk; 0 does "
+                        + "not force it by count")
+                .type(SnapType.INTEGER)
+                .defaultValue(1000)
+                .add();
+
+        propertyBuilder.describe(COMMIT_INTERVAL_PROP, "Commit Interval (milliseconds)",
+                "Number of milliseconds after which the segment file is forced to disk when "
+                        + "the next document arrives; 0 does not force it by time. Documents "
+                        + "written before a pause in the input are forced once more input "
+                        + "arrives or the input ends")
+                .type(SnapType.INTEGER)
+                .defaultValue(100)
+                .add();
     }
 
     @Override
     public void configure(PropertyValues propertyValues) throws ConfigurationException {
+        summaryToErrorView = ERROR_VIEW_SUMMARY.equals(propertyValues.get(SUMMARY_PROP));
+        BigInteger sampleIntervalValue = propertyValues.get(SAMPLE_INTERVAL_PROP);
+        sampleInterval = sampleIntervalValue == null ? 100 : sampleIntervalValue.intValue();
+        BigInteger rateWindowValue = propertyValues.get(RATE_WINDOW_PROP);
+        int rateWindow = rateWindowValue == null ? 10 : rateWindowValue.intValue();
+        if (sampleInterval < 0 || rateWindow < 1) {
+            throw new ConfigurationException("Invalid measurement settings")
+                    .withReason("The byte sample interval cannot be negative and the rate "
+                            + "window must be positive")
+                    .withResolution("Ensure the byte sample interval is at least zero and the "
+                            + "rate window at least one second");
+        }
+        rate = new SlidingWindowRate(rateWindow, SLOT_NANOS);
+
+        if (SEGMENT_FILES_SINK.equals(propertyValues.get(SINK_PROP))) {
+            String directoryValue = propertyValues.get(DIRECTORY_PROP);
+            if (StringUtils.isBlank(directoryValue) || !Files.isDirectory(
+                    Paths.get(directoryValue))) {
+                throw new ConfigurationException(String.format(
+                        "Invalid segment file directory %s", directoryValue))
+                        .withReason("Segment files are written to an existing local directory")
+                        .withResolution("Enter the path of an existing local directory");
+            }
+            BigInteger segmentSizeValue = propertyValues.get(SEGMENT_SIZE_PROP);
+            long segmentSize = (segmentSizeValue == null ? 256 : segmentSizeValue.longValue())
+                    * 1024 * 1024;
+            BigInteger commitDocumentsValue = propertyValues.get(COMMIT_DOCUMENTS_PROP);
+            int commitDocuments = commitDocumentsValue == null ? 1000 :
+                    commitDocumentsValue.intValue();
+            BigInteger commitIntervalValue = propertyValues.get(COMMIT_INTERVAL_PROP);
+            long commitInterval = commitIntervalValue == null ? 100 :
+                    commitIntervalValue.longValue();
+            if (segmentSize <= 0 || commitDocuments < 0 || commitInterval < 0) {
+                throw new ConfigurationException("Invalid segment file settings")
+                        .withReason("The segment size must be positive, and the commit "
+                                + "documents and interval cannot be negative")
+                        .withResolution("Ensure the segment size is at least one and the "
+                                + "commit documents and interval at least zero");
+            }
+            // segment files of different executions do not collide, even when they start at once
+            Path directory = Paths.get(directoryValue);
+            segmentWriter = new SegmentWriter(directory, "documents-" + UUID.randomUUID(),
+                    segmentSize, commitDocuments, TimeUnit.MILLISECONDS.toNanos(commitInterval),
+                    new SmileFactory(), mapper);
+        }
     }
 
     @Override
     public void execute() throws ExecutionException {
+        startNanos = System.nanoTime();
         InputView inputView = inputViews.get();
         Iterator<Document> documentIterator = inputViews.getDocumentsFrom(inputView);
         while (documentIterator.hasNext()) {
             Document doc = documentIterator.next();
-            log.debug("Received Document {}", doc.toString());
+            long now = System.nanoTime();
+            log.debug("Received Document {}", doc);
             count.getAndIncrement();
+            if (documents++ == 0) {
+                firstNanos = now;
+            } else {
+                interArrival.record(now - lastNanos);
+            }
+            lastNanos = now;
+            rate.record(now);
+            if (sampleInterval > 0 && documents % sampleInterval == 0) {
+                sample(doc);
+            }
+            if (segmentWriter != null) {
+                persist(doc);
+            }
         }
     }
 
+    private void persist(Document doc) throws ExecutionException {
+        try {
+            segmentWriter.write(doc.get());
+        } catch (IOException e) {
+            throw new ExecutionException(e, "Unable to write documents to the segment files")
+                    .withResolution("Ensure the directory is writable and has enough space");
+        }
+    }
+
+    private void sample(Document doc) {
+        CountingOutputStream bytes = new CountingOutputStream(ByteStreams.nullOutputStream());
+        try {
+            mapper.writeValue(bytes, doc.get());
+        } catch (IOException e) {
+            log.debug("Unable to serialize a sampled document", e);
+            return;
+        }
+        sampledDocuments++;
+        sampledBytes += bytes.getCount();
+    }
+
     @Override
     public void cleanup() throws ExecutionException {
         log.debug("Consumed {} documents", count.get());
+        if (segmentWriter != null) {
+            try {
+                segmentWriter.close();
+            } catch (IOException e) {
+                throw new ExecutionException(e, "Unable to close the segment file")
+                        .withResolution("Ensure the directory is writable and has enough "
+                                + "space");
+            }
+        }
+        Map<String, Object> summary = summary(System.nanoTime());
+        try {
+            log.info("Doc Consumer summary: {}", mapper.writeValueAsString(summary));
+        } catch (IOException e) {
+            log.warn("Unable to log the Doc Consumer summary", e);
+        }
+        if (summaryToErrorView) {
+            errorViews.write(new SnapDataException(
+                    String.format("Consumed %d documents", documents))
+                    .withReason("The summary of the documents consumed is written to the "
+                            + "error view")
+                    .withResolution("Set the summary to Log to only log it"),
+                    documentUtility.newDocument(summary));
+        }
+    }
+
+    private Map<String, Object> summary(long now) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("documents", documents);
+        double seconds = documents == 0 ? 0 : (lastNanos - startNanos) / 1e9;
+        summary.put("seconds", seconds);
+        summary.put("timeToFirstDocumentMillis", documents == 0 ? null :
+                (firstNanos - startNanos) / NANOS_PER_MILLI);
+
+        Map<String, Object> throughput = new LinkedHashMap<>();
+        throughput.put("mean", seconds == 0 ? 0 : documents / seconds);
+        throughput.put("recent", rate.rate(now));
+        // no slot completes within the first second
+        double peak = rate.peakRate();
+        throughput.put("peak", peak > 0 ? peak : null);
+        summary.put("documentsPerSecond", throughput);
+
+        Map<String, Object> bytes = new LinkedHashMap<>();
+        bytes.put("sampledDocuments", sampledDocuments);
+        double meanBytes = sampledDocuments == 0 ? 0 : (double) sampledBytes / sampledDocuments;
+        bytes.put("meanPerDocument", meanBytes);
+        bytes.put("estimatedTotal", Math.round(meanBytes * documents));
+        bytes.put("estimatedPerSecond", seconds == 0 ? 0 : meanBytes * documents / seconds);
+        summary.put("bytes", bytes);
+
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("min", interArrival.min() / NANOS_PER_MICRO);
+        latency.put("mean", interArrival.mean() / NANOS_PER_MICRO);
+        latency.put("p50", interArrival.percentile(50) / NANOS_PER_MICRO);
+        latency.put("p90", interArrival.percentile(90) / NANOS_PER_MICRO);
+        latency.put("p99", interArrival.percentile(99) / NANOS_PER_MICRO);
+        latency.put("p99.9", interArrival.percentile(99.9) / NANOS_PER_MICRO);
+        latency.put("max", interArrival.max() / NANOS_PER_MICRO);
+        summary.put("interArrivalMicros", latency);
+
+        if (segmentWriter != null) {
+            Map<String, Object> segments = new LinkedHashMap<>();
+            segments.put("files", segmentWriter.segments());
+            segments.put("bytesWritten", segmentWriter.bytesWritten());
+            segments.put("commits", segmentWriter.commits());
+            segments.put("megabytesPerSecond", seconds == 0 ? 0 :
+                    segmentWriter.bytesWritten() / (1024.0 * 1024) / seconds);
+            summary.put("segments", segments);
+        }
+        return summary;
     }
-}
\ No newline at end of file
+}
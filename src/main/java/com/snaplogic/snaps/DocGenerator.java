@@ -10,14 +10,20 @@
  */
 package com.snaplogic.snaps;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.RateLimiter;
 import com.google.inject.Inject;
 import com.snaplogic.api.ConfigurationException;
 import com.snaplogic.api.ExecutionException;
 import com.snaplogic.api.Snap;
 import com.snaplogic.common.SnapType;
 import com.snaplogic.common.properties.builders.PropertyBuilder;
+import com.snaplogic.snap.api.Document;
 import com.snaplogic.snap.api.DocumentUtility;
 import com.snaplogic.snap.api.ErrorViews;
+import com.snaplogic.snap.api.ExpressionProperty;
+import com.snaplogic.snap.api.InputViews;
 import com.snaplogic.snap.api.OutputViews;
 import com.snaplogic.snap.api.PropertyValues;
 import com.snaplogic.snap.api.SnapCategory;
@@ -29,13 +35,34 @@ import com.snaplogic.snap.api.capabilities.Inputs;
 import com.snaplogic.snap.api.capabilities.Outputs;
 import com.snaplogic.snap.api.capabilities.Version;
 import com.snaplogic.snap.api.capabilities.ViewType;
+import com.snaplogic.snap.view.InputView;
 
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * A Snap that generates the configured number of documents.
+ *
+ * <p>Besides the default key and value documents, it can generate documents from a JSON template
+ * with random values, or from a synthetic template of a given number of fields, nesting depth
+ * and value size, compiled once into a {@link DocumentTemplate}. The generated values depend
+ * only on the seed, and documents can be paced to a target rate.</p>
+ *
+ * <p>The count can be split into partitions, so that several instances each generate their
+ * partition of the same documents. Template documents can be generated by worker threads, in a
+ * {@link ParallelDocumentGeneration}, and are still written by the Snap's own thread.</p>
+ *
+ * <p>Per input document, each input document drives its own documents instead: their count and
+ * template are expressions evaluated against it, and they are written as its children. The
+ * expressions are compiled once, and a template is only compiled again when it evaluates to a
+ * different value than for the previous input document.</p>
  */
 @General(title = "Doc Generator", purpose = "Generates documents based on the configuration",
         author = "Your Company Name", docLink = "http://yourdocslinkhere.com")
@@ -46,31 +73,280 @@ import java.util.Map;
 @Category(snap = SnapCategory.READ)
 public class DocGenerator implements Snap {
     private static final String COUNT = "count";
+    private static final String MODE = "mode";
+    private static final String TEMPLATE = "template";
+    private static final String FIELD_COUNT = "fieldCount";
+    private static final String NESTING_DEPTH = "nestingDepth";
+    private static final String VALUE_SIZE = "valueSize";
+    private static final String SEED = "seed";
+    private static final String RATE = "rate";
+    private static final String PARTITION_INDEX = "partitionIndex";
+    private static final String PARTITION_COUNT = "partitionCount";
+    private static final String WORKERS = "workers";
+    private static final String OUTPUT_ORDER = "outputOrder";
+    private static final String ORDERED = "Ordered";
+    private static final String UNORDERED = "Unordered";
+    private static final String KEY_VALUES_MODE = "Key values";
+    private static final String TEMPLATE_MODE = "Template";
+    private static final String SYNTHETIC_MODE = "Synthetic";
+    private static final String PER_INPUT_DOCUMENT_MODE = "Per input document";
+    private static final String COUNT_EXPRESSION = "countExpression";
+    private static final String TEMPLATE_EXPRESSION = "templateExpression";
+    // permits are acquired in batches of about a millisecond's worth of documents
+    private static final int ACQUIRES_PER_SECOND = 1000;
 
     // Document utility is the only way to create a document
     // or manipulate the document header
     @Inject
     private DocumentUtility documentUtility;
     @Inject
+    private InputViews inputViews;
+    @Inject
     private OutputViews outputViews;
     @Inject
     private ErrorViews errorViews;
-    private int count;
+    // the SnapLogic platform takes care of injecting an ObjectMapper instance
+    @Inject
+    private ObjectMapper mapper;
+    private long count;
+    private DocumentTemplate template;
+    private RateLimiter rateLimiter;
+    private int permitsPerAcquire;
+    private int partitionIndex;
+    private int partitionCount;
+    private int workers;
+    private boolean ordered;
+    private boolean perInputDocument;
+    private ExpressionProperty countExpression;
+    private ExpressionProperty templateExpression;
+    private DocumentTemplate.Compiler compiler;
+    // the value the last compiled template of an input document was compiled from
+    private Object inputTemplateValue;
+    private DocumentTemplate inputTemplate;
 
     @Override
     public void defineProperties(PropertyBuilder propertyBuilder) {
-        propertyBuilder.describe(COUNT, "Number of documents to create")
+        propertyBuilder.describe(COUNT, "Number of documents to create",
+                "Number of documents to generate; ignored in Per input document mode, which "
+                        + "takes the number from the Count Per Input Document instead")
                 .type(SnapType.INTEGER).required().add();
+
+        propertyBuilder.describe(MODE, "Mode",
+                "Key values generates documents with a numbered key; Template generates "
+                        + "documents from the template; Synthetic generates documents of the "
+                        + "given field count, nesting depth and value size; Per input document "
+                        + "generates documents for each input document from the count and "
+                        + "template expressions")
+                .withAllowedValues(ImmutableSet.of(KEY_VALUES_MODE, TEMPLATE_MODE,
+                        SYNTHETIC_MODE, PER_INPUT_DOCUMENT_MODE))
+                .defaultValue(KEY_VALUES_MODE)
+                .add();
+
+        propertyBuilder.describe(TEMPLATE, "Template",
+                "JSON of the documents to generate, whose string values may be placeholders "
+                        + "such as ${sequence}, ${int:0:100}, ${double}, ${boolean}, "
+                        + "${string:16}, ${uuid} or ${choice:red|green|blue}")
+                .add();
+
+        propertyBuilder.describe(COUNT_EXPRESSION, "Count Per Input Document",
+                "Expression evaluated against each input document to the number of documents "
+                        + "to generate for it, such as $quantity")
+                .expression()
+                .add();
+
+        propertyBuilder.describe(TEMPLATE_EXPRESSION, "Template Per Input Document",
+                "Expression evaluated against each input document to the template of its "
+                        + "documents, such as {\"order\": $id, \"line\": \"${sequence}\"}; "
+                        + "empty uses the Template")
+                .expression()
+                .add();
+
+        propertyBuilder.describe(FIELD_COUNT, "Field Count",
+                "Number of string fields of each object of a synthetic document")
+                .type(SnapType.INTEGER)
+                .defaultValue(10)
+                .add();
+
+        propertyBuilder.describe(NESTING_DEPTH, "Nesting Depth",
+                "Number of objects nested in a synthetic document")
+                .type(SnapType.INTEGER)
+                .defaultValue(0)
+                .add();
+
+        propertyBuilder.describe(VALUE_SIZE, "Value Size",
+                "Number of characters of each field of a synthetic document")
+                .type(SnapType.INTEGER)
+                .defaultValue(16)
+                .add();
+
+        propertyBuilder.describe(SEED, "Seed",
+                "Seed of the random values; the same seed generates the same documents")
+                .type(SnapType.INTEGER)
+                .defaultValue(0)
+                .add();
+
+        propertyBuilder.describe(RATE, "Rate (documents per second)",
+                "Number of documents generated per second; 0 generates them as fast as "
+                        + "possible")
+                .type(SnapType.INTEGER)
+                .defaultValue(0)
+                .add();
+
+        propertyBuilder.describe(PARTITION_COUNT, "Partition Count",
+                "Number of partitions the documents are split into; only the documents of the "
+                        + "partition at the partition index are generated")
+                .type(SnapType.INTEGER)
+                .defaultValue(1)
+                .add();
+
+        propertyBuilder.describe(PARTITION_INDEX, "Partition Index",
+                "Index of the partition to generate, from 0 to the partition count minus one")
+                .type(SnapType.INTEGER)
+                .defaultValue(0)
+                .add();
+
+        propertyBuilder.describe(WORKERS, "Workers",
+                "Number of threads generating documents in template or synthetic mode")
+                .type(SnapType.INTEGER)
+                .defaultValue(1)
+                .add();
+
+        propertyBuilder.describe(OUTPUT_ORDER, "Output Order",
+                "Ordered writes the documents of several workers in the order they are "
+                        + "numbered; Unordered writes them as soon as they are generated")
+                .withAllowedValues(ImmutableSet.of(ORDERED, UNORDERED))
+                .defaultValue(ORDERED)
+                .add();
     }
 
     @Override
     public void configure(PropertyValues propertyValues) throws ConfigurationException {
+        String mode = propertyValues.get(MODE);
+        BigInteger seedValue = propertyValues.get(SEED);
+        long seed = seedValue == null ? 0 : seedValue.longValue();
+        compiler = new DocumentTemplate.Compiler(seed);
+        perInputDocument = PER_INPUT_DOCUMENT_MODE.equals(mode);
         BigInteger countValue = propertyValues.get(COUNT);
-        count = countValue.intValue();
+        if (countValue == null && !perInputDocument) {
+            throw new ConfigurationException("No number of documents to create")
+                    .withReason("Every mode but Per input document generates the given number "
+                            + "of documents")
+                    .withResolution("Enter the number of documents to create");
+        }
+        count = countValue == null ? 0 : countValue.longValue();
+        String templateValue = propertyValues.get(TEMPLATE);
+        if (perInputDocument) {
+            countExpression = propertyValues.getAsExpression(COUNT_EXPRESSION);
+            if (StringUtils.isNotBlank(propertyValues.<String>get(TEMPLATE_EXPRESSION))) {
+                templateExpression = propertyValues.getAsExpression(TEMPLATE_EXPRESSION);
+            } else if (StringUtils.isBlank(templateValue)) {
+                throw new ConfigurationException("No template to generate documents from")
+                        .withReason("Per input document mode generates documents from the "
+                                + "template expression, or else the template")
+                        .withResolution("Enter the template expression or the template");
+            }
+        }
+        if (TEMPLATE_MODE.equals(mode) || (perInputDocument && templateExpression == null)) {
+            if (StringUtils.isBlank(templateValue)) {
+                throw new ConfigurationException("No template to generate documents from")
+                        .withReason("Template mode generates documents from the template")
+                        .withResolution("Enter the JSON of the documents to generate");
+            }
+            try {
+                template = compiler.compile(mapper.readValue(templateValue, Object.class));
+            } catch (IOException e) {
+                throw new ConfigurationException(e, "Invalid template")
+                        .withReason("The template is not valid JSON")
+                        .withResolution("Enter the JSON of the documents to generate");
+            } catch (IllegalArgumentException e) {
+                throw new ConfigurationException(e, e.getMessage())
+                        .withReason("The template contains an invalid placeholder")
+                        .withResolution("Use placeholders such as ${sequence}, ${int:0:100} "
+                                + "or ${string:16}");
+            }
+        } else if (SYNTHETIC_MODE.equals(mode)) {
+            int fieldCount = intValue(propertyValues, FIELD_COUNT, 10);
+            int nestingDepth = intValue(propertyValues, NESTING_DEPTH, 0);
+            int valueSize = intValue(propertyValues, VALUE_SIZE, 16);
+            if (fieldCount < 0 || nestingDepth < 0 || valueSize < 0) {
+                throw new ConfigurationException("Invalid synthetic document settings")
+                        .withReason("The field count, nesting depth and value size cannot be "
+                                + "negative")
+                        .withResolution("Ensure the field count, nesting depth and value size "
+                                + "are at least zero");
+            }
+            template = compiler.compile(
+                    DocumentTemplate.synthetic(fieldCount, nestingDepth, valueSize));
+        }
+
+        BigInteger rateValue = propertyValues.get(RATE);
+        long rate = rateValue == null ? 0 : rateValue.longValue();
+        if (rate < 0) {
+            throw new ConfigurationException(String.format("Invalid rate value %d", rate))
+                    .withReason("Value of the rate cannot be negative")
+                    .withResolution("Ensure the rate is greater than or equal to zero");
+        }
+        if (rate > 0) {
+            rateLimiter = RateLimiter.create(rate);
+            permitsPerAcquire = (int) Math.max(1, rate / ACQUIRES_PER_SECOND);
+        }
+
+        partitionCount = intValue(propertyValues, PARTITION_COUNT, 1);
+        partitionIndex = intValue(propertyValues, PARTITION_INDEX, 0);
+        if (partitionCount < 1 || partitionIndex < 0 || partitionIndex >= partitionCount) {
+            throw new ConfigurationException(String.format("Invalid partition %d of %d",
+                    partitionIndex, partitionCount))
+                    .withReason("The partition count must be positive and the partition index "
+                            + "below it")
+                    .withResolution("Ensure the partition index is from 0 to the partition "
+                            + "count minus one");
+        }
+        workers = intValue(propertyValues, WORKERS, 1);
+        if (workers < 1) {
+            throw new ConfigurationException(String.format("Invalid workers value %d", workers))
+                    .withReason("Value of the workers must be positive")
+                    .withResolution("Ensure the workers is greater than or equal to one");
+        }
+        ordered = !UNORDERED.equals(propertyValues.get(OUTPUT_ORDER));
+    }
+
+    private static int intValue(PropertyValues propertyValues, String name, int defaultValue) {
+        BigInteger value = propertyValues.get(name);
+        return value == null ? defaultValue : value.intValue();
+    }
+
+    // the count a count expression evaluated to, or -1 if it is not a whole number of at least
+    // zero, rather than truncating a fraction
+    private static long wholeCount(Object countValue) {
+        if (countValue instanceof Long || countValue instanceof Integer
+                || countValue instanceof Short || countValue instanceof Byte) {
+            return Math.max(((Number) countValue).longValue(), -1);
+        }
+        if (countValue instanceof BigInteger) {
+            BigInteger value = (BigInteger) countValue;
+            return value.bitLength() < Long.SIZE ? Math.max(value.longValue(), -1) : -1;
+        }
+        if (countValue instanceof BigDecimal) {
+            try {
+                return Math.max(((BigDecimal) countValue).longValueExact(), -1);
+            } catch (ArithmeticException e) {
+                return -1;
+            }
+        }
+        if (countValue instanceof Double || countValue instanceof Float) {
+            double value = ((Number) countValue).doubleValue();
+            return value >= 0 && value < Long.MAX_VALUE && value == Math.rint(value)
+                    ? (long) value : -1;
+        }
+        return -1;
     }
 
     @Override
     public void execute() throws ExecutionException {
+        if (perInputDocument) {
+            generatePerInputDocument();
+            return;
+        }
         if (count < 0) {
             SnapDataException snapDataException =
                     new SnapDataException(String.format("Invalid count value %d", count))
@@ -80,13 +356,109 @@ public class DocGenerator implements Snap {
             errorViews.write(snapDataException);
         }
 
-        for (int i = 0; i < count; i++) {
+        // partitions differ in size by at most one document
+        long remainder = Math.max(count, 0) % partitionCount;
+        long partitionSize = Math.max(count, 0) / partitionCount;
+        long start = partitionIndex * partitionSize + Math.min(partitionIndex, remainder);
+        long end = start + partitionSize + (partitionIndex < remainder ? 1 : 0);
+
+        if (template != null && workers > 1) {
+            generateInParallel(start, end);
+            return;
+        }
+        for (long i = start; i < end; i++) {
+            pace(i - start, end - start);
+            if (template != null) {
+                outputViews.write(documentUtility.newDocument(template.generate(i)));
+                continue;
+            }
             Map<String, String> data = new LinkedHashMap<>();
             data.put("key", "value" + (i + 1));
             outputViews.write(documentUtility.newDocument(data));
         }
     }
 
+    private void generateInParallel(long start, long end) throws ExecutionException {
+        long written = 0;
+        try (ParallelDocumentGeneration generation = new ParallelDocumentGeneration(template,
+                start, end, workers, ordered)) {
+            List<Object> batch;
+            while ((batch = generation.next()) != null) {
+                for (Object data : batch) {
+                    pace(written++, end - start);
+                    outputViews.write(documentUtility.newDocument(data));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e, "Interrupted while generating documents")
+                    .withResolutionAsDefect();
+        }
+    }
+
+    private void generatePerInputDocument() throws ExecutionException {
+        InputView inputView = inputViews.get();
+        if (inputView == null) {
+            throw new ExecutionException("No input view to generate documents for")
+                    .withResolution("Add an input view, or use another mode");
+        }
+        Iterator<Document> documents = inputViews.getDocumentsFrom(inputView);
+        // numbers the documents of every input document in turn
+        long index = 0;
+        while (documents.hasNext()) {
+            Document parent = documents.next();
+            Object countValue = countExpression.eval(parent);
+            long parentCount = wholeCount(countValue);
+            if (parentCount < 0) {
+                errorViews.write(new SnapDataException(String.format(
+                        "Invalid count value %s", countValue))
+                        .withReason("The count expression must evaluate to a whole number "
+                                + "greater than or equal to zero")
+                        .withResolution("Check the count expression against the input "
+                                + "document"), parent);
+                continue;
+            }
+            DocumentTemplate documentTemplate;
+            try {
+                documentTemplate = templateFor(parent);
+            } catch (IOException | IllegalArgumentException e) {
+                errorViews.write(new SnapDataException(e, e.getMessage())
+                        .withReason("The template expression did not evaluate to a valid "
+                                + "template")
+                        .withResolution("Check the template expression against the input "
+                                + "document"), parent);
+                continue;
+            }
+            for (long i = 0; i < parentCount; i++, index++) {
+                pace(index, Long.MAX_VALUE);
+                outputViews.write(documentUtility.newDocument(documentTemplate.generate(index)),
+                        parent);
+            }
+        }
+    }
+
+    private DocumentTemplate templateFor(Document parent) throws IOException {
+        if (templateExpression == null) {
+            return template;
+        }
+        Object value = templateExpression.eval(parent);
+        if (value == null) {
+            throw new IllegalArgumentException("The template expression evaluated to null");
+        }
+        if (inputTemplate == null || !value.equals(inputTemplateValue)) {
+            inputTemplate = compiler.compile(value instanceof String ?
+                    mapper.readValue((String) value, Object.class) : value);
+            inputTemplateValue = value;
+        }
+        return inputTemplate;
+    }
+
+    private void pace(long written, long total) {
+        if (rateLimiter != null && written % permitsPerAcquire == 0) {
+            rateLimiter.acquire((int) Math.min(permitsPerAcquire, total - written));
+        }
+    }
+
     @Override
     public void cleanup() throws ExecutionException {
         // NOOP
@@ -0,0 +1,362 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Maps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates documents from a JSON template whose string values may be placeholders for
+ * generated values.
+ *
+ * <p>A placeholder is a string value of the form <code>${name}</code> or
+ * <code>${name:arguments}</code>:</p>
+ * <ul>
+ *     <li><code>${sequence}</code> - the number of the document, starting at 1</li>
+ *     <li><code>${int:min:max}</code> - an integer from min, inclusive, to max, exclusive</li>
+ *     <li><code>${double}</code> - a number from 0, inclusive, to 1, exclusive</li>
+ *     <li><code>${boolean}</code> - true or false</li>
+ *     <li><code>${string:length}</code> - a string of letters and digits</li>
+ *     <li><code>${uuid}</code> - a random UUID</li>
+ *     <li><code>${choice:a|b|c}</code> - one of the given strings</li>
+ * </ul>
+ *
+ * <p>The template is compiled once. Objects and arrays without placeholders are built once and
+ * shared, unmodifiable, by every document, and random strings are picked from a pool built
+ * when compiling. The values of a document only depend on the seed and the document's index,
+ * so any range of documents can be generated independently of the others.</p>
+ */
+final class DocumentTemplate {
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{(\\w+)(?::(.*))?}");
+    private static final String ALPHANUMERIC =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+    private static final int STRING_POOL_SIZE = 1024;
+
+    private final long seed;
+    private final Node root;
+
+    private DocumentTemplate(long seed, Node root) {
+        this.seed = seed;
+        this.root = root;
+    }
+
+    /**
+     * Compiles a template parsed from JSON.
+     *
+     * @param template the maps, lists and values of the template
+     * @param seed     the seed of the generated values
+     * @throws IllegalArgumentException if a placeholder is invalid
+     */
+    static DocumentTemplate compile(Object template, long seed) {
+        return new Compiler(seed).compile(template);
+    }
+
+    /**
+     * Returns a template of an object with the given number of random string fields, with an
+     * object of the same shape nested in a "nested" field the given number of times.
+     */
+    static Map<String, Object> synthetic(int fieldCount, int nestingDepth, int valueSize) {
+        Map<String, Object> template = new LinkedHashMap<>();
+        for (int i = 1; i <= fieldCount; i++) {
+            template.put("field" + i, String.format("${string:%d}", valueSize));
+        }
+        if (nestingDepth > 0) {
+            template.put("nested", synthetic(fieldCount, nestingDepth - 1, valueSize));
+        }
+        return template;
+    }
+
+    /**
+     * Generates the document at the given index, counting from 0.
+     */
+    Object generate(long index) {
+        return root.generate(new SplittableRandom(mix(seed ^ mix(index))), index);
+    }
+
+    // the finalizer of MurmurHash3, so that the random values of neighbouring documents are
+    // not correlated
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private abstract static class Node {
+        abstract Object generate(SplittableRandom random, long index);
+    }
+
+    private static final class Constant extends Node {
+        private final Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object generate(SplittableRandom random, long index) {
+            return value;
+        }
+    }
+
+    private static final class ObjectNode extends Node {
+        private final String[] keys;
+        private final Node[] values;
+
+        ObjectNode(String[] keys, Node[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        Object generate(SplittableRandom random, long index) {
+            Map<String, Object> object = Maps.newLinkedHashMapWithExpectedSize(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                object.put(keys[i], values[i].generate(random, index));
+            }
+            return object;
+        }
+    }
+
+    private static final class ArrayNode extends Node {
+        private final Node[] elements;
+
+        ArrayNode(Node[] elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        Object generate(SplittableRandom random, long index) {
+            List<Object> array = new ArrayList<>(elements.length);
+            for (Node element : elements) {
+                array.add(element.generate(random, index));
+            }
+            return array;
+        }
+    }
+
+    private static final class Sequence extends Node {
+        @Override
+        Object generate(SplittableRandom random, long index) {
+            return index + 1;
+        }
+    }
+
+    private static final class RandomInt extends Node {
+        private final int min;
+        private final int max;
+
+        RandomInt(int min, int max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        Object generate(SplittableRandom random, long index) {
+            return random.nextInt(min, max);
+        }
+    }
+
+    private static final class RandomDouble extends Node {
+        @Override
+        Object generate(SplittableRandom random, long index) {
+            return random.nextDouble();
+        }
+    }
+
+    private static final class RandomBoolean extends Node {
+        @Override
+        Object generate(SplittableRandom random, long index) {
+            return random.nextBoolean();
+        }
+    }
+
+    private static final class RandomUuid extends Node {
+        @Override
+        Object generate(SplittableRandom random, long index) {
+            // version 4, variant 2
+            long mostSignificant = (random.nextLong() & ~0xF000L) | 0x4000L;
+            long leastSignificant = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | Long.MIN_VALUE;
+            return new UUID(mostSignificant, leastSignificant).toString();
+        }
+    }
+
+    private static final class Choice extends Node {
+        private final String[] choices;
+
+        Choice(String[] choices) {
+            this.choices = choices;
+        }
+
+        @Override
+        Object generate(SplittableRandom random, long index) {
+            return choices[random.nextInt(choices.length)];
+        }
+    }
+
+    /**
+     * Compiles templates of the same seed, which share their pools of random strings, so that
+     * compiling another template only costs a walk over it.
+     */
+    static final class Compiler {
+        private final long seed;
+        // builds the string pools, in the order they are needed
+        private final SplittableRandom random;
+        // placeholders of the same length share a pool
+        private final Map<Integer, String[]> stringPools = new HashMap<>();
+
+        Compiler(long seed) {
+            this.seed = seed;
+            random = new SplittableRandom(seed);
+        }
+
+        /**
+         * Compiles a template parsed from JSON.
+         *
+         * @throws IllegalArgumentException if a placeholder is invalid
+         */
+        DocumentTemplate compile(Object template) {
+            return new DocumentTemplate(seed, compileNode(template));
+        }
+
+        private Node compileNode(Object template) {
+            if (template instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) template;
+                String[] keys = new String[map.size()];
+                Node[] values = new Node[map.size()];
+                int i = 0;
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    keys[i] = String.valueOf(entry.getKey());
+                    values[i++] = compileNode(entry.getValue());
+                }
+                if (!allConstant(values)) {
+                    return new ObjectNode(keys, values);
+                }
+                Map<String, Object> object = new LinkedHashMap<>();
+                for (i = 0; i < keys.length; i++) {
+                    object.put(keys[i], ((Constant) values[i]).value);
+                }
+                return new Constant(Collections.unmodifiableMap(object));
+            }
+            if (template instanceof List) {
+                List<?> list = (List<?>) template;
+                Node[] elements = new Node[list.size()];
+                for (int i = 0; i < elements.length; i++) {
+                    elements[i] = compileNode(list.get(i));
+                }
+                if (!allConstant(elements)) {
+                    return new ArrayNode(elements);
+                }
+                List<Object> array = new ArrayList<>(elements.length);
+                for (Node element : elements) {
+                    array.add(((Constant) element).value);
+                }
+                return new Constant(Collections.unmodifiableList(array));
+            }
+            if (template instanceof String) {
+                Matcher matcher = PLACEHOLDER.matcher((String) template);
+                if (matcher.matches()) {
+                    return placeholder(matcher.group(1), matcher.group(2));
+                }
+            }
+            return new Constant(template);
+        }
+
+        private Node placeholder(String name, String arguments) {
+            switch (name) {
+                case "sequence":
+                    return new Sequence();
+                case "int":
+                    List<String> bounds = arguments == null ? Collections.<String>emptyList()
+                            : Splitter.on(':').trimResults().splitToList(arguments);
+                    int min = bounds.size() > 0 ? parseInt(bounds.get(0), name) : 0;
+                    int max = bounds.size() > 1 ? parseInt(bounds.get(1), name) :
+                            Integer.MAX_VALUE;
+                    if (min >= max) {
+                        throw new IllegalArgumentException(String.format(
+                                "The minimum of ${int:%s} is not below its maximum", arguments));
+                    }
+                    return new RandomInt(min, max);
+                case "double":
+                    return new RandomDouble();
+                case "boolean":
+                    return new RandomBoolean();
+                case "string":
+                    return new Choice(stringPool(arguments == null ? 16 :
+                            parseInt(arguments.trim(), name)));
+                case "uuid":
+                    return new RandomUuid();
+                case "choice":
+                    if (arguments == null) {
+                        throw new IllegalArgumentException("${choice} needs the strings to "
+                                + "choose from, such as ${choice:red|green|blue}");
+                    }
+                    return new Choice(Splitter.on('|').splitToList(arguments)
+                            .toArray(new String[0]));
+                default:
+                    throw new IllegalArgumentException(String.format(
+                            "Unknown placeholder ${%s}", name));
+            }
+        }
+
+        private String[] stringPool(int length) {
+            if (length < 0) {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid length %d of ${string}", length));
+            }
+            String[] pool = stringPools.get(length);
+            if (pool != null) {
+                return pool;
+            }
+            pool = new String[STRING_POOL_SIZE];
+            char[] chars = new char[length];
+            for (int i = 0; i < pool.length; i++) {
+                for (int j = 0; j < length; j++) {
+                    chars[j] = ALPHANUMERIC.charAt(random.nextInt(ALPHANUMERIC.length()));
+                }
+                pool[i] = new String(chars);
+            }
+            stringPools.put(length, pool);
+            return pool;
+        }
+
+        private static int parseInt(String value, String name) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid number %s in ${%s}", value, name), e);
+            }
+        }
+
+        private static boolean allConstant(Node[] nodes) {
+            for (Node node : nodes) {
+                if (!(node instanceof Constant)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
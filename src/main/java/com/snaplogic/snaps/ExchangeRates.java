@@ -0,0 +1,187 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The exchange rates of a base currency on a date, held as a sorted array of currency codes and
+ * a parallel array of rates.
+ *
+ * <p>{@link #read(JsonParser)} streams an exchange rates payload and keeps only its
+ * {@code base}, {@code date} and {@code rates} fields; any other field, such as a block of
+ * historical rates, is skipped without being materialized.</p>
+ */
+final class ExchangeRates {
+    static final String BASE = "base";
+    static final String DATE = "date";
+    static final String RATES = "rates";
+
+    private final String base;
+    private final String date;
+    private final String[] codes;
+    private final double[] rates;
+    private volatile CrossRateMatrix crossRates;
+
+    private ExchangeRates(String base, String date, String[] codes, double[] rates) {
+        this.base = base;
+        this.date = date;
+        this.codes = codes;
+        this.rates = rates;
+    }
+
+    /**
+     * Creates the exchange rates from currency codes mapped to rates.
+     */
+    static ExchangeRates of(String base, String date, Map<String, ? extends Number> rates) {
+        String[] codes = rates.keySet().toArray(new String[rates.size()]);
+        Arrays.sort(codes);
+        double[] values = new double[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            values[i] = rates.get(codes[i]).doubleValue();
+        }
+        return new ExchangeRates(base, date, codes, values);
+    }
+
+    /**
+     * Reads an exchange rates object from the parser, which must be positioned before it.
+     *
+     * @param parser the parser to read from
+     * @return the exchange rates
+     * @throws IOException if the content is not an exchange rates object
+     */
+    static ExchangeRates read(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Expected an exchange rates object",
+                    parser.getCurrentLocation());
+        }
+        return readObject(parser);
+    }
+
+    /**
+     * Reads an exchange rates object whose start the parser is positioned at.
+     */
+    static ExchangeRates readObject(JsonParser parser) throws IOException {
+        String base = null;
+        String date = null;
+        ExchangeRates rates = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (BASE.equals(field) && token == JsonToken.VALUE_STRING) {
+                base = parser.getText();
+            } else if (DATE.equals(field) && token == JsonToken.VALUE_STRING) {
+                date = parser.getText();
+            } else if (RATES.equals(field) && token == JsonToken.START_OBJECT) {
+                rates = readRates(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (rates == null) {
+            throw new JsonParseException("Exchange rates object has no rates",
+                    parser.getCurrentLocation());
+        }
+        return new ExchangeRates(base, date, rates.codes, rates.rates);
+    }
+
+    private static ExchangeRates readRates(JsonParser parser) throws IOException {
+        // positions of the codes read so far, so a repeated code replaces the earlier rate
+        Map<String, Integer> positions = new HashMap<>();
+        String[] codes = new String[64];
+        double[] values = new double[64];
+        int size = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String code = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_NUMBER_INT) {
+                parser.skipChildren();
+                continue;
+            }
+            Integer position = positions.get(code);
+            if (position != null) {
+                values[position] = parser.getDoubleValue();
+                continue;
+            }
+            if (size == codes.length) {
+                codes = Arrays.copyOf(codes, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            positions.put(code, size);
+            codes[size] = code;
+            values[size++] = parser.getDoubleValue();
+        }
+
+        String[] sortedCodes = Arrays.copyOf(codes, size);
+        Arrays.sort(sortedCodes);
+        double[] sortedValues = new double[size];
+        for (int i = 0; i < size; i++) {
+            sortedValues[i] = values[positions.get(sortedCodes[i])];
+        }
+        return new ExchangeRates(null, null, sortedCodes, sortedValues);
+    }
+
+    String getBase() {
+        return base;
+    }
+
+    String getDate() {
+        return date;
+    }
+
+    int size() {
+        return codes.length;
+    }
+
+    /**
+     * Returns the position of the currency in {@link #code(int)} order, or a negative value if
+     * there is no rate for it.
+     */
+    int indexOf(String currencyCode) {
+        return currencyCode == null ? -1 : Arrays.binarySearch(codes, currencyCode);
+    }
+
+    String code(int index) {
+        return codes[index];
+    }
+
+    double rate(int index) {
+        return rates[index];
+    }
+
+    /**
+     * Returns the rates between every pair of currencies, computing them on first use.
+     */
+    CrossRateMatrix crossRates() {
+        CrossRateMatrix matrix = crossRates;
+        if (matrix == null) {
+            // concurrent callers may each build the matrix; any of the equal results is kept
+            matrix = CrossRateMatrix.of(this);
+            crossRates = matrix;
+        }
+        return matrix;
+    }
+
+    /**
+     * Returns the rate of the currency, or {@link Double#NaN} if there is none.
+     */
+    double get(String currencyCode) {
+        int index = indexOf(currencyCode);
+        return index < 0 ? Double.NaN : rates[index];
+    }
+}
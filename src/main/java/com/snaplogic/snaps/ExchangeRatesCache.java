@@ -0,0 +1,410 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A JVM-wide cache of exchange rates read from files, keyed by the resolved file {@link URI}.
+ *
+ * <p>A Snap acquires a {@link Lease} on a file for as long as it uses the file's rates; the
+ * first lookup through any lease loads the file, and every {@link CurrencyConverter} instance in
+ * the JVM then shares the parsed rates. Once an entry is older than the caller's time-to-live,
+ * the current rates keep being served while a single background task reloads the file. Once
+ * the last lease on an entry is closed, the entry is kept for the next execution until it is
+ * older than the time-to-live of that lease, and evicted by the next lease acquired or closed
+ * after that.</p>
+ *
+ * <p>Local files are also watched: a {@link WatchService} thread marks the entry of a file
+ * that changed, and the next lookup reloads it the same way, through the lease's loader. The
+ * directory of a file is only watched while there are leases on it; a file that was modified
+ * while it was not watched is reloaded once a lease is acquired on it again.</p>
+ */
+final class ExchangeRatesCache {
+    private static final Logger log = LoggerFactory.getLogger(ExchangeRatesCache.class);
+    private static final String FILE_SCHEME = "file";
+
+    private static final ExchangeRatesCache INSTANCE = new ExchangeRatesCache(
+            Ticker.systemTicker(), Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setNameFormat("exchange-rates-reload-%d")
+                    .setDaemon(true)
+                    .build()));
+
+    // the entries, watch keys and watch service are guarded by the entries
+    private final Map<URI, Entry> entries = new HashMap<>();
+    private final Map<Path, WatchKey> watchKeys = new HashMap<>();
+    // read by the watch thread
+    private final ConcurrentMap<Path, Entry> watchedEntries = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+    private final Ticker ticker;
+    private final Executor reloadExecutor;
+    private WatchService watchService;
+
+    ExchangeRatesCache(Ticker ticker, Executor reloadExecutor) {
+        this.ticker = ticker;
+        this.reloadExecutor = reloadExecutor;
+    }
+
+    static ExchangeRatesCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Acquires a lease on the exchange rates of a file, which must be closed once they are no
+     * longer used.
+     *
+     * @param uri       resolved location of the exchange rates file
+     * @param ttlMillis age after which the rates are reloaded in the background
+     * @param loader    reads and parses the file
+     * @return the lease
+     */
+    Lease acquire(URI uri, long ttlMillis, Loader loader) {
+        synchronized (entries) {
+            evictExpired();
+            Entry entry = entries.get(uri);
+            if (entry == null) {
+                entry = new Entry(uri);
+                entries.put(uri, entry);
+            }
+            if (entry.leases == 0) {
+                // before the first load, so that no change is missed
+                watch(entry);
+                Snapshot snapshot = entry.snapshot;
+                if (snapshot != null
+                        && !Objects.equals(snapshot.modified, lastModifiedTime(entry.uri))) {
+                    entry.changed = true;
+                }
+            }
+            entry.leases++;
+            return new Lease(entry, ttlMillis, loader);
+        }
+    }
+
+    private ExchangeRates get(Entry entry, long ttlMillis, Loader loader) throws IOException {
+        Snapshot snapshot = entry.snapshot;
+        if (snapshot == null) {
+            // concurrent first requests for the same file wait for a single load
+            synchronized (entry) {
+                snapshot = entry.snapshot;
+                if (snapshot == null) {
+                    misses.incrementAndGet();
+                    entry.changed = false;
+                    snapshot = load(entry, loader);
+                    entry.snapshot = snapshot;
+                    return snapshot.rates;
+                }
+            }
+        }
+
+        hits.incrementAndGet();
+        if (entry.changed
+                || ticker.read() - snapshot.loadedAt >= TimeUnit.MILLISECONDS.toNanos(ttlMillis)) {
+            scheduleReload(entry, loader);
+        }
+        return snapshot.rates;
+    }
+
+    private void release(Entry entry, long ttlMillis) throws IOException {
+        synchronized (entries) {
+            if (--entry.leases > 0) {
+                return;
+            }
+            entry.ttlMillis = ttlMillis;
+            unwatch(entry);
+            evictExpired();
+        }
+    }
+
+    // guarded by the entries
+    private void evictExpired() {
+        long now = ticker.read();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            Snapshot snapshot = entry.snapshot;
+            if (entry.leases == 0 && (snapshot == null || now - snapshot.loadedAt
+                    >= TimeUnit.MILLISECONDS.toNanos(entry.ttlMillis))) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private Snapshot load(Entry entry, Loader loader) throws IOException {
+        // read before the file, so that a change while it is read is not taken as loaded
+        FileTime modified = lastModifiedTime(entry.uri);
+        return new Snapshot(loader.load(entry.uri), ticker.read(), modified);
+    }
+
+    long hitCount() {
+        return hits.get();
+    }
+
+    long missCount() {
+        return misses.get();
+    }
+
+    long reloadCount() {
+        return reloads.get();
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private void scheduleReload(final Entry entry, final Loader loader) {
+        if (!entry.reloading.compareAndSet(false, true)) {
+            return;
+        }
+        reloadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // cleared first, so that a change during the load is reloaded again
+                    entry.changed = false;
+                    entry.snapshot = load(entry, loader);
+                    reloads.incrementAndGet();
+                } catch (IOException | RuntimeException e) {
+                    // keep serving the previous rates; the next stale lookup retries
+                    log.warn("Unable to reload exchange rates from {}", entry.uri, e);
+                } finally {
+                    entry.reloading.set(false);
+                }
+            }
+        });
+    }
+
+    private void watch(Entry entry) {
+        Path path = localPathOf(entry.uri);
+        if (path == null || path.getParent() == null
+                || watchedEntries.putIfAbsent(path, entry) != null) {
+            return;
+        }
+        Path directory = path.getParent();
+        try {
+            if (!watchKeys.containsKey(directory)) {
+                watchKeys.put(directory, directory.register(getWatchService(),
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY));
+            }
+            entry.path = path;
+        } catch (IOException | UnsupportedOperationException e) {
+            watchedEntries.remove(path, entry);
+            log.debug("Unable to watch {}, reloading it only once stale", path, e);
+        }
+    }
+
+    private void unwatch(Entry entry) throws IOException {
+        if (entry.path == null || !watchedEntries.remove(entry.path, entry)) {
+            return;
+        }
+        Path directory = entry.path.getParent();
+        entry.path = null;
+        for (Path path : watchedEntries.keySet()) {
+            if (directory.equals(path.getParent())) {
+                return;
+            }
+        }
+        watchKeys.remove(directory).cancel();
+        if (watchKeys.isEmpty()) {
+            // ends the watch thread; the next watched file starts a new one
+            watchService.close();
+            watchService = null;
+        }
+    }
+
+    private static Path localPathOf(URI uri) {
+        if (!FILE_SCHEME.equalsIgnoreCase(uri.getScheme())) {
+            return null;
+        }
+        try {
+            return Paths.get(uri).toAbsolutePath();
+        } catch (IllegalArgumentException | FileSystemNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static FileTime lastModifiedTime(URI uri) {
+        Path path = localPathOf(uri);
+        if (path == null) {
+            return null;
+        }
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private WatchService getWatchService() throws IOException {
+        if (watchService == null) {
+            final WatchService newWatchService = FileSystems.getDefault().newWatchService();
+            Thread watcher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    watchFiles(newWatchService);
+                }
+            }, "exchange-rates-watch");
+            watcher.setDaemon(true);
+            watcher.start();
+            watchService = newWatchService;
+        }
+        return watchService;
+    }
+
+    private void watchFiles(WatchService watchService) {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        for (Map.Entry<Path, Entry> watched : watchedEntries.entrySet()) {
+                            if (directory.equals(watched.getKey().getParent())) {
+                                watched.getValue().changed = true;
+                            }
+                        }
+                        continue;
+                    }
+                    Entry entry = watchedEntries.get(directory.resolve((Path) event.context()));
+                    if (entry != null) {
+                        entry.changed = true;
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // no file is watched any longer
+        }
+    }
+
+    /**
+     * Stops watching files; their rates are then only reloaded once stale.
+     */
+    void close() throws IOException {
+        synchronized (entries) {
+            if (watchService != null) {
+                watchService.close();
+                watchService = null;
+            }
+            watchKeys.clear();
+            watchedEntries.clear();
+        }
+    }
+
+    /**
+     * Reads the exchange rates from a file.
+     */
+    interface Loader {
+        ExchangeRates load(URI uri) throws IOException;
+    }
+
+    /**
+     * A Snap's use of the exchange rates of a file.
+     */
+    final class Lease implements Closeable {
+        private final Entry entry;
+        private final long ttlMillis;
+        private final Loader loader;
+        private boolean closed;
+
+        private Lease(Entry entry, long ttlMillis, Loader loader) {
+            this.entry = entry;
+            this.ttlMillis = ttlMillis;
+            this.loader = loader;
+        }
+
+        /**
+         * Returns the exchange rates of the file, loading them on the first request.
+         *
+         * @throws IOException if the initial load fails
+         */
+        ExchangeRates get() throws IOException {
+            if (closed) {
+                throw new IllegalStateException("The lease was closed");
+            }
+            return ExchangeRatesCache.this.get(entry, ttlMillis, loader);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                release(entry, ttlMillis);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final URI uri;
+        private final AtomicBoolean reloading = new AtomicBoolean();
+        private volatile Snapshot snapshot;
+        // set by the watch thread once the file changed
+        private volatile boolean changed;
+        // the watched file, the number of leases and the time-to-live of the last one closed;
+        // guarded by the entries
+        private Path path;
+        private int leases;
+        private long ttlMillis;
+
+        private Entry(URI uri) {
+            this.uri = uri;
+        }
+    }
+
+    private static final class Snapshot {
+        private final ExchangeRates rates;
+        private final long loadedAt;
+        // of a local file, or null
+        private final FileTime modified;
+
+        private Snapshot(ExchangeRates rates, long loadedAt, FileTime modified) {
+            this.rates = rates;
+            this.loadedAt = loadedAt;
+            this.modified = modified;
+        }
+    }
+}
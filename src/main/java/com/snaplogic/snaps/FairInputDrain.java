@@ -0,0 +1,165 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads several inputs on a thread each, for a single thread to take their documents in a fair
+ * order.
+ *
+ * <p>Each reader puts the documents of its input in a bounded queue of its own, so that it
+ * waits while the documents of its input are not taken, without holding up the other inputs.
+ * Documents are taken from the inputs that have some queued, in a smooth weighted round robin:
+ * over any stretch of time that the inputs all have documents queued, each input's share of the
+ * documents taken is its share of the weights, and its turns are spread evenly.</p>
+ *
+ * <p>The end of an input is passed on once all of its documents were, and a reader that failed
+ * fails draining there, so that the documents read before the failure are always passed on.</p>
+ *
+ * @param <T> the type of the documents
+ */
+final class FairInputDrain<T> implements Closeable {
+    // put by each reader once its input has no more documents
+    private static final Object END = new Object();
+
+    /**
+     * Receives the documents of the inputs, on the thread draining them.
+     */
+    interface Sink<T> {
+        void accept(T document, int input);
+
+        void end(int input);
+    }
+
+    private final ExecutorService executor;
+    private final List<BlockingQueue<Object>> queues = new ArrayList<>();
+    private final int[] weights;
+    private final long[] credits;
+    private final Throwable[] failures;
+    // a permit for each document or end queued
+    private final Semaphore queued = new Semaphore(0);
+
+    /**
+     * @param inputs   the documents of each input
+     * @param weights  the weight of each input, of at least 1
+     * @param capacity the number of documents queued for each input at most
+     */
+    FairInputDrain(List<? extends Iterator<? extends T>> inputs, int[] weights, int capacity) {
+        this.weights = weights.clone();
+        this.credits = new long[inputs.size()];
+        this.failures = new Throwable[inputs.size()];
+        executor = Executors.newFixedThreadPool(Math.max(inputs.size(), 1),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("input-reader-%d")
+                        .setDaemon(true)
+                        .build());
+        for (int i = 0; i < inputs.size(); i++) {
+            final int input = i;
+            final Iterator<? extends T> documents = inputs.get(i);
+            final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(capacity);
+            queues.add(queue);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    boolean closed = false;
+                    try {
+                        while (documents.hasNext()) {
+                            queue.put(documents.next());
+                            queued.release();
+                        }
+                    } catch (InterruptedException e) {
+                        // closed before every document was taken
+                        closed = true;
+                    } catch (Throwable e) {
+                        // read by the draining thread once it takes the end; whatever the
+                        // iterator throws, the end is queued so that draining never waits forever
+                        failures[input] = e;
+                    } finally {
+                        if (!closed) {
+                            end(queue);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void end(BlockingQueue<Object> queue) {
+        try {
+            queue.put(END);
+            queued.release();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Passes every document of the inputs, and then the end of each input, to the sink.
+     *
+     * @throws RuntimeException the unchecked exception a reader failed with, or one wrapping
+     *                          the checked exception it failed with
+     * @throws Error            the error a reader failed with
+     */
+    @SuppressWarnings("unchecked")
+    void drain(Sink<? super T> sink) throws InterruptedException {
+        int remaining = queues.size();
+        while (remaining > 0) {
+            queued.acquire();
+            int input = select();
+            Object document = queues.get(input).poll();
+            if (document != END) {
+                sink.accept((T) document, input);
+                continue;
+            }
+            if (failures[input] != null) {
+                throw Throwables.propagate(failures[input]);
+            }
+            sink.end(input);
+            remaining--;
+        }
+    }
+
+    // picks the input with the most credit among those with a document or end queued, which
+    // there is one of for each permit acquired
+    private int select() {
+        int selected = -1;
+        long totalWeight = 0;
+        for (int i = 0; i < queues.size(); i++) {
+            if (queues.get(i).isEmpty()) {
+                continue;
+            }
+            credits[i] += weights[i];
+            totalWeight += weights[i];
+            if (selected < 0 || credits[i] > credits[selected]) {
+                selected = i;
+            }
+        }
+        credits[selected] -= totalWeight;
+        return selected;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * Multiplies amounts by exchange rates using {@code long} minor units and rounds the product to
+ * a fixed number of decimal places.
+ *
+ * <p>Each operand is converted to a {@code long} holding its value in units of its own last
+ * decimal place, so the result equals multiplying the operands as {@link BigDecimal}s and rounding
+ * the product to the configured scale. {@link BigDecimal} and {@link BigInteger} operands, which
+ * is how numbers parsed from documents usually arrive, are unscaled the same way.
+ * {@link BigDecimal} arithmetic is only used when an operand has too many decimal places, or an
+ * operand or the product does not fit into a {@code long}.</p>
+ *
+ * <p>A rate that many amounts are multiplied by can be converted once, see {@link Rate}.</p>
+ */
+final class FixedPointArithmetic {
+    static final int MAX_SCALE = 18;
+
+    // operands with more decimal places than this are multiplied as BigDecimals
+    private static final int MAX_OPERAND_DECIMALS = 9;
+    private static final long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+    // doubles above this magnitude no longer represent every integer exactly
+    private static final double MAX_EXACT_DOUBLE = 9007199254740992d;
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final int scale;
+    private final RoundingMode roundingMode;
+
+    FixedPointArithmetic(int scale, RoundingMode roundingMode) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException(String.format(
+                    "Scale must be between 0 and %d, but was %d", MAX_SCALE, scale));
+        }
+        if (roundingMode == RoundingMode.UNNECESSARY) {
+            throw new IllegalArgumentException("Rounding mode UNNECESSARY is not supported");
+        }
+        this.scale = scale;
+        this.roundingMode = roundingMode;
+    }
+
+    /**
+     * Returns {@code amount * rate} rounded to the configured scale.
+     */
+    BigDecimal multiply(Number amount, Number rate) {
+        int rateDecimals = decimalsOf(rate);
+        return multiply(amount, rate, rateDecimals,
+                rateDecimals < 0 ? 0 : unitsOf(rate, rateDecimals));
+    }
+
+    /**
+     * Returns {@code amount * rate} rounded to the configured scale.
+     */
+    BigDecimal multiply(Number amount, Rate rate) {
+        return multiply(amount, rate.value, rate.decimals, rate.units);
+    }
+
+    private BigDecimal multiply(Number amount, Number rate, int rateDecimals, long rateUnits) {
+        int amountDecimals = decimalsOf(amount);
+        if (amountDecimals >= 0 && rateDecimals >= 0) {
+            BigDecimal result = multiply(unitsOf(amount, amountDecimals), amountDecimals,
+                    rateUnits, rateDecimals);
+            if (result != null) {
+                return result;
+            }
+        }
+        return multiplyDecimal(toDecimal(amount), toDecimal(rate));
+    }
+
+    /**
+     * Returns {@code amount * rate} rounded to the configured scale.
+     */
+    BigDecimal multiply(double amount, double rate) {
+        int amountDecimals = decimalsOf(amount);
+        int rateDecimals = decimalsOf(rate);
+        if (amountDecimals >= 0 && rateDecimals >= 0) {
+            BigDecimal result = multiply(toUnits(amount, amountDecimals), amountDecimals,
+                    toUnits(rate, rateDecimals), rateDecimals);
+            if (result != null) {
+                return result;
+            }
+        }
+        return multiplyDecimal(BigDecimal.valueOf(amount), BigDecimal.valueOf(rate));
+    }
+
+    /**
+     * Multiplies two operands given in units of their last decimal place, or returns null if the
+     * result does not fit into a {@code long}.
+     */
+    private BigDecimal multiply(long amountUnits, int amountDecimals, long rateUnits,
+            int rateDecimals) {
+        try {
+            long product = Math.multiplyExact(amountUnits, rateUnits);
+            int productDecimals = amountDecimals + rateDecimals;
+            long result = productDecimals >= scale
+                    ? divide(product, POWERS_OF_TEN[productDecimals - scale], roundingMode)
+                    : Math.multiplyExact(product, POWERS_OF_TEN[scale - productDecimals]);
+            return BigDecimal.valueOf(result, scale);
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    private BigDecimal multiplyDecimal(BigDecimal amount, BigDecimal rate) {
+        return amount.multiply(rate).setScale(scale, roundingMode);
+    }
+
+    /**
+     * Returns the number of decimal places of a number, or -1 if it has too many to be
+     * represented in {@code long} units.
+     */
+    private static int decimalsOf(Number value) {
+        if (isIntegral(value)) {
+            return 0;
+        } else if (value instanceof BigDecimal) {
+            // up to 18 digits always fit, and checking so does not inflate the unscaled value
+            BigDecimal decimal = (BigDecimal) value;
+            return decimal.scale() >= 0 && decimal.scale() <= MAX_OPERAND_DECIMALS
+                    && decimal.precision() <= MAX_SCALE ? decimal.scale() : -1;
+        } else if (value instanceof BigInteger) {
+            return ((BigInteger) value).bitLength() < 63 ? 0 : -1;
+        }
+        return decimalsOf(value.doubleValue());
+    }
+
+    // the number in units of its last decimal place, given the decimals it was found to have
+    private static long unitsOf(Number value, int decimals) {
+        if (value instanceof BigDecimal) {
+            // moved to scale 0, the value is read without creating its unscaled BigInteger
+            return ((BigDecimal) value).movePointRight(decimals).longValue();
+        } else if (isIntegral(value) || value instanceof BigInteger) {
+            return value.longValue();
+        }
+        return toUnits(value.doubleValue(), decimals);
+    }
+
+    /**
+     * Returns the number of decimal places of the shortest decimal that rounds to the given
+     * double, or -1 if it has too many to be represented in {@code long} units.
+     */
+    private static int decimalsOf(double value) {
+        for (int decimals = 0; decimals <= MAX_OPERAND_DECIMALS; decimals++) {
+            double scaled = value * POWERS_OF_TEN[decimals];
+            if (!(Math.abs(scaled) < MAX_EXACT_DOUBLE)) {
+                return -1;
+            }
+            // both operands are exact, so the division is correctly rounded
+            if (Math.rint(scaled) / POWERS_OF_TEN[decimals] == value) {
+                return decimals;
+            }
+        }
+        return -1;
+    }
+
+    private static long toUnits(double value, int decimals) {
+        return (long) Math.rint(value * POWERS_OF_TEN[decimals]);
+    }
+
+    private static boolean isIntegral(Number value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte;
+    }
+
+    private static BigDecimal toDecimal(Number value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        } else if (value instanceof BigInteger) {
+            return new BigDecimal((BigInteger) value);
+        } else if (isIntegral(value)) {
+            return BigDecimal.valueOf(value.longValue());
+        }
+        return BigDecimal.valueOf(value.doubleValue());
+    }
+
+    /**
+     * A rate converted to {@code long} units once, to multiply many amounts by.
+     */
+    static final class Rate {
+        private final Number value;
+        private final int decimals;
+        private final long units;
+
+        Rate(Number value) {
+            this.value = value;
+            decimals = decimalsOf(value);
+            units = decimals < 0 ? 0 : unitsOf(value, decimals);
+        }
+
+        Number value() {
+            return value;
+        }
+    }
+
+    /**
+     * Divides two longs, rounding the quotient like {@link BigDecimal#divide} does.
+     */
+    static long divide(long dividend, long divisor, RoundingMode roundingMode) {
+        long quotient = dividend / divisor;
+        long remainder = dividend % divisor;
+        if (remainder == 0) {
+            return quotient;
+        }
+
+        int signum = (dividend < 0) == (divisor < 0) ? 1 : -1;
+        // |remainder| < |divisor| <= 10^18, so doubling it cannot overflow
+        int half = Long.compare(Math.abs(remainder) * 2, Math.abs(divisor));
+        boolean increment;
+        switch (roundingMode) {
+            case UP:
+                increment = true;
+                break;
+            case DOWN:
+                increment = false;
+                break;
+            case CEILING:
+                increment = signum > 0;
+                break;
+            case FLOOR:
+                increment = signum < 0;
+                break;
+            case HALF_UP:
+                increment = half >= 0;
+                break;
+            case HALF_DOWN:
+                increment = half > 0;
+                break;
+            case HALF_EVEN:
+                increment = half > 0 || (half == 0 && (quotient & 1) != 0);
+                break;
+            default:
+                throw new ArithmeticException("Rounding necessary");
+        }
+        return increment ? quotient + signum : quotient;
+    }
+}
@@ -0,0 +1,566 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Joins two streams of documents in any order on a key, by building a hash table of the
+ * documents of one stream, the build side, and looking up the documents of the other, the probe
+ * side, in it.
+ *
+ * <p>Once the build side takes more than the memory budget, both sides are partitioned by the
+ * hash of their keys into spill files, in Smile, and each pair of partitions is joined in turn.
+ * A partition whose build side does not fit either is partitioned again with another hash, and
+ * one that cannot be split, because most of it has the same key, is joined a part of its build
+ * side at a time against its whole probe side.</p>
+ *
+ * <p>The joined documents are passed to a {@link MergeJoin.Handler}, whose left documents are
+ * those of the probe side, in no particular order. Keys match as they do in a merge join: a null
+ * key matches no other key, and numbers match by value whatever their type.</p>
+ *
+ * <p>Spill files are written and read back with the modules and features of the mapper the
+ * documents were parsed with, so numbers read back have the types that mapper parses them as.
+ * Documents read back are recreated from their data alone: values the mapper cannot parse back
+ * into the same type, such as dates, come back as they were serialized, and the documents do not
+ * keep the lineage of the input documents they were read from.</p>
+ *
+ * @param <T> the type of the documents
+ */
+final class HashJoin<T> implements Closeable {
+    static final int PARTITIONS = 16;
+    // partitioning again after this many times would not split the partition any further
+    private static final int MAX_LEVEL = 4;
+    private static final int BUFFER_SIZE = 32 * 1024;
+    // about what a hash table entry and a document's row take besides its data
+    private static final int ROW_BYTES = 96;
+
+    /**
+     * Accesses the keys and data of documents, and recreates documents from their data.
+     */
+    interface Adapter<T> {
+        Object key(T document);
+
+        Object data(T document);
+
+        T restore(Object data);
+    }
+
+    private final MergeJoin.Type type;
+    private final Adapter<T> adapter;
+    private final long memoryBudget;
+    private final Path spillDirectory;
+    private final SmileFactory spillFactory = new SmileFactory();
+    // each row is flushed with the spill file's buffer rather than on its own
+    private final ObjectWriter spillWriter;
+    private final ObjectReader spillReader;
+    private final List<SpillWriter> spillWriters = new ArrayList<>();
+    private long buildDocuments;
+    private long probeDocuments;
+    private long spilledDocuments;
+    private long spilledBytes;
+    private long spillNanos;
+    private long probeNanos;
+    private int partitions;
+
+    /**
+     * @param type           the join type, whose left documents are those of the probe side
+     * @param adapter        accesses the keys and data of documents
+     * @param memoryBudget   the number of bytes the build side may take in memory
+     * @param spillDirectory the directory of the spill files
+     * @param mapper         the mapper the documents were parsed with
+     */
+    HashJoin(MergeJoin.Type type, Adapter<T> adapter, long memoryBudget, Path spillDirectory,
+            ObjectMapper mapper) {
+        this.type = type;
+        this.adapter = adapter;
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+        spillWriter = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        spillReader = mapper.reader(new TypeReference<List<Object>>() {
+        });
+    }
+
+    /**
+     * Joins the documents of the probe and build sides.
+     */
+    void join(Iterator<T> probe, Iterator<T> build, MergeJoin.Handler<T> handler)
+            throws IOException {
+        Table table = new Table();
+        Partitions spilled = null;
+        while (build.hasNext()) {
+            T document = build.next();
+            buildDocuments++;
+            Row row = row(document, handler);
+            if (row == null) {
+                continue;
+            }
+            if (row.key == null) {
+                if (type.keepsRight()) {
+                    handler.unmatchedRight(document);
+                }
+            } else if (spilled != null) {
+                spilled.addBuild(row);
+            } else {
+                table.add(row);
+                if (table.bytes > memoryBudget) {
+                    spilled = new Partitions(0);
+                    spilled.addBuild(table);
+                    table = null;
+                }
+            }
+        }
+        long start = System.nanoTime();
+        while (probe.hasNext()) {
+            T document = probe.next();
+            probeDocuments++;
+            Row row = row(document, handler);
+            if (row == null) {
+                continue;
+            }
+            if (row.key == null) {
+                if (type.keepsLeft()) {
+                    handler.unmatchedLeft(document);
+                }
+            } else if (spilled != null) {
+                spilled.addProbe(row);
+            } else if (!table.probe(row, handler) && type.keepsLeft()) {
+                handler.unmatchedLeft(document);
+            }
+        }
+        if (spilled != null) {
+            spilled.join(1, handler);
+        } else {
+            table.writeUnmatched(handler);
+        }
+        probeNanos = System.nanoTime() - start;
+    }
+
+    long buildDocuments() {
+        return buildDocuments;
+    }
+
+    long probeDocuments() {
+        return probeDocuments;
+    }
+
+    /**
+     * Returns the number of times documents were written to spill files, once per partitioning.
+     */
+    long spilledDocuments() {
+        return spilledDocuments;
+    }
+
+    long spilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * Returns the nanoseconds spent writing spill files.
+     */
+    long spillNanos() {
+        return spillNanos;
+    }
+
+    /**
+     * Returns the nanoseconds from the first probe document until the join was done.
+     */
+    long probeNanos() {
+        return probeNanos;
+    }
+
+    /**
+     * Returns the number of partitions spilled, counting those partitioned again.
+     */
+    int partitions() {
+        return partitions;
+    }
+
+    /**
+     * Deletes the spill files left by a join that failed.
+     */
+    @Override
+    public void close() throws IOException {
+        for (SpillWriter writer : new ArrayList<>(spillWriters)) {
+            writer.delete();
+        }
+    }
+
+    private Row row(T document, MergeJoin.Handler<T> handler) {
+        Object key;
+        try {
+            key = adapter.key(document);
+            if (key != null && !(key instanceof Comparable)) {
+                throw new IllegalArgumentException(String.format(
+                        "Join key %s is not a boolean, number or string", key));
+            }
+        } catch (RuntimeException e) {
+            handler.invalidKey(document, e);
+            return null;
+        }
+        return new Row(normalize(key), adapter.data(document), document);
+    }
+
+    /**
+     * Returns the key as a long when it is an integral number, or else as a BigDecimal without
+     * trailing zeros when it is a finite number, so that numbers of equal value are equal.
+     */
+    static Object normalize(Object key) {
+        if (!(key instanceof Number)) {
+            return key;
+        }
+        Number number = (Number) key;
+        if (number instanceof Long || number instanceof Integer || number instanceof Short ||
+                number instanceof Byte) {
+            return number.longValue();
+        }
+        BigDecimal decimal;
+        if (number instanceof BigDecimal) {
+            decimal = (BigDecimal) number;
+        } else if (number instanceof BigInteger) {
+            decimal = new BigDecimal((BigInteger) number);
+        } else if (Double.isNaN(number.doubleValue()) ||
+                Double.isInfinite(number.doubleValue())) {
+            return number.doubleValue();
+        } else {
+            decimal = new BigDecimal(number.doubleValue());
+        }
+        decimal = decimal.signum() == 0 ? BigDecimal.ZERO : decimal.stripTrailingZeros();
+        if (decimal.scale() <= 0 && decimal.precision() - decimal.scale() <= 19) {
+            try {
+                return decimal.longValueExact();
+            } catch (ArithmeticException e) {
+                // beyond the range of a long
+            }
+        }
+        return decimal;
+    }
+
+    /**
+     * Returns an estimate of the bytes the maps, lists and values parsed from JSON take.
+     */
+    static long estimateBytes(Object value) {
+        if (value instanceof Map) {
+            long bytes = 48;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                bytes += 32 + estimateBytes(entry.getKey()) + estimateBytes(entry.getValue());
+            }
+            return bytes;
+        }
+        if (value instanceof List) {
+            long bytes = 24;
+            for (Object element : (List<?>) value) {
+                bytes += 8 + estimateBytes(element);
+            }
+            return bytes;
+        }
+        if (value instanceof String) {
+            return 40 + 2 * ((String) value).length();
+        }
+        return value == null ? 0 : 24;
+    }
+
+    /**
+     * Joins a pair of spilled partitions, and deletes their files.
+     */
+    private void joinPartition(SpillWriter build, SpillWriter probe, int level,
+            MergeJoin.Handler<T> handler) throws IOException {
+        try {
+            if ((build.count == 0 && !type.keepsLeft()) ||
+                    (probe.count == 0 && !type.keepsRight())) {
+                return;
+            }
+            try (SpillReader buildRows = new SpillReader(build.file)) {
+                Table table = readTable(buildRows);
+                if (!buildRows.hasNext()) {
+                    try (SpillReader probeRows = new SpillReader(probe.file)) {
+                        while (probeRows.hasNext()) {
+                            Row row = probeRows.next();
+                            if (!table.probe(row, handler) && type.keepsLeft()) {
+                                handler.unmatchedLeft(row.document());
+                            }
+                        }
+                    }
+                    table.writeUnmatched(handler);
+                } else if (level < MAX_LEVEL && table.rows.size() > 1) {
+                    Partitions partitioned = new Partitions(level);
+                    partitioned.addBuild(table);
+                    while (buildRows.hasNext()) {
+                        partitioned.addBuild(buildRows.next());
+                    }
+                    try (SpillReader probeRows = new SpillReader(probe.file)) {
+                        while (probeRows.hasNext()) {
+                            partitioned.addProbe(probeRows.next());
+                        }
+                    }
+                    partitioned.join(level + 1, handler);
+                } else {
+                    joinInParts(table, buildRows, probe, handler);
+                }
+            }
+        } finally {
+            build.delete();
+            probe.delete();
+        }
+    }
+
+    /**
+     * Joins each part of the build side that fits in memory with the whole probe side.
+     */
+    private void joinInParts(Table table, SpillReader buildRows, SpillWriter probe,
+            MergeJoin.Handler<T> handler) throws IOException {
+        BitSet matched = new BitSet();
+        while (table != null) {
+            try (SpillReader probeRows = new SpillReader(probe.file)) {
+                for (int i = 0; probeRows.hasNext(); i++) {
+                    if (table.probe(probeRows.next(), handler)) {
+                        matched.set(i);
+                    }
+                }
+            }
+            table.writeUnmatched(handler);
+            table = buildRows.hasNext() ? readTable(buildRows) : null;
+        }
+        if (type.keepsLeft()) {
+            try (SpillReader probeRows = new SpillReader(probe.file)) {
+                for (int i = 0; probeRows.hasNext(); i++) {
+                    Row row = probeRows.next();
+                    if (!matched.get(i)) {
+                        handler.unmatchedLeft(row.document());
+                    }
+                }
+            }
+        }
+    }
+
+    // reads rows until the table takes the memory budget
+    private Table readTable(SpillReader rows) throws IOException {
+        Table table = new Table();
+        while (table.bytes <= memoryBudget && rows.hasNext()) {
+            table.add(rows.next());
+        }
+        return table;
+    }
+
+    /**
+     * A document's key and data, and whether it matched a document of the other side.
+     */
+    private final class Row {
+        private final Object key;
+        private final Object data;
+        private T document;
+        private boolean matched;
+
+        Row(Object key, Object data, T document) {
+            this.key = key;
+            this.data = data;
+            this.document = document;
+        }
+
+        T document() {
+            if (document == null) {
+                document = adapter.restore(data);
+            }
+            return document;
+        }
+    }
+
+    /**
+     * The rows of the build side, or a part of it, by key.
+     */
+    private final class Table {
+        private final Map<Object, List<Row>> rows = new HashMap<>();
+        private long bytes;
+
+        void add(Row row) {
+            List<Row> keyRows = rows.get(row.key);
+            if (keyRows == null) {
+                keyRows = new ArrayList<>(1);
+                rows.put(row.key, keyRows);
+            }
+            keyRows.add(row);
+            bytes += ROW_BYTES + estimateBytes(row.data);
+        }
+
+        // writes the matches of a probe row, and returns whether there was one
+        boolean probe(Row probeRow, MergeJoin.Handler<T> handler) {
+            List<Row> keyRows = rows.get(probeRow.key);
+            if (keyRows == null) {
+                return false;
+            }
+            for (Row row : keyRows) {
+                row.matched = true;
+                handler.matched(probeRow.document(), row.document());
+            }
+            return true;
+        }
+
+        void writeUnmatched(MergeJoin.Handler<T> handler) {
+            if (!type.keepsRight()) {
+                return;
+            }
+            for (List<Row> keyRows : rows.values()) {
+                for (Row row : keyRows) {
+                    if (!row.matched) {
+                        handler.unmatchedRight(row.document());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The spill files of both sides, partitioned by the hash of the keys.
+     */
+    private final class Partitions {
+        private final HashFunction hash;
+        private final List<SpillWriter> build = new ArrayList<>(PARTITIONS);
+        private final List<SpillWriter> probe = new ArrayList<>(PARTITIONS);
+
+        Partitions(int seed) throws IOException {
+            hash = Hashing.murmur3_32(seed);
+            for (int i = 0; i < PARTITIONS; i++) {
+                build.add(new SpillWriter());
+                probe.add(new SpillWriter());
+            }
+            partitions += PARTITIONS;
+        }
+
+        void addBuild(Table table) throws IOException {
+            for (List<Row> keyRows : table.rows.values()) {
+                for (Row row : keyRows) {
+                    addBuild(row);
+                }
+            }
+        }
+
+        void addBuild(Row row) throws IOException {
+            build.get(partition(row.key)).write(row);
+        }
+
+        void addProbe(Row row) throws IOException {
+            probe.get(partition(row.key)).write(row);
+        }
+
+        void join(int level, MergeJoin.Handler<T> handler) throws IOException {
+            for (int i = 0; i < PARTITIONS; i++) {
+                build.get(i).close();
+                probe.get(i).close();
+            }
+            for (int i = 0; i < PARTITIONS; i++) {
+                joinPartition(build.get(i), probe.get(i), level, handler);
+            }
+        }
+
+        private int partition(Object key) {
+            return (hash.hashInt(key.hashCode()).asInt() & Integer.MAX_VALUE) % PARTITIONS;
+        }
+    }
+
+    /**
+     * Writes rows to a spill file, as arrays of their key and data.
+     */
+    private final class SpillWriter implements Closeable {
+        private final Path file;
+        private final CountingOutputStream output;
+        private final JsonGenerator generator;
+        private long count;
+        private boolean closed;
+
+        SpillWriter() throws IOException {
+            file = Files.createTempFile(spillDirectory, "hash-join", ".smile");
+            spillWriters.add(this);
+            output = new CountingOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(file), BUFFER_SIZE));
+            generator = spillFactory.createGenerator(output);
+        }
+
+        void write(Row row) throws IOException {
+            long start = System.nanoTime();
+            generator.writeStartArray();
+            spillWriter.writeValue(generator, row.key);
+            spillWriter.writeValue(generator, row.data);
+            generator.writeEndArray();
+            count++;
+            spilledDocuments++;
+            spillNanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            long start = System.nanoTime();
+            generator.close();
+            spilledBytes += output.getCount();
+            spillNanos += System.nanoTime() - start;
+        }
+
+        void delete() throws IOException {
+            close();
+            Files.deleteIfExists(file);
+            spillWriters.remove(this);
+        }
+    }
+
+    /**
+     * Reads back the rows of a spill file.
+     */
+    private final class SpillReader implements Closeable {
+        private final MappingIterator<List<Object>> records;
+
+        SpillReader(Path file) throws IOException {
+            records = spillReader.readValues(spillFactory.createParser(
+                    new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)));
+        }
+
+        boolean hasNext() {
+            return records.hasNext();
+        }
+
+        Row next() {
+            List<Object> record = records.next();
+            return new Row(normalize(record.get(0)), record.get(1), null);
+        }
+
+        @Override
+        public void close() throws IOException {
+            records.close();
+        }
+    }
+}
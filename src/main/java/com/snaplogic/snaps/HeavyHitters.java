@@ -0,0 +1,128 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+/**
+ * Tracks the most frequent long keys of a stream whose distinct keys may not fit in memory.
+ *
+ * <p>Counts are estimated by a {@link CountMinSketch}. The keys with the highest estimates are
+ * kept in a min-heap of fixed size; a key enters the heap when its estimate exceeds the
+ * smallest one in the heap.</p>
+ */
+final class HeavyHitters {
+    private final CountMinSketch sketch;
+    private final long[] heapKeys;
+    private final long[] heapCounts;
+    // heap index + 1 of each key in the heap
+    private final CountTable positions;
+    private int heapSize;
+
+    /**
+     * @param size     the number of keys to keep
+     * @param maxBytes the memory the sketch may take
+     */
+    HeavyHitters(int size, long maxBytes) {
+        sketch = new CountMinSketch(maxBytes);
+        heapKeys = new long[size];
+        heapCounts = new long[size];
+        positions = new CountTable(size);
+    }
+
+    /**
+     * Returns the number of bytes the heap of the given number of keys takes, besides the sketch.
+     */
+    static long bytesFor(int size) {
+        return 16L * size + CountTable.bytesFor(size);
+    }
+
+    /**
+     * Adds the given amount to the count of the given key.
+     */
+    void add(long key, long delta) {
+        long estimate = sketch.add(key, delta);
+        int position = (int) positions.get(key) - 1;
+        if (position >= 0) {
+            heapCounts[position] = estimate;
+            siftDown(position);
+        } else if (heapSize < heapKeys.length) {
+            set(heapSize++, key, estimate);
+            siftUp(heapSize - 1);
+        } else if (estimate > heapCounts[0]) {
+            positions.remove(heapKeys[0]);
+            set(0, key, estimate);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Returns the number of keys kept.
+     */
+    int size() {
+        return heapSize;
+    }
+
+    /**
+     * Returns the key at the given index of the heap.
+     */
+    long key(int index) {
+        return heapKeys[index];
+    }
+
+    /**
+     * Returns the estimated count of the key at the given index of the heap.
+     */
+    long count(int index) {
+        return heapCounts[index];
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heapCounts[parent] <= heapCounts[index]) {
+                return;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int smallest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < heapSize && heapCounts[left] < heapCounts[smallest]) {
+                smallest = left;
+            }
+            if (right < heapSize && heapCounts[right] < heapCounts[smallest]) {
+                smallest = right;
+            }
+            if (smallest == index) {
+                return;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long key = heapKeys[i];
+        long count = heapCounts[i];
+        set(i, heapKeys[j], heapCounts[j]);
+        set(j, key, count);
+    }
+
+    private void set(int index, long key, long count) {
+        heapKeys[index] = key;
+        heapCounts[index] = count;
+        positions.put(key, index + 1);
+    }
+}
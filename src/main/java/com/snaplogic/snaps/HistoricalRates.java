@@ -0,0 +1,260 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The exchange rates of a base currency over many days, indexed by date.
+ *
+ * <p>Each currency holds a sorted array of epoch days and a parallel array of the rates that
+ * took effect on those days. A lookup returns the rate of the latest day on or before the
+ * requested one, found with a binary search. The arrays are built as the days are read, see
+ * {@link Builder}.</p>
+ */
+final class HistoricalRates {
+    private final String base;
+    private final String[] codes;
+    private final int[][] days;
+    private final double[][] rates;
+
+    private HistoricalRates(String base, String[] codes, int[][] days, double[][] rates) {
+        this.base = base;
+        this.codes = codes;
+        this.days = days;
+        this.rates = rates;
+    }
+
+    /**
+     * Creates the historical rates from the exchange rates of each day.
+     *
+     * @param dailyRates exchange rates with a base currency and a {@code yyyy-MM-dd} date
+     * @return the historical rates
+     * @throws IllegalArgumentException if the days do not share a base currency or a date is
+     *                                  missing or invalid
+     */
+    static HistoricalRates of(List<ExchangeRates> dailyRates) {
+        Builder builder = new Builder();
+        for (ExchangeRates day : dailyRates) {
+            builder.add(day);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads a JSON array of daily exchange rates objects from the parser, which must be
+     * positioned before it. Each day is indexed as it is read, so only one day's exchange rates
+     * object is in memory at a time.
+     *
+     * @param parser the parser to read from
+     * @return the historical rates
+     * @throws IOException if the content is not an array of dated exchange rates objects
+     */
+    static HistoricalRates read(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException("Expected an array of exchange rates objects",
+                    parser.getCurrentLocation());
+        }
+        Builder builder = new Builder();
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+            ExchangeRates day = ExchangeRates.readObject(parser);
+            try {
+                builder.add(day);
+            } catch (IllegalArgumentException e) {
+                throw new JsonParseException(e.getMessage(), parser.getCurrentLocation(), e);
+            }
+        }
+        if (token != JsonToken.END_ARRAY) {
+            throw new JsonParseException("Expected an exchange rates object",
+                    parser.getCurrentLocation());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the number of days since 1970-01-01 of a {@code yyyy-MM-dd} date.
+     *
+     * @throws IllegalArgumentException if the date is missing or invalid
+     */
+    static int toEpochDay(String date) {
+        if (date == null) {
+            throw new IllegalArgumentException("Exchange rates have no date");
+        }
+        try {
+            return (int) LocalDate.parse(date).toEpochDay();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(String.format("Invalid date %s", date), e);
+        }
+    }
+
+    String getBase() {
+        return base;
+    }
+
+    /**
+     * Returns the rate of the currency in effect on the given day, or {@link Double#NaN} if
+     * there is no rate for the currency on or before that day.
+     */
+    double get(String currencyCode, int epochDay) {
+        if (currencyCode != null && currencyCode.equals(base)) {
+            return 1;
+        }
+        int c = currencyCode == null ? -1 : Arrays.binarySearch(codes, currencyCode);
+        if (c < 0) {
+            return Double.NaN;
+        }
+        int index = Arrays.binarySearch(days[c], epochDay);
+        if (index < 0) {
+            // the insertion point is after the latest earlier day
+            index = -index - 2;
+        }
+        return index < 0 ? Double.NaN : rates[c][index];
+    }
+
+    /**
+     * Returns the rate from one currency to another in effect on the given day, or
+     * {@link Double#NaN} if either currency has no rate on or before that day.
+     */
+    double get(String fromCurrency, String toCurrency, int epochDay) {
+        double toRate = get(toCurrency, epochDay);
+        if (fromCurrency == null || fromCurrency.equals(base)) {
+            return toRate;
+        }
+        return toRate / get(fromCurrency, epochDay);
+    }
+
+    /**
+     * Indexes the exchange rates of each day as they are added, in any order of their dates.
+     */
+    static final class Builder {
+        private final Map<String, Series> series = new TreeMap<>();
+        private String base;
+        private boolean empty = true;
+
+        /**
+         * @throws IllegalArgumentException if the day's base currency differs from the earlier
+         *                                  days', or its date is missing or invalid
+         */
+        void add(ExchangeRates day) {
+            if (empty) {
+                base = day.getBase();
+                empty = false;
+            } else if (base == null ? day.getBase() != null : !base.equals(day.getBase())) {
+                throw new IllegalArgumentException(String.format(
+                        "Rates of %s are based on %s instead of %s", day.getDate(),
+                        day.getBase(), base));
+            }
+            // parsed once per day, however many currencies it has
+            int epochDay = toEpochDay(day.getDate());
+            for (int i = 0; i < day.size(); i++) {
+                Series currency = series.get(day.code(i));
+                if (currency == null) {
+                    currency = new Series();
+                    series.put(day.code(i), currency);
+                }
+                currency.add(epochDay, day.rate(i));
+            }
+        }
+
+        HistoricalRates build() {
+            String[] codes = series.keySet().toArray(new String[series.size()]);
+            int[][] days = new int[codes.length][];
+            double[][] rates = new double[codes.length][];
+            for (int c = 0; c < codes.length; c++) {
+                Series currency = series.get(codes[c]);
+                currency.sort();
+                days[c] = Arrays.copyOf(currency.days, currency.size);
+                rates[c] = Arrays.copyOf(currency.rates, currency.size);
+            }
+            return new HistoricalRates(base, codes, days, rates);
+        }
+    }
+
+    /**
+     * The days and rates of a currency in the order they were added.
+     */
+    private static final class Series {
+        private int[] days = new int[16];
+        private double[] rates = new double[16];
+        private int size;
+        private boolean ordered = true;
+
+        void add(int epochDay, double rate) {
+            if (size > 0 && ordered && days[size - 1] == epochDay) {
+                // a later payload for the same day replaces the earlier rate
+                rates[size - 1] = rate;
+                return;
+            }
+            if (size == days.length) {
+                days = Arrays.copyOf(days, size * 2);
+                rates = Arrays.copyOf(rates, size * 2);
+            }
+            ordered &= size == 0 || days[size - 1] < epochDay;
+            days[size] = epochDay;
+            rates[size++] = rate;
+        }
+
+        // sorts the rates by day, keeping the last added rate of a day
+        void sort() {
+            if (ordered) {
+                return;
+            }
+            long[] order = new long[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = ((long) days[i] << 32) | i;
+            }
+            Arrays.sort(order);
+            int[] sortedDays = new int[size];
+            double[] sortedRates = new double[size];
+            int sorted = 0;
+            for (long entry : order) {
+                int epochDay = (int) (entry >> 32);
+                if (sorted > 0 && sortedDays[sorted - 1] == epochDay) {
+                    sorted--;
+                }
+                sortedDays[sorted] = epochDay;
+                sortedRates[sorted++] = rates[(int) entry];
+            }
+            days = sortedDays;
+            rates = sortedRates;
+            size = sorted;
+            ordered = true;
+        }
+    }
+
+    int currencyCount() {
+        return codes.length;
+    }
+
+    /**
+     * Returns an estimate of the heap used by the rate arrays, assuming compressed references.
+     */
+    long estimatedBytes() {
+        // array headers are 16 bytes and the outer arrays hold one 4 byte reference per currency
+        long bytes = 3 * (16 + 4L * codes.length);
+        for (int c = 0; c < codes.length; c++) {
+            bytes += 16 + 4L * days[c].length;
+            bytes += 16 + 8L * rates[c].length;
+        }
+        return bytes;
+    }
+}
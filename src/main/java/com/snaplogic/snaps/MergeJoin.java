@@ -0,0 +1,255 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Joins two streams of documents sorted on a key, reading each once.
+ *
+ * <p>Only the documents of the right stream with the current key are kept, to be joined with
+ * each document of the left stream with that key. Keys are ordered by {@link #KEY_ORDER}. A
+ * null key matches no other key, so its documents are only kept by outer joins. A document whose
+ * key is out of order, or whose key cannot be evaluated, is passed to the handler and left
+ * out.</p>
+ *
+ * @param <T> the type of the documents
+ */
+final class MergeJoin<T> {
+
+    /**
+     * The documents each join type keeps besides the matched ones.
+     */
+    enum Type {
+        INNER(false, false),
+        LEFT_OUTER(true, false),
+        FULL_OUTER(true, true);
+
+        private final boolean keepsLeft;
+        private final boolean keepsRight;
+
+        Type(boolean keepsLeft, boolean keepsRight) {
+            this.keepsLeft = keepsLeft;
+            this.keepsRight = keepsRight;
+        }
+
+        boolean keepsLeft() {
+            return keepsLeft;
+        }
+
+        boolean keepsRight() {
+            return keepsRight;
+        }
+    }
+
+    /**
+     * Receives the joined documents, in the order of their keys.
+     */
+    interface Handler<T> {
+        void matched(T left, T right);
+
+        void unmatchedLeft(T left);
+
+        void unmatchedRight(T right);
+
+        void invalidKey(T document, RuntimeException e);
+
+        void outOfOrder(T document, Object key, Object previousKey);
+    }
+
+    /**
+     * Orders null first, then booleans, numbers by value whatever their type, strings, and
+     * other comparable values of the same class. Values of other classes are ordered by the name
+     * of their class.
+     */
+    static final Comparator<Object> KEY_ORDER = new Comparator<Object>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compare(Object left, Object right) {
+            int byRank = Integer.compare(rank(left), rank(right));
+            if (byRank != 0) {
+                return byRank;
+            }
+            if (left == null) {
+                return 0;
+            }
+            if (left instanceof Number) {
+                return compareNumbers((Number) left, (Number) right);
+            }
+            if (left.getClass() == right.getClass()) {
+                return ((Comparable<Object>) left).compareTo(right);
+            }
+            return left.getClass().getName().compareTo(right.getClass().getName());
+        }
+    };
+
+    private final Type type;
+    private final Function<? super T, Object> keyFunction;
+
+    /**
+     * @param type        the join type
+     * @param keyFunction returns the key of a document, which must be null or comparable
+     */
+    MergeJoin(Type type, Function<? super T, Object> keyFunction) {
+        this.type = type;
+        this.keyFunction = keyFunction;
+    }
+
+    /**
+     * Joins the documents of the left and right streams.
+     */
+    void join(Iterator<T> left, Iterator<T> right, Handler<T> handler) {
+        Cursor leftCursor = new Cursor(left, handler);
+        Cursor rightCursor = new Cursor(right, handler);
+        List<T> rightGroup = new ArrayList<>();
+        leftCursor.advance();
+        rightCursor.advance();
+        while (leftCursor.document != null || rightCursor.document != null) {
+            int order;
+            if (leftCursor.document == null) {
+                order = 1;
+            } else if (rightCursor.document == null) {
+                order = -1;
+            } else {
+                order = KEY_ORDER.compare(leftCursor.key, rightCursor.key);
+                // null keys match nothing, the left ones go first
+                if (order == 0 && leftCursor.key == null) {
+                    order = -1;
+                }
+            }
+            if (order < 0) {
+                if (type.keepsLeft()) {
+                    handler.unmatchedLeft(leftCursor.document);
+                }
+                leftCursor.advance();
+            } else if (order > 0) {
+                if (type.keepsRight()) {
+                    handler.unmatchedRight(rightCursor.document);
+                }
+                rightCursor.advance();
+            } else {
+                Object groupKey = rightCursor.key;
+                rightGroup.clear();
+                do {
+                    rightGroup.add(rightCursor.document);
+                    rightCursor.advance();
+                } while (rightCursor.document != null &&
+                        KEY_ORDER.compare(rightCursor.key, groupKey) == 0);
+                do {
+                    for (T rightDocument : rightGroup) {
+                        handler.matched(leftCursor.document, rightDocument);
+                    }
+                    leftCursor.advance();
+                } while (leftCursor.document != null &&
+                        KEY_ORDER.compare(leftCursor.key, groupKey) == 0);
+            }
+        }
+    }
+
+    private static int rank(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Boolean) {
+            return 1;
+        }
+        if (value instanceof Number) {
+            return 2;
+        }
+        if (value instanceof String) {
+            return 3;
+        }
+        return 4;
+    }
+
+    private static int compareNumbers(Number left, Number right) {
+        if (isIntegral(left) && isIntegral(right)) {
+            return Long.compare(left.longValue(), right.longValue());
+        }
+        if (!isFinite(left) || !isFinite(right)) {
+            return Double.compare(left.doubleValue(), right.doubleValue());
+        }
+        return toBigDecimal(left).compareTo(toBigDecimal(right));
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Long || number instanceof Integer ||
+                number instanceof Short || number instanceof Byte;
+    }
+
+    private static boolean isFinite(Number number) {
+        return !(number instanceof Double || number instanceof Float) ||
+                !(Double.isNaN(number.doubleValue()) || Double.isInfinite(number.doubleValue()));
+    }
+
+    private static BigDecimal toBigDecimal(Number number) {
+        if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        }
+        if (number instanceof BigInteger) {
+            return new BigDecimal((BigInteger) number);
+        }
+        if (isIntegral(number)) {
+            return BigDecimal.valueOf(number.longValue());
+        }
+        return new BigDecimal(number.doubleValue());
+    }
+
+    /**
+     * The current document of a stream and its key, skipping the documents that are out of
+     * order or without a valid key.
+     */
+    private final class Cursor {
+        private final Iterator<T> documents;
+        private final Handler<T> handler;
+        private T document;
+        private Object key;
+        private boolean started;
+
+        Cursor(Iterator<T> documents, Handler<T> handler) {
+            this.documents = documents;
+            this.handler = handler;
+        }
+
+        void advance() {
+            Object previousKey = key;
+            document = null;
+            while (documents.hasNext()) {
+                T next = documents.next();
+                Object nextKey;
+                try {
+                    nextKey = keyFunction.apply(next);
+                    if (nextKey != null && !(nextKey instanceof Comparable)) {
+                        throw new IllegalArgumentException(String.format(
+                                "Join key %s is not a boolean, number or string", nextKey));
+                    }
+                } catch (RuntimeException e) {
+                    handler.invalidKey(next, e);
+                    continue;
+                }
+                if (started && KEY_ORDER.compare(nextKey, previousKey) < 0) {
+                    handler.outOfOrder(next, nextKey, previousKey);
+                    continue;
+                }
+                started = true;
+                document = next;
+                key = nextKey;
+                return;
+            }
+        }
+    }
+}
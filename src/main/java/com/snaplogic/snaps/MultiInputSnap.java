@@ -0,0 +1,113 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.inject.Inject;
+import com.snaplogic.api.ExecutionException;
+import com.snaplogic.api.Snap;
+import com.snaplogic.snap.api.Document;
+import com.snaplogic.snap.api.InputViews;
+import com.snaplogic.snap.api.SimpleSnap;
+import com.snaplogic.snap.view.InputView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A base class for Snaps with several input views, which processes the documents of every input
+ * view as they arrive, however slowly the others deliver theirs.
+ *
+ * <p>Like with {@link SimpleSnap}, 'process' is called for every document the Snap receives,
+ * and always on the Snap's own thread. Each input view is read on a thread of its own, into a
+ * bounded queue, by a {@link FairInputDrain}: an input view whose documents are not processed
+ * fast enough waits, while the other ones keep flowing. Documents of the input views that have
+ * some waiting are processed in turn, as often as their weight says.</p>
+ *
+ * <p>'endOfInput' is called once for each input view, after all of its documents were processed,
+ * and 'execute' returns once it was called for every input view. A failure reading an input view
+ * fails 'execute' after the documents read before it were processed.</p>
+ *
+ * <p>This relies on the iterators {@link InputViews#getDocumentsFrom} returns being safe to use
+ * off the Snap's thread, each on a thread of its own: they are obtained on the Snap's thread,
+ * but only ever iterated by the reader of their input view. Documents are handed over to the
+ * Snap's thread through the queues, so 'process' and 'endOfInput' need no synchronization.</p>
+ */
+public abstract class MultiInputSnap implements Snap {
+    private static final int QUEUE_CAPACITY = 256;
+
+    @Inject
+    protected InputViews inputViews;
+
+    @Override
+    public void execute() throws ExecutionException {
+        processInputs();
+    }
+
+    /**
+     * Processes the documents of every input view, until all of them ended.
+     */
+    protected final void processInputs() throws ExecutionException {
+        final List<InputView> views = new ArrayList<>(inputViews.getAll());
+        // in order of name, so that turns do not depend on the order the views are listed in
+        Collections.sort(views, new Comparator<InputView>() {
+            @Override
+            public int compare(InputView left, InputView right) {
+                return left.getName().compareTo(right.getName());
+            }
+        });
+        List<Iterator<Document>> inputs = new ArrayList<>(views.size());
+        int[] weights = new int[views.size()];
+        for (int i = 0; i < views.size(); i++) {
+            inputs.add(inputViews.getDocumentsFrom(views.get(i)));
+            weights[i] = Math.max(weight(views.get(i).getName()), 1);
+        }
+        try (FairInputDrain<Document> drain =
+                     new FairInputDrain<>(inputs, weights, QUEUE_CAPACITY)) {
+            drain.drain(new FairInputDrain.Sink<Document>() {
+                @Override
+                public void accept(Document document, int input) {
+                    process(document, views.get(input).getName());
+                }
+
+                @Override
+                public void end(int input) {
+                    endOfInput(views.get(input).getName());
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e, "Interrupted while reading the input views")
+                    .withResolutionAsDefect();
+        }
+    }
+
+    /**
+     * Processes a document of an input view.
+     */
+    protected abstract void process(Document document, String inputViewName);
+
+    /**
+     * Called once every document of an input view was processed.
+     */
+    protected void endOfInput(String inputViewName) {
+    }
+
+    /**
+     * Returns the number of documents of the input view to process in turn with one document of
+     * an input view of weight 1, while both have documents waiting.
+     */
+    protected int weight(String inputViewName) {
+        return 1;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Counts the character n-grams of UTF-8 encoded bytes, of a length from 1 to 4.
+ *
+ * <p>Each distinct lower case code point gets a 16 bit id, and an n-gram is counted under the
+ * ids of its code points packed into a long, in a {@link CountTable}. Once that table would
+ * take more than its share of the memory budget, counting continues approximately in
+ * {@link HeavyHitters}, which only keeps the most frequent n-grams; without a number of n-grams
+ * to keep, exceeding the budget fails instead.</p>
+ *
+ * <p>The ids take their part of the budget first. Without a number of n-grams to keep, the table
+ * may take the rest; otherwise it only takes half of what the heap of the most frequent n-grams
+ * leaves, so that the sketch they switch to fits in the other half while the table is drained
+ * into it.</p>
+ */
+final class NGramCounter {
+    static final int MAX_LENGTH = 4;
+
+    private static final int ID_BITS = 16;
+    private static final int ID_MASK = (1 << ID_BITS) - 1;
+    // an n-gram of four ids of all ones would be the table's empty key
+    private static final int MAX_IDS = ID_MASK;
+    private static final int ASCII = 128;
+    private static final int DECODE_BUFFER_SIZE = 4096;
+    private static final int BYTES_PER_SLOT = 16;
+
+    private final int length;
+    private final long keyMask;
+    private final int topK;
+    private final long memoryBudget;
+    private final long heavyHittersBytes;
+    private final CharsetDecoder decoder = UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer chars = CharBuffer.allocate(DECODE_BUFFER_SIZE);
+    private final int[] asciiIds = new int[ASCII];
+    // id + 1 of each non-ASCII code point
+    private final CountTable ids = new CountTable();
+    private int[] codePoints = new int[ASCII];
+    private int idCount;
+    private int exactLimit;
+    private long window;
+    private int windowLength;
+    private long total;
+    private CountTable exact = new CountTable();
+    private HeavyHitters heavyHitters;
+
+    /**
+     * @param length       the number of characters of each n-gram
+     * @param topK         the number of most frequent n-grams to report, or 0 for all of them
+     * @param memoryBudget the number of bytes the counts may take
+     */
+    NGramCounter(int length, int topK, long memoryBudget) {
+        this.length = length;
+        this.keyMask = length == MAX_LENGTH ? -1L : (1L << (ID_BITS * length)) - 1;
+        this.topK = topK;
+        this.memoryBudget = memoryBudget;
+        this.heavyHittersBytes = topK == 0 ? 0 : HeavyHitters.bytesFor(topK);
+        Arrays.fill(asciiIds, -1);
+        this.exactLimit = exactLimit();
+    }
+
+    /**
+     * Counts the n-grams of the remaining bytes of the buffer.
+     *
+     * <p>Unless this is the end of the input, bytes of a character that continues past the
+     * buffer's limit are left remaining, and n-grams spanning buffers are counted once the next
+     * buffer is.</p>
+     *
+     * @param bytes      the bytes to count
+     * @param endOfInput whether no more bytes follow
+     */
+    void count(ByteBuffer bytes, boolean endOfInput) {
+        while (true) {
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            if (endOfInput && result.isUnderflow()) {
+                decoder.flush(chars);
+            }
+            countDecoded();
+            if (result.isUnderflow()) {
+                return;
+            }
+        }
+    }
+
+    private void countDecoded() {
+        chars.flip();
+        char[] array = chars.array();
+        int limit = chars.limit();
+        for (int i = 0; i < limit; ) {
+            int codePoint = Character.codePointAt(array, i, limit);
+            add(Character.toLowerCase(codePoint));
+            i += Character.charCount(codePoint);
+        }
+        chars.clear();
+    }
+
+    private void add(int codePoint) {
+        window = ((window << ID_BITS) | id(codePoint)) & keyMask;
+        if (windowLength < length) {
+            windowLength++;
+            if (windowLength < length) {
+                return;
+            }
+        }
+        total++;
+        if (heavyHitters != null) {
+            heavyHitters.add(window, 1);
+        } else if (exact.size() < exactLimit || exact.get(window) > 0) {
+            exact.increment(window);
+        } else {
+            switchToHeavyHitters();
+            heavyHitters.add(window, 1);
+        }
+    }
+
+    private int id(int codePoint) {
+        if (codePoint < ASCII) {
+            int id = asciiIds[codePoint];
+            if (id < 0) {
+                id = newId(codePoint);
+                asciiIds[codePoint] = id;
+            }
+            return id;
+        }
+        int id = (int) ids.get(codePoint) - 1;
+        if (id < 0) {
+            id = newId(codePoint);
+            ids.put(codePoint, id + 1);
+            exactLimit = exactLimit();
+        }
+        return id;
+    }
+
+    private int newId(int codePoint) {
+        if (idCount == MAX_IDS) {
+            throw new IllegalArgumentException(String.format(
+                    "Input has more than %d distinct characters", MAX_IDS));
+        }
+        if (idCount == codePoints.length) {
+            codePoints = Arrays.copyOf(codePoints, codePoints.length * 2);
+            exactLimit = exactLimit();
+        }
+        codePoints[idCount] = codePoint;
+        return idCount++;
+    }
+
+    private void switchToHeavyHitters() {
+        if (topK == 0) {
+            throw new IllegalStateException(String.format(
+                    "Counting every %d-gram takes more than the memory budget of %d bytes",
+                    length, memoryBudget));
+        }
+        // the exact table and its sorted keys are only released once they are in the sketch
+        long exactBytes = exact.bytes() + 8L * exact.size();
+        heavyHitters = new HeavyHitters(topK,
+                memoryBudget - idBytes() - heavyHittersBytes - exactBytes);
+        for (long key : exact.sortedKeys()) {
+            heavyHitters.add(key, exact.get(key));
+        }
+        exact = null;
+    }
+
+    // the number of keys a table within its share of the budget holds before it has to grow
+    private int exactLimit() {
+        long available = memoryBudget - idBytes() - heavyHittersBytes;
+        long exactBytes = topK == 0 ? available : available / 2;
+        long slots = Long.highestOneBit(Math.max(exactBytes / BYTES_PER_SLOT, 1));
+        return (int) Math.min(slots / 2, 1 << 29);
+    }
+
+    private long idBytes() {
+        return ids.bytes() + 4L * (asciiIds.length + codePoints.length);
+    }
+
+    /**
+     * Returns the number of n-grams counted.
+     */
+    long total() {
+        return total;
+    }
+
+    /**
+     * Returns whether the counts are estimates, because the exact counts exceeded the memory
+     * budget. Estimates are never below the actual counts.
+     */
+    boolean isApproximate() {
+        return heavyHitters != null;
+    }
+
+    /**
+     * Returns the counts of the most frequent n-grams, or of all of them when no number of
+     * n-grams to report was given, in descending order of count.
+     */
+    Map<String, Long> mostFrequent() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>();
+        if (heavyHitters != null) {
+            for (int i = 0; i < heavyHitters.size(); i++) {
+                entries.add(entry(heavyHitters.key(i), heavyHitters.count(i)));
+            }
+        } else {
+            for (long key : exact.sortedKeys()) {
+                entries.add(entry(key, exact.get(key)));
+            }
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> left, Map.Entry<String, Long> right) {
+                int byCount = Long.compare(right.getValue(), left.getValue());
+                return byCount != 0 ? byCount : left.getKey().compareTo(right.getKey());
+            }
+        });
+        int size = topK == 0 ? entries.size() : Math.min(topK, entries.size());
+        Map<String, Long> mostFrequent = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : entries.subList(0, size)) {
+            mostFrequent.put(entry.getKey(), entry.getValue());
+        }
+        return mostFrequent;
+    }
+
+    private Map.Entry<String, Long> entry(long key, long count) {
+        StringBuilder nGram = new StringBuilder(2 * length);
+        for (int i = length - 1; i >= 0; i--) {
+            int id = (int) ((key >>> (ID_BITS * i)) & ID_MASK);
+            nGram.appendCodePoint(codePoints[id]);
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(nGram.toString(), count);
+    }
+}
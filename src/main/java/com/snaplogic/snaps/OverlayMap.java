@@ -0,0 +1,358 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A map over the data of a document that is changed without changing, or copying, the data.
+ *
+ * <p>Keys put or removed are kept apart from the wrapped map, and keys it does not have are
+ * added after its own. An object of the wrapped map is itself read as an overlay, and an array
+ * as a list that copies the array once it is changed, so changes below the top level are kept
+ * apart too, without copying anything that is only read. The wrapped map must not change while
+ * the overlay is in use.</p>
+ *
+ * <p>The overlays of nested values are created once, and shared by the threads reading them, so
+ * an overlay that is no longer changed, such as one written to an output view, can be read and
+ * serialized by several threads at once. Changing it while it is read needs the same
+ * synchronization as any map.</p>
+ */
+final class OverlayMap extends AbstractMap<String, Object> {
+    // marks a key of the wrapped map as removed
+    private static final Object REMOVED = new Object();
+
+    private final Map<String, Object> base;
+    // the values of keys of the wrapped map that were put or removed
+    private final Map<String, Object> overrides = new HashMap<>();
+    // the overlays of the objects and arrays of the wrapped map that were read, created once
+    // one is read
+    private volatile ConcurrentMap<String, Object> nested;
+    private final Map<String, Object> added = new LinkedHashMap<>();
+    private int removed;
+    private Set<Entry<String, Object>> entrySet;
+
+    OverlayMap(Map<String, Object> base) {
+        this.base = base;
+    }
+
+    @Override
+    public int size() {
+        return base.size() - removed + added.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (base.containsKey(key)) {
+            return overrides.get(key) != REMOVED;
+        }
+        return added.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        Object value = overrides.get(key);
+        if (value != null || overrides.containsKey(key)) {
+            return value == REMOVED ? null : value;
+        }
+        value = baseValue(key);
+        if (value != null || base.containsKey(key)) {
+            return value;
+        }
+        return added.get(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        if (!base.containsKey(key)) {
+            return added.put(key, value);
+        }
+        Object previous = current(key);
+        if (overrides.put(key, value) == REMOVED) {
+            removed--;
+        }
+        if (nested != null) {
+            nested.remove(key);
+        }
+        return previous;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (!base.containsKey(key)) {
+            return added.remove(key);
+        }
+        Object previous = current(key);
+        if (overrides.put((String) key, REMOVED) != REMOVED) {
+            removed++;
+        }
+        if (nested != null) {
+            nested.remove(key);
+        }
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        for (String key : base.keySet()) {
+            overrides.put(key, REMOVED);
+        }
+        removed = base.size();
+        added.clear();
+        nested = null;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public int size() {
+                    return OverlayMap.this.size();
+                }
+
+                @Override
+                public void clear() {
+                    OverlayMap.this.clear();
+                }
+
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new EntryIterator();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    // the value of a key of the wrapped map
+    private Object current(Object key) {
+        Object value = overrides.get(key);
+        if (value == null && !overrides.containsKey(key)) {
+            return baseValue(key);
+        }
+        return value == REMOVED ? null : value;
+    }
+
+    // the value of the wrapped map, or the overlay of it if it is an object or array
+    private Object baseValue(Object key) {
+        Object value = base.get(key);
+        if (!isNested(value)) {
+            return value;
+        }
+        ConcurrentMap<String, Object> overlays = nested();
+        Object overlay = overlays.get(key);
+        if (overlay == null) {
+            // threads reading the same value at once all get the overlay of the first
+            Object created = overlay(value);
+            overlay = overlays.putIfAbsent((String) key, created);
+            if (overlay == null) {
+                overlay = created;
+            }
+        }
+        return overlay;
+    }
+
+    // strings, numbers and booleans are ruled out first, as checking a class is cheaper than
+    // checking an interface the class does not implement
+    private static boolean isNested(Object value) {
+        if (value == null || value instanceof String || value instanceof Number
+                || value instanceof Boolean) {
+            return false;
+        }
+        return value instanceof Map || value instanceof List;
+    }
+
+    private ConcurrentMap<String, Object> nested() {
+        ConcurrentMap<String, Object> overlays = nested;
+        if (overlays == null) {
+            synchronized (this) {
+                if (nested == null) {
+                    nested = new ConcurrentHashMap<>();
+                }
+                overlays = nested;
+            }
+        }
+        return overlays;
+    }
+
+    /**
+     * Returns an overlay of an object, a list over an array that copies it once changed, or
+     * else the value itself.
+     *
+     * <p>A value shared by several documents, such as one joined with several others, is put
+     * into each of them as an overlay, so that changing it in one leaves the others
+     * unchanged.</p>
+     */
+    @SuppressWarnings("unchecked")
+    static Object overlay(Object value) {
+        if (value instanceof Map) {
+            return new OverlayMap((Map<String, Object>) value);
+        }
+        if (value instanceof List) {
+            return new OverlayList((List<?>) value);
+        }
+        return value;
+    }
+
+    /**
+     * Iterates over the keys of the wrapped map that were not removed, then over the added keys.
+     */
+    private final class EntryIterator implements Iterator<Entry<String, Object>> {
+        private final Iterator<String> baseKeys = base.keySet().iterator();
+        private final Iterator<Entry<String, Object>> addedEntries = added.entrySet().iterator();
+        private String nextBaseKey;
+        private String lastBaseKey;
+        private boolean lastAdded;
+
+        @Override
+        public boolean hasNext() {
+            while (nextBaseKey == null && baseKeys.hasNext()) {
+                String key = baseKeys.next();
+                if (overrides.get(key) != REMOVED) {
+                    nextBaseKey = key;
+                }
+            }
+            return nextBaseKey != null || addedEntries.hasNext();
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (nextBaseKey == null) {
+                lastBaseKey = null;
+                lastAdded = true;
+                return addedEntries.next();
+            }
+            final String key = nextBaseKey;
+            nextBaseKey = null;
+            lastBaseKey = key;
+            lastAdded = false;
+            return new SimpleEntry<String, Object>(key, current(key)) {
+                @Override
+                public Object setValue(Object value) {
+                    super.setValue(value);
+                    return put(key, value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (lastAdded) {
+                addedEntries.remove();
+                lastAdded = false;
+            } else if (lastBaseKey != null) {
+                OverlayMap.this.remove(lastBaseKey);
+                lastBaseKey = null;
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    /**
+     * A list over an array of the wrapped map, which reads its objects and arrays as overlays
+     * and copies it once it is changed.
+     */
+    private static final class OverlayList extends AbstractList<Object> {
+        private final List<?> base;
+        // the overlays of the objects and arrays of the wrapped array that were read, created
+        // once one is read
+        private volatile AtomicReferenceArray<Object> nested;
+        private List<Object> copy;
+
+        private OverlayList(List<?> base) {
+            this.base = base;
+        }
+
+        @Override
+        public int size() {
+            return copy != null ? copy.size() : base.size();
+        }
+
+        @Override
+        public Object get(int index) {
+            if (copy != null) {
+                return copy.get(index);
+            }
+            Object value = base.get(index);
+            if (!isNested(value)) {
+                return value;
+            }
+            AtomicReferenceArray<Object> overlays = nested();
+            Object overlay = overlays.get(index);
+            if (overlay == null) {
+                overlays.compareAndSet(index, null, overlay(value));
+                overlay = overlays.get(index);
+            }
+            return overlay;
+        }
+
+        @Override
+        public Object set(int index, Object element) {
+            return copy().set(index, element);
+        }
+
+        @Override
+        public void add(int index, Object element) {
+            copy().add(index, element);
+            modCount++;
+        }
+
+        @Override
+        public Object remove(int index) {
+            Object previous = copy().remove(index);
+            modCount++;
+            return previous;
+        }
+
+        private AtomicReferenceArray<Object> nested() {
+            AtomicReferenceArray<Object> overlays = nested;
+            if (overlays == null) {
+                synchronized (this) {
+                    if (nested == null) {
+                        nested = new AtomicReferenceArray<>(base.size());
+                    }
+                    overlays = nested;
+                }
+            }
+            return overlays;
+        }
+
+        // the overlays read so far are kept, so changes made through them are not lost
+        private List<Object> copy() {
+            if (copy == null) {
+                List<Object> elements = new ArrayList<>(base.size());
+                for (int i = 0; i < base.size(); i++) {
+                    elements.add(get(i));
+                }
+                copy = elements;
+            }
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the characters of a file in parallel with a {@link ForkJoinPool}.
+ *
+ * <p>The file is split into chunks that start at the first byte of a UTF-8 character, so every
+ * character is counted by exactly one chunk. Each chunk is memory mapped and counted into its
+ * own {@link CharacterHistogram}, and the histograms are merged as the tasks join.</p>
+ */
+final class ParallelCharacterCount extends RecursiveTask<CharacterHistogram> {
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+    // well below the 2 GiB a single mapping can hold
+    private static final long MAX_CHUNK_SIZE = 256 * 1024 * 1024;
+    // a few chunks per thread even out chunks that count slower, such as non-ASCII text
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int MAX_CONTINUATION_BYTES = 3;
+
+    private final FileChannel file;
+    private final long[] boundaries;
+    private final int from;
+    private final int to;
+    private final boolean countCodePoints;
+
+    private ParallelCharacterCount(FileChannel file, long[] boundaries, int from, int to,
+            boolean countCodePoints) {
+        this.file = file;
+        this.boundaries = boundaries;
+        this.from = from;
+        this.to = to;
+        this.countCodePoints = countCodePoints;
+    }
+
+    /**
+     * Counts the characters from the current position of the file to its end.
+     *
+     * @param countCodePoints whether the histogram counts non-ASCII code points as well
+     */
+    static CharacterHistogram count(FileChannel file, ForkJoinPool pool, boolean countCodePoints)
+            throws IOException {
+        long size = file.size() - file.position();
+        long chunkSize = size / ((long) pool.getParallelism() * CHUNKS_PER_THREAD);
+        return count(file, pool, Math.min(Math.max(chunkSize, MIN_CHUNK_SIZE), MAX_CHUNK_SIZE),
+                countCodePoints);
+    }
+
+    static CharacterHistogram count(FileChannel file, ForkJoinPool pool, long chunkSize,
+            boolean countCodePoints) throws IOException {
+        long[] boundaries = split(file, chunkSize);
+        try {
+            return pool.invoke(new ParallelCharacterCount(file, boundaries, 0,
+                    boundaries.length - 1, countCodePoints));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns the offsets at which the chunks of the file start, followed by its size.
+     */
+    static long[] split(FileChannel file, long chunkSize) throws IOException {
+        long start = file.position();
+        long size = file.size();
+        int chunks = (int) Math.max(1, (size - start + chunkSize - 1) / chunkSize);
+        long[] boundaries = new long[chunks + 1];
+        boundaries[0] = start;
+        ByteBuffer bytes = ByteBuffer.allocate(MAX_CONTINUATION_BYTES);
+        for (int i = 1; i < chunks; i++) {
+            long boundary = Math.max(start + i * chunkSize, boundaries[i - 1]);
+            bytes.clear();
+            file.read(bytes, boundary);
+            // move past the continuation bytes of a character that started in the previous
+            // chunk; in malformed input any boundary will do
+            int skip = 0;
+            while (skip < bytes.position() && (bytes.get(skip) & 0xC0) == 0x80) {
+                skip++;
+            }
+            boundaries[i] = Math.min(boundary + skip, size);
+        }
+        boundaries[chunks] = size;
+        return boundaries;
+    }
+
+    @Override
+    protected CharacterHistogram compute() {
+        if (to - from == 1) {
+            return countChunk();
+        }
+        int middle = (from + to) >>> 1;
+        ParallelCharacterCount left =
+                new ParallelCharacterCount(file, boundaries, from, middle, countCodePoints);
+        left.fork();
+        CharacterHistogram histogram = new ParallelCharacterCount(file, boundaries, middle, to,
+                countCodePoints).compute();
+        histogram.add(left.join());
+        return histogram;
+    }
+
+    private CharacterHistogram countChunk() {
+        CharacterHistogram histogram = new CharacterHistogram(countCodePoints);
+        try {
+            MappedByteBuffer chunk = file.map(FileChannel.MapMode.READ_ONLY, boundaries[from],
+                    boundaries[to] - boundaries[from]);
+            histogram.count(chunk, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Generates a range of documents from a {@link DocumentTemplate} on worker threads, for a single
+ * thread to write them.
+ *
+ * <p>The range is split into batches, dealt to the workers in turn. In order, each worker puts
+ * its batches in a queue of its own, and the queues are taken from in the same turn, so the
+ * batches come out in the order of the range without being buffered. Out of order, the workers
+ * share one queue. The queues are bounded, so workers wait while the writer falls behind.</p>
+ */
+final class ParallelDocumentGeneration implements Closeable {
+    static final int BATCH_SIZE = 256;
+    private static final int BATCHES_PER_WORKER = 4;
+    // put by each worker once it has no more batches
+    private static final List<Object> END = new ArrayList<>(0);
+
+    private final ExecutorService executor;
+    private final List<BlockingQueue<List<Object>>> queues = new ArrayList<>();
+    private final int workers;
+    private final boolean ordered;
+    private volatile Throwable failure;
+    private int nextQueue;
+    private int endedWorkers;
+
+    /**
+     * @param template the template of the documents
+     * @param start    the index of the first document
+     * @param end      the index after the last document
+     * @param workers  the number of worker threads
+     * @param ordered  whether batches are returned in the order of the range
+     */
+    ParallelDocumentGeneration(final DocumentTemplate template, final long start,
+            final long end, final int workers, boolean ordered) {
+        this.workers = workers;
+        this.ordered = ordered;
+        int queueCount = ordered ? workers : 1;
+        for (int i = 0; i < queueCount; i++) {
+            queues.add(new ArrayBlockingQueue<List<Object>>(
+                    BATCHES_PER_WORKER * workers / queueCount));
+        }
+        executor = Executors.newFixedThreadPool(workers, new ThreadFactoryBuilder()
+                .setNameFormat("doc-generator-%d")
+                .setDaemon(true)
+                .build());
+        final long batches = (end - start + BATCH_SIZE - 1) / BATCH_SIZE;
+        for (int i = 0; i < workers; i++) {
+            final int worker = i;
+            final BlockingQueue<List<Object>> queue = queues.get(ordered ? worker : 0);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (long batch = worker; batch < batches; batch += workers) {
+                            long from = start + batch * BATCH_SIZE;
+                            long to = Math.min(end, from + BATCH_SIZE);
+                            List<Object> documents = new ArrayList<>((int) (to - from));
+                            for (long index = from; index < to; index++) {
+                                documents.add(template.generate(index));
+                            }
+                            queue.put(documents);
+                        }
+                    } catch (InterruptedException e) {
+                        // closed before every document was taken; the end is not put either
+                        Thread.currentThread().interrupt();
+                    } catch (Throwable e) {
+                        failure = e;
+                    } finally {
+                        // without its end, the writer would wait for this worker forever
+                        try {
+                            queue.put(END);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the next batch of documents, or null once every document was returned.
+     *
+     * @throws RuntimeException the exception a worker failed with; an {@link Error} is rethrown
+     *                          as is
+     */
+    List<Object> next() throws InterruptedException {
+        while (true) {
+            List<Object> batch = queues.get(nextQueue).take();
+            if (batch != END) {
+                if (ordered) {
+                    nextQueue = (nextQueue + 1) % workers;
+                }
+                return batch;
+            }
+            if (failure != null) {
+                throw Throwables.propagate(failure);
+            }
+            // in order, the batches of the other workers all came before this worker's end
+            if (ordered || ++endedWorkers == workers) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
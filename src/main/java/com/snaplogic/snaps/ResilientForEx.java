@@ -0,0 +1,335 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.snaplogic.snaps.CurrencyConverter.ForEx;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link ForEx} decorator that bounds the time spent waiting for exchange rates.
+ *
+ * <p>Each lookup waits at most a fixed timeout for the underlying {@link ForEx}. After a number
+ * of consecutive failed or timed out lookups the circuit opens and lookups stop calling the
+ * underlying {@link ForEx} until the reset time has passed; then a single lookup probes whether
+ * it has recovered.</p>
+ *
+ * <p>While lookups fail, the last rates successfully looked up for a currency are returned
+ * instead, marked with a {@value #STALE} entry. A lookup that times out keeps running in the
+ * background and refreshes those rates when it completes. Lookups run on a bounded pool of
+ * threads, and once its threads and queue are all taken, further lookups fail at once. Bulk
+ * lookups leave out the currencies of which no rates are known, so that only their documents
+ * fail.</p>
+ *
+ * <p>Asynchronous lookups apply the same timeout to the future of the underlying {@link ForEx}
+ * without blocking the caller: a scheduled task completes the lookup with the last known rates,
+ * or the failure, once the timeout has passed.</p>
+ */
+public class ResilientForEx implements ForEx {
+    static final String STALE = "stale";
+
+    private static final Logger log = LoggerFactory.getLogger(ResilientForEx.class);
+    private static final int LOOKUP_THREADS = 8;
+    private static final int LOOKUP_QUEUE_SIZE = 64;
+    // shared by all instances; lookups that timed out keep running on it, so once its threads
+    // and queue are taken up by a slow service, further lookups fail at once rather than
+    // starting more threads
+    private static final ExecutorService LOOKUP_EXECUTOR = newLookupExecutor();
+    private static final ScheduledThreadPoolExecutor TIMEOUT_SCHEDULER = newTimeoutScheduler();
+
+    private final ForEx delegate;
+    private final long timeoutNanos;
+    private final int failureThreshold;
+    private final long resetNanos;
+    private final Ticker ticker;
+    private final ExecutorService lookupExecutor;
+    private final ConcurrentMap<String, Map<String, Object>> lastKnownGood =
+            new ConcurrentHashMap<>();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private volatile boolean open;
+    private volatile long openedAt;
+
+    public ResilientForEx(ForEx delegate, long timeout, int failureThreshold, long resetTime,
+            TimeUnit unit) {
+        this(delegate, timeout, failureThreshold, resetTime, unit, Ticker.systemTicker());
+    }
+
+    ResilientForEx(ForEx delegate, long timeout, int failureThreshold, long resetTime,
+            TimeUnit unit, Ticker ticker) {
+        this(delegate, timeout, failureThreshold, resetTime, unit, ticker, LOOKUP_EXECUTOR);
+    }
+
+    ResilientForEx(ForEx delegate, long timeout, int failureThreshold, long resetTime,
+            TimeUnit unit, Ticker ticker, ExecutorService lookupExecutor) {
+        this.delegate = delegate;
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.failureThreshold = failureThreshold;
+        this.resetNanos = unit.toNanos(resetTime);
+        this.ticker = ticker;
+        this.lookupExecutor = lookupExecutor;
+    }
+
+    @Override
+    public Map<String, Object> getExchangeRates(final String currencyCode) {
+        if (!allowCall()) {
+            return stale(currencyCode, null);
+        }
+        try {
+            return call(new Callable<Map<String, Object>>() {
+                @Override
+                public Map<String, Object> call() {
+                    Map<String, Object> rates = delegate.getExchangeRates(currencyCode);
+                    remember(currencyCode, rates);
+                    return rates;
+                }
+            });
+        } catch (RuntimeException e) {
+            return stale(currencyCode, e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> getExchangeRatesAsync(
+            final String currencyCode) {
+        final CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+        if (!allowCall()) {
+            completeStale(result, currencyCode, null);
+            return result;
+        }
+        CompletableFuture<Map<String, Object>> lookup;
+        try {
+            lookup = delegate.getExchangeRatesAsync(currencyCode);
+        } catch (RuntimeException e) {
+            recordFailure();
+            completeStale(result, currencyCode, e);
+            return result;
+        }
+
+        // the lookup and its timeout race; whichever comes first settles the result
+        final AtomicBoolean settled = new AtomicBoolean();
+        final ScheduledFuture<?> timeout = TIMEOUT_SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (settled.compareAndSet(false, true)) {
+                    // the lookup is left running so that it refreshes the last known rates
+                    recordFailure();
+                    completeStale(result, currencyCode, timeoutFailure(null));
+                }
+            }
+        }, timeoutNanos, TimeUnit.NANOSECONDS);
+        lookup.whenComplete(new BiConsumer<Map<String, Object>, Throwable>() {
+            @Override
+            public void accept(Map<String, Object> rates, Throwable failure) {
+                timeout.cancel(false);
+                if (failure == null) {
+                    remember(currencyCode, rates);
+                }
+                if (!settled.compareAndSet(false, true)) {
+                    return;
+                }
+                if (failure == null) {
+                    recordSuccess();
+                    result.complete(rates);
+                } else {
+                    recordFailure();
+                    completeStale(result, currencyCode, lookupFailure(failure));
+                }
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public Map<String, Map<String, Object>> getAllExchangeRates(
+            final Set<String> currencyCodes) {
+        RuntimeException failure = null;
+        if (allowCall()) {
+            try {
+                return call(new Callable<Map<String, Map<String, Object>>>() {
+                    @Override
+                    public Map<String, Map<String, Object>> call() {
+                        Map<String, Map<String, Object>> rates =
+                                delegate.getAllExchangeRates(currencyCodes);
+                        for (Map.Entry<String, Map<String, Object>> entry : rates.entrySet()) {
+                            remember(entry.getKey(), entry.getValue());
+                        }
+                        return rates;
+                    }
+                });
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+        Map<String, Map<String, Object>> rates = new LinkedHashMap<>();
+        for (String currencyCode : currencyCodes) {
+            if (lastKnownGood.containsKey(currencyCode)) {
+                rates.put(currencyCode, stale(currencyCode, failure));
+            } else {
+                log.warn("No exchange rates of {} are known", currencyCode, failure);
+            }
+        }
+        return rates;
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+
+    private boolean allowCall() {
+        if (!isOpen()) {
+            return true;
+        }
+        // once the reset time has passed, a single call probes whether the service recovered
+        return ticker.read() - openedAt >= resetNanos && probing.compareAndSet(false, true);
+    }
+
+    private <T> T call(Callable<T> lookup) {
+        Future<T> future;
+        try {
+            future = lookupExecutor.submit(lookup);
+        } catch (RejectedExecutionException e) {
+            // as many lookups are still running as the executor takes
+            recordFailure();
+            throw new IllegalStateException("Too many exchange rate lookups are still running",
+                    e);
+        }
+        try {
+            T result = future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+            recordSuccess();
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            probing.set(false);
+            throw new IllegalStateException("Interrupted while looking up exchange rates", e);
+        } catch (TimeoutException e) {
+            // the lookup is left running so that it refreshes the last known rates
+            recordFailure();
+            throw timeoutFailure(e);
+        } catch (ExecutionException e) {
+            recordFailure();
+            throw lookupFailure(e.getCause());
+        }
+    }
+
+    private RuntimeException timeoutFailure(TimeoutException cause) {
+        return new IllegalStateException(String.format(
+                "Exchange rate lookup took longer than %d ms",
+                TimeUnit.NANOSECONDS.toMillis(timeoutNanos)), cause);
+    }
+
+    private static RuntimeException lookupFailure(Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if (failure instanceof RuntimeException) {
+            return (RuntimeException) failure;
+        }
+        return new IllegalStateException("Exchange rate lookup failed", failure);
+    }
+
+    private void recordSuccess() {
+        consecutiveFailures.set(0);
+        open = false;
+        probing.set(false);
+    }
+
+    private void recordFailure() {
+        int failures = consecutiveFailures.incrementAndGet();
+        // a failed probe keeps the circuit open for another reset time
+        if (probing.getAndSet(false) || failures >= failureThreshold) {
+            if (!open) {
+                log.warn("Exchange rate lookups failed {} times in a row, pausing them for {} ms",
+                        failures, TimeUnit.NANOSECONDS.toMillis(resetNanos));
+            }
+            openedAt = ticker.read();
+            open = true;
+        }
+    }
+
+    private void remember(String currencyCode, Map<String, Object> rates) {
+        if (rates != null) {
+            lastKnownGood.put(currencyCode, rates);
+        }
+    }
+
+    private void completeStale(CompletableFuture<Map<String, Object>> result,
+            String currencyCode, RuntimeException failure) {
+        try {
+            result.complete(stale(currencyCode, failure));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private Map<String, Object> stale(String currencyCode, RuntimeException failure) {
+        Map<String, Object> rates = lastKnownGood.get(currencyCode);
+        if (rates == null) {
+            if (failure != null) {
+                throw failure;
+            }
+            throw new IllegalStateException(String.format(
+                    "Exchange rate lookups are paused and no rates of %s are known",
+                    currencyCode));
+        }
+        Map<String, Object> staleRates = new LinkedHashMap<>(rates);
+        staleRates.put(STALE, true);
+        return staleRates;
+    }
+
+    private static ExecutorService newLookupExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(LOOKUP_THREADS, LOOKUP_THREADS,
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(LOOKUP_QUEUE_SIZE),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("forex-resilient-lookup-%d")
+                        .setDaemon(true)
+                        .build(),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ScheduledThreadPoolExecutor newTimeoutScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("forex-timeout-%d")
+                        .setDaemon(true)
+                        .build());
+        // most lookups complete in time, so their timeouts are dropped rather than kept queued
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Appends documents to numbered segment files, serialized by the given mapper and encoded by the
+ * given factory, such as Smile.
+ *
+ * <p>Each segment is written by one generator, through a reused direct buffer drained into a
+ * {@link FileChannel}, so a segment can be read back as a sequence of root values. Writes are
+ * group committed: the channel is only forced after a number of documents or an interval,
+ * whichever comes first, and when a segment is closed. Both are checked as documents are
+ * written, so documents written before a pause are only forced by the next write or by closing
+ * the writer. A segment is closed once it reaches the segment size, and the next document starts
+ * a new one.</p>
+ */
+final class SegmentWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final Path directory;
+    private final String prefix;
+    private final long segmentBytes;
+    private final int commitDocuments;
+    private final long commitNanos;
+    private final JsonFactory factory;
+    private final ObjectMapper mapper;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final OutputStream bufferStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int chunk = Math.min(length, buffer.remaining());
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+    };
+    private FileChannel channel;
+    private JsonGenerator generator;
+    private int segments;
+    private long documents;
+    private long commits;
+    private long bytesWritten;
+    private int uncommittedDocuments;
+    private long lastCommitNanos;
+
+    /**
+     * @param directory       the directory of the segment files
+     * @param prefix          the start of the segment file names
+     * @param segmentBytes    the size at which a segment is closed
+     * @param commitDocuments the number of documents after which writes are forced to disk,
+     *                        or 0 to not force them by count
+     * @param commitNanos     the nanoseconds after which writes are forced to disk, or 0 to not
+     *                        force them by time
+     * @param factory         the encoding of the segment files
+     * @param mapper          the mapper serializing the documents, with its modules and features
+     */
+    SegmentWriter(Path directory, String prefix, long segmentBytes, int commitDocuments,
+            long commitNanos, JsonFactory factory, ObjectMapper mapper) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentBytes = segmentBytes;
+        this.commitDocuments = commitDocuments;
+        this.commitNanos = commitNanos;
+        this.factory = factory;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Appends a document, and forces it to disk with the documents before it when a commit is
+     * due.
+     */
+    void write(Object document) throws IOException {
+        if (generator == null) {
+            openSegment();
+        }
+        generator.writeObject(document);
+        documents++;
+        uncommittedDocuments++;
+        // the generator's own buffer is not counted, so segments may exceed the size slightly
+        if (channel.position() + buffer.position() >= segmentBytes) {
+            closeSegment();
+        } else if ((commitDocuments > 0 && uncommittedDocuments >= commitDocuments)
+                || (commitNanos > 0 && System.nanoTime() - lastCommitNanos >= commitNanos)) {
+            commit();
+        }
+    }
+
+    /**
+     * Returns the path of the segment file with the given number.
+     */
+    Path segment(int number) {
+        return directory.resolve(String.format("%s-%06d.smile", prefix, number));
+    }
+
+    /**
+     * Returns the number of segment files opened.
+     */
+    int segments() {
+        return segments;
+    }
+
+    /**
+     * Returns the number of documents written.
+     */
+    long documents() {
+        return documents;
+    }
+
+    /**
+     * Returns the number of times writes were forced to disk.
+     */
+    long commits() {
+        return commits;
+    }
+
+    /**
+     * Returns the number of bytes written to the segment files.
+     */
+    long bytesWritten() {
+        return bytesWritten;
+    }
+
+    private void openSegment() throws IOException {
+        channel = FileChannel.open(segment(segments++), CREATE_NEW, WRITE);
+        generator = factory.createGenerator(bufferStream);
+        generator.setCodec(mapper);
+        lastCommitNanos = System.nanoTime();
+    }
+
+    private void commit() throws IOException {
+        generator.flush();
+        force();
+    }
+
+    private void force() throws IOException {
+        drain();
+        channel.force(false);
+        commits++;
+        uncommittedDocuments = 0;
+        lastCommitNanos = System.nanoTime();
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void closeSegment() throws IOException {
+        try {
+            // flushes what the generator buffered into the buffer
+            generator.close();
+            force();
+        } finally {
+            generator = null;
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Forces the documents written to disk and closes the current segment.
+     */
+    @Override
+    public void close() throws IOException {
+        if (generator != null) {
+            closeSegment();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+/**
+ * Measures the rate of events over a sliding window of fixed length slots.
+ *
+ * <p>Events are counted in a ring of slots, each covering a fixed number of nanoseconds since
+ * the first event. Slots that pass without events are cleared as time moves on, so the rate
+ * over the window only counts the events of its last slots. The most events counted in a single
+ * completed slot are kept as the peak.</p>
+ */
+final class SlidingWindowRate {
+    private final long[] slots;
+    private final long slotNanos;
+    private long originNanos;
+    private long currentSlot = -1;
+    private long peak;
+
+    /**
+     * @param slotCount the number of slots of the window
+     * @param slotNanos the nanoseconds each slot covers
+     */
+    SlidingWindowRate(int slotCount, long slotNanos) {
+        this.slots = new long[slotCount];
+        this.slotNanos = slotNanos;
+    }
+
+    /**
+     * Records an event at the given time.
+     *
+     * @param nanos the time of the event, as of {@link System#nanoTime()}
+     */
+    void record(long nanos) {
+        if (currentSlot < 0) {
+            originNanos = nanos;
+            currentSlot = 0;
+        }
+        advance(nanos);
+        slots[(int) (currentSlot % slots.length)]++;
+    }
+
+    /**
+     * Returns the events per second over the slots of the window up to the given time,
+     * including the slot in progress.
+     */
+    double rate(long nanos) {
+        if (currentSlot < 0) {
+            return 0;
+        }
+        advance(nanos);
+        long events = 0;
+        for (long slot : slots) {
+            events += slot;
+        }
+        // the window is shorter than its slots until they have all passed
+        long elapsed = Math.max(nanos - originNanos, 1);
+        long covered = Math.min(elapsed,
+                (slots.length - 1) * slotNanos + (elapsed - currentSlot * slotNanos));
+        return events * 1e9 / covered;
+    }
+
+    /**
+     * Returns the most events per second counted in a single completed slot.
+     */
+    double peakRate() {
+        return peak * 1e9 / slotNanos;
+    }
+
+    private void advance(long nanos) {
+        long slot = (nanos - originNanos) / slotNanos;
+        if (slot <= currentSlot) {
+            return;
+        }
+        peak = Math.max(peak, slots[(int) (currentSlot % slots.length)]);
+        // clears the slots passed since, at most once each
+        for (long passed = currentSlot + 1; passed <= Math.min(slot, currentSlot + slots.length);
+             passed++) {
+            slots[(int) (passed % slots.length)] = 0;
+        }
+        currentSlot = slot;
+    }
+}
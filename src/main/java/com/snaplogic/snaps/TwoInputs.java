@@ -10,16 +10,21 @@
  */
 package com.snaplogic.snaps;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 import com.snaplogic.api.ConfigurationException;
 import com.snaplogic.api.ExecutionException;
-import com.snaplogic.api.Snap;
+import com.snaplogic.common.SnapType;
 import com.snaplogic.common.properties.builders.PropertyBuilder;
 import com.snaplogic.snap.api.Document;
+import com.snaplogic.snap.api.DocumentUtility;
+import com.snaplogic.snap.api.ErrorViews;
+import com.snaplogic.snap.api.ExpressionProperty;
 import com.snaplogic.snap.api.OutputViews;
 import com.snaplogic.snap.api.PropertyValues;
-import com.snaplogic.snap.api.SimpleSnap;
 import com.snaplogic.snap.api.SnapCategory;
+import com.snaplogic.snap.api.SnapDataException;
 import com.snaplogic.snap.api.capabilities.Category;
 import com.snaplogic.snap.api.capabilities.Errors;
 import com.snaplogic.snap.api.capabilities.General;
@@ -27,22 +32,38 @@ import com.snaplogic.snap.api.capabilities.Inputs;
 import com.snaplogic.snap.api.capabilities.Outputs;
 import com.snaplogic.snap.api.capabilities.Version;
 import com.snaplogic.snap.api.capabilities.ViewType;
+import com.snaplogic.snap.view.InputView;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Paths;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.function.Function;
 
 /**
  * This snap accepts two inputs and outputs to a single output. To use it, feed
  * it two JSON documents. It will output a single stream which consists
  * of the combination of the two inputs, plus an additional "Processed" field in each.
  *
- * <p>This Snap extends {@link SimpleSnap} (instead of implementing {@link Snap}).</p>
- * <p>This means that instead of having a method called 'execute' which is called once,
- * it has a method called 'process' which is called for every document the snap receives.
- * This means you do not have to iterate over incoming documents as 'process' does that
- * for you.
+ * <p>In merge join mode, both inputs are expected to be sorted on the join key, and their
+ * documents are joined in a single pass with a {@link MergeJoin}: an inner, left outer or full
+ * outer join, which only keeps the second input's documents of the current key in memory. A
+ * joined document has the fields of both documents, the second one's winning.</p>
+ *
+ * <p>In hash join mode, the inputs may be in any order: the second input, expected to be the
+ * smaller one, is kept in a {@link HashJoin} table that the first input's documents are looked
+ * up in. A second input larger than the memory budget is partitioned into temporary files;
+ * documents read back from them are recreated from their data, without the lineage of the input
+ * documents.</p>
+ *
+ * <p>This Snap extends {@link MultiInputSnap}: 'process' is called for the documents of both
+ * inputs as they arrive, read concurrently so that a slow upstream on one input does not hold
+ * up the other. The join modes read each input view in the order the join needs instead.</p>
  */
 @General(title = "Two Inputs", purpose = "Accepts two inputs (expected phone books, merges them)",
         author = "Your Company Name", docLink = "http://yourdocslinkhere.com")
@@ -51,53 +72,249 @@ import java.util.Map;
 @Errors(min = 0, max = 1, offers = {ViewType.DOCUMENT})
 @Version(snap = 1)
 @Category(snap = SnapCategory.READ)
-public class TwoInputs extends SimpleSnap {
+public class TwoInputs extends MultiInputSnap {
+    private static final String MODE = "mode";
+    private static final String JOIN_TYPE = "joinType";
+    private static final String JOIN_KEY = "joinKey";
+    private static final String MEMORY_BUDGET = "memoryBudget";
+    private static final String CONCATENATE_MODE = "Concatenate";
+    private static final String MERGE_JOIN_MODE = "Merge join";
+    private static final String HASH_JOIN_MODE = "Hash join";
+    private static final String INNER_JOIN = "Inner";
+    private static final String LEFT_OUTER_JOIN = "Left outer";
+    private static final String FULL_OUTER_JOIN = "Full outer";
+    private static final String INPUT_0 = "input0";
+    private static final String INPUT_1 = "input1";
 
     private static final Logger log = LoggerFactory.getLogger(TwoInputs.class);
     private int count = 0;
     @Inject
     private OutputViews outputViews;
+    @Inject
+    private ErrorViews errorViews;
+    @Inject
+    private DocumentUtility documentUtility;
+    // the SnapLogic platform takes care of injecting an ObjectMapper instance
+    @Inject
+    private ObjectMapper mapper;
+    private MergeJoin<Document> mergeJoin;
+    private HashJoin<Document> hashJoin;
 
     @Override
     public void defineProperties(PropertyBuilder propertyBuilder) {
+        propertyBuilder.describe(MODE, "Mode",
+                "Concatenate outputs the documents of both inputs, Merge join joins the "
+                        + "documents of both inputs, sorted on the join key, Hash join joins "
+                        + "them in any order")
+                .withAllowedValues(ImmutableSet.of(CONCATENATE_MODE, MERGE_JOIN_MODE,
+                        HASH_JOIN_MODE))
+                .defaultValue(CONCATENATE_MODE)
+                .add();
+
+        propertyBuilder.describe(JOIN_TYPE, "Join Type",
+                "Inner only outputs matched documents, Left outer also the unmatched documents "
+                        + "of the first input, Full outer those of both inputs")
+                .withAllowedValues(ImmutableSet.of(INNER_JOIN, LEFT_OUTER_JOIN, FULL_OUTER_JOIN))
+                .defaultValue(INNER_JOIN)
+                .add();
+
+        propertyBuilder.describe(JOIN_KEY, "Join Key",
+                "Expression evaluated against the documents of both inputs to the key they are "
+                        + "sorted on and joined by, such as $name")
+                .expression()
+                .add();
+
+        propertyBuilder.describe(MEMORY_BUDGET, "Memory Budget (MB)",
+                "Memory the documents of the second input may take in hash join mode, before "
+                        + "they are partitioned into temporary files. Documents read back from "
+                        + "those files are recreated without the lineage of the input documents")
+                .type(SnapType.INTEGER)
+                .defaultValue(64)
+                .add();
     }
 
     @Override
     public void configure(PropertyValues propertyValues)
             throws ConfigurationException {
+        String mode = propertyValues.get(MODE);
+        if (!MERGE_JOIN_MODE.equals(mode) && !HASH_JOIN_MODE.equals(mode)) {
+            return;
+        }
+        if (StringUtils.isBlank(propertyValues.<String>get(JOIN_KEY))) {
+            throw new ConfigurationException("No join key")
+                    .withReason("Join modes join documents on the join key")
+                    .withResolution("Enter the expression of the key to join both inputs on");
+        }
+        final ExpressionProperty joinKey = propertyValues.getAsExpression(JOIN_KEY);
+        String joinType = propertyValues.get(JOIN_TYPE);
+        MergeJoin.Type type = LEFT_OUTER_JOIN.equals(joinType) ? MergeJoin.Type.LEFT_OUTER :
+                FULL_OUTER_JOIN.equals(joinType) ? MergeJoin.Type.FULL_OUTER :
+                        MergeJoin.Type.INNER;
+        if (MERGE_JOIN_MODE.equals(mode)) {
+            mergeJoin = new MergeJoin<>(type, new Function<Document, Object>() {
+                @Override
+                public Object apply(Document document) {
+                    return joinKey.eval(document);
+                }
+            });
+            return;
+        }
+        BigInteger memoryBudgetValue = propertyValues.get(MEMORY_BUDGET);
+        long memoryBudget = (memoryBudgetValue == null ? 64 : memoryBudgetValue.longValue())
+                * 1024 * 1024;
+        if (memoryBudget <= 0) {
+            throw new ConfigurationException("Invalid memory budget")
+                    .withReason("The memory budget must be positive")
+                    .withResolution("Enter the megabytes the second input may take in memory");
+        }
+        hashJoin = new HashJoin<>(type, new HashJoin.Adapter<Document>() {
+            @Override
+            public Object key(Document document) {
+                return joinKey.eval(document);
+            }
+
+            @Override
+            public Object data(Document document) {
+                return document.get();
+            }
+
+            @Override
+            public Document restore(Object data) {
+                return documentUtility.newDocument(data);
+            }
+        }, memoryBudget, Paths.get(System.getProperty("java.io.tmpdir")), mapper);
     }
 
     @Override
-    public void process(Document document, String inputViewName) {
-        // Demonstrates how to create a new copy of the document
-        Document newdoc = document.copy();
+    public void execute() throws ExecutionException {
+        if (mergeJoin != null || hashJoin != null) {
+            join();
+            return;
+        }
+        processInputs();
+    }
 
+    @Override
+    protected void process(Document document, String inputViewName) {
         // get a map representation of the document
-        // NOTE: we are *not* duplicating the data.
-        // We will *not* have to convert the map back to a doc.
-        // It's just a pointer representation.
         @SuppressWarnings("unchecked")
-        Map<String, Object> data = newdoc.get(Map.class);
+        Map<String, Object> data = document.get(Map.class);
+
+        // Demonstrates how to change a document without copying it: the overlay keeps the
+        // fields assigned to it apart from the input document's data, which stays untouched.
+        Map<String, Object> processed = new OverlayMap(data);
 
         // assign a value to a field of the map
         // In this case, we are just assigning 'processed=True'
         // to signal that the document has been processed.
-        data.put("processed", "True");
+        processed.put("processed", "True");
+        Document newdoc = documentUtility.newDocumentFor(document, processed);
 
         count++;
         // log current document number
-        log.debug("count=" + count);
+        log.debug("count={}", count);
 
         // log current document
-        log.debug("document: " + newdoc.toString());
+        log.debug("document: {}", newdoc);
 
         // send new document to next snap
         outputViews.write(newdoc, document);
     }
 
+    private void join() throws ExecutionException {
+        InputView left = inputViews.get(INPUT_0);
+        InputView right = inputViews.get(INPUT_1);
+        if (left == null || right == null) {
+            throw new ExecutionException("Joining needs two input views")
+                    .withResolution(String.format("Connect the input views %s and %s",
+                            INPUT_0, INPUT_1));
+        }
+        Iterator<Document> leftDocuments = inputViews.getDocumentsFrom(left);
+        Iterator<Document> rightDocuments = inputViews.getDocumentsFrom(right);
+        if (mergeJoin != null) {
+            mergeJoin.join(leftDocuments, rightDocuments, joinHandler());
+            return;
+        }
+        try {
+            hashJoin.join(leftDocuments, rightDocuments, joinHandler());
+        } catch (IOException e) {
+            throw new ExecutionException(e, "Unable to partition the second input")
+                    .withResolution("Ensure the temporary directory has space for the "
+                            + "documents of the second input, or raise the memory budget");
+        }
+    }
+
+    private MergeJoin.Handler<Document> joinHandler() {
+        return new MergeJoin.Handler<Document>() {
+            @Override
+            public void matched(Document left, Document right) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> rightData = right.get(Map.class);
+                @SuppressWarnings("unchecked")
+                Map<String, Object> joined = new OverlayMap(left.get(Map.class));
+                // a second input's document can be joined with several, so each of them gets
+                // overlays of its objects and arrays rather than the shared ones
+                for (Map.Entry<String, Object> field : rightData.entrySet()) {
+                    joined.put(field.getKey(), OverlayMap.overlay(field.getValue()));
+                }
+                write(joined, left);
+            }
+
+            @Override
+            public void unmatchedLeft(Document left) {
+                write(left.get(Map.class), left);
+            }
+
+            @Override
+            public void unmatchedRight(Document right) {
+                write(right.get(Map.class), right);
+            }
+
+            @Override
+            public void invalidKey(Document document, RuntimeException e) {
+                errorViews.write(new SnapDataException(e, e.getMessage())
+                        .withReason("The join key could not be evaluated")
+                        .withResolution("Check the join key expression against the "
+                                + "input document"), document);
+            }
+
+            @Override
+            public void outOfOrder(Document document, Object key, Object previousKey) {
+                errorViews.write(new SnapDataException(String.format(
+                        "Join key %s follows join key %s", key, previousKey))
+                        .withReason("The input is not sorted on the join key")
+                        .withResolution("Sort both inputs on the join key in "
+                                + "ascending order"), document);
+            }
+        };
+    }
+
+    private void write(Object data, Document parent) {
+        count++;
+        outputViews.write(documentUtility.newDocumentFor(parent, data), parent);
+    }
+
     @Override
     public void cleanup() throws ExecutionException {
         // Log final number of documents processed
         log.debug("Final count=" + count);
+        if (hashJoin == null) {
+            return;
+        }
+        double spillSeconds = hashJoin.spillNanos() / 1e9;
+        double probeSeconds = hashJoin.probeNanos() / 1e9;
+        log.info("Hash join spilled {} documents, {} bytes in {} partitions, at {} MB/s; "
+                        + "probed {} documents against {} at {} documents/s",
+                hashJoin.spilledDocuments(), hashJoin.spilledBytes(), hashJoin.partitions(),
+                String.format("%.1f", spillSeconds == 0 ? 0 :
+                        hashJoin.spilledBytes() / (1024.0 * 1024) / spillSeconds),
+                hashJoin.probeDocuments(), hashJoin.buildDocuments(),
+                String.format("%.0f", probeSeconds == 0 ? 0 :
+                        hashJoin.probeDocuments() / probeSeconds));
+        try {
+            hashJoin.close();
+        } catch (IOException e) {
+            log.warn("Unable to delete the hash join's temporary files", e);
+        }
     }
-}
\ No newline at end of file
+}
@@ -17,10 +17,10 @@ import com.snaplogic.api.ViewProvider;
 import com.snaplogic.common.properties.builders.PropertyBuilder;
 import com.snaplogic.common.properties.builders.ViewBuilder;
 import com.snaplogic.snap.api.Document;
+import com.snaplogic.snap.api.DocumentUtility;
 import com.snaplogic.snap.api.ErrorViews;
 import com.snaplogic.snap.api.OutputViews;
 import com.snaplogic.snap.api.PropertyValues;
-import com.snaplogic.snap.api.SimpleSnap;
 import com.snaplogic.snap.api.SnapCategory;
 import com.snaplogic.snap.api.ViewCategory;
 import com.snaplogic.snap.api.capabilities.Category;
@@ -40,6 +40,9 @@ import java.util.Map;
  *
  * <p>To use it, feed it parents.json and children.json. It will output two streams,
  * one for only males and another for females. Unknowns will get sent to both.</p>
+ *
+ * <p>It extends {@link MultiInputSnap}, so both inputs are read concurrently and a slow
+ * upstream on one of them does not hold up the documents of the other.</p>
  */
 @General(title = "Two Ins/Outs", purpose = "Accepts two inputs, sends to two outputs.",
         author = "Your Company Name", docLink = "http://yourdocslinkhere.com")
@@ -47,7 +50,7 @@ import java.util.Map;
 @Outputs(min = 2, max = 2, offers = {ViewType.DOCUMENT})
 @Version(snap = 1)
 @Category(snap = SnapCategory.READ)
-public class TwoInputsTwoOutputs extends SimpleSnap implements ViewProvider {
+public class TwoInputsTwoOutputs extends MultiInputSnap implements ViewProvider {
     private static final Logger log = LoggerFactory.getLogger(TwoInputsTwoOutputs.class);
     private final static String INPUT_0 = "input0";
     private final static String INPUT_1 = "input1";
@@ -60,6 +63,8 @@ public class TwoInputsTwoOutputs extends SimpleSnap implements ViewProvider {
     private OutputViews outputViews;
     @Inject
     private ErrorViews errorViews;
+    @Inject
+    private DocumentUtility documentUtility;
 
     @Override
     public void defineViews(final ViewBuilder viewBuilder) {
@@ -92,21 +97,17 @@ public class TwoInputsTwoOutputs extends SimpleSnap implements ViewProvider {
      */
     @Override
     public void process(Document document, String inputViewName) {
-        // Demonstrates how to create a new copy of the document
-        Document newdoc = document.copy();
-
         // get a map representation of the document
-        // NOTE: we are *not* duplicating the data.
-        // We will *not* have to convert the map back to a doc.
-        // It's just a pointer representation
-        Map<String, Object> data = newdoc.get(Map.class);
+        Map<String, Object> data = new OverlayMap(document.get(Map.class));
 
-        // Add a new field "processed" that is set to value - TRUE
+        // Add a new field "processed" that is set to value - TRUE, in an overlay over the
+        // input document's data instead of a copy of it
         data.put("processed", "True");
+        Document newdoc = documentUtility.newDocumentFor(document, data);
 
-        log.debug("document:<< " + document.toString());
+        log.debug("document:<< {}", document);
 
-        log.debug("gender: " + data.get("gender"));
+        log.debug("gender: {}", data.get("gender"));
         // send males to male output view
         if (data.get("gender").equals("male")) {
             count_gender_male++;
@@ -0,0 +1,288 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import com.snaplogic.snaps.CurrencyConverter.ForEx;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the expiry, eviction and request coalescing of {@link CachingForEx}.
+ */
+public class CachingForExTest {
+
+    private final FakeTicker ticker = new FakeTicker();
+    private final CountingForEx delegate = new CountingForEx();
+
+    @Test
+    public void getExchangeRates_WithinTtl_CallsDelegateOncePerCurrency() {
+        CachingForEx forEx = new CachingForEx(delegate, 1, TimeUnit.MINUTES, 10, ticker);
+        for (int i = 0; i < 5; i++) {
+            forEx.getExchangeRates("AUD");
+            forEx.getExchangeRates("GBP");
+        }
+
+        assertEquals(1, delegate.callsFor("AUD"));
+        assertEquals(1, delegate.callsFor("GBP"));
+    }
+
+    @Test
+    public void getExchangeRates_AfterTtl_CallsDelegateAgain() {
+        CachingForEx forEx = new CachingForEx(delegate, 1, TimeUnit.MINUTES, 10, ticker);
+        forEx.getExchangeRates("AUD");
+        ticker.advance(TimeUnit.MINUTES.toNanos(2));
+        forEx.getExchangeRates("AUD");
+
+        assertEquals(2, delegate.callsFor("AUD"));
+    }
+
+    @Test
+    public void getExchangeRates_WithSettingsSetBeforeFirstUse_AppliesThem() {
+        CachingForEx.Settings settings = new CachingForEx.Settings();
+        CachingForEx forEx = new CachingForEx(delegate, settings);
+        // a time-to-live of 0 looks the rates up every time
+        settings.set(0, 10);
+        forEx.getExchangeRates("AUD");
+        forEx.getExchangeRates("AUD");
+
+        assertEquals(2, delegate.callsFor("AUD"));
+    }
+
+    @Test
+    public void getExchangeRates_WhenFull_EvictsLeastRecentlyUsedCurrency() {
+        CachingForEx forEx = new CachingForEx(delegate, 1, TimeUnit.MINUTES, 2, ticker);
+        forEx.getExchangeRates("AUD");
+        forEx.getExchangeRates("GBP");
+        forEx.getExchangeRates("AUD");
+        forEx.getExchangeRates("EUR");
+
+        // GBP was the least recently used currency when EUR was added
+        forEx.getExchangeRates("AUD");
+        forEx.getExchangeRates("GBP");
+        assertEquals(1, delegate.callsFor("AUD"));
+        assertEquals(2, delegate.callsFor("GBP"));
+    }
+
+    @Test
+    public void getExchangeRates_WithConcurrentMisses_CoalescesDelegateCalls() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final CachingForEx forEx = new CachingForEx(new ForEx() {
+            @Override
+            public Map<String, Object> getExchangeRates(String currencyCode) {
+                calls.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return Collections.<String, Object>singletonMap("base", currencyCode);
+            }
+
+            @Override
+            public Map<String, Map<String, Object>> getAllExchangeRates(Set<String> codes) {
+                throw new UnsupportedOperationException();
+            }
+        }, 1, TimeUnit.MINUTES, 10, ticker);
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    forEx.getExchangeRates("AUD");
+                }
+            });
+            threads[i].start();
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void getExchangeRates_WithUnknownCurrency_ReturnsNullWithoutCaching() {
+        CachingForEx forEx = new CachingForEx(delegate, 1, TimeUnit.MINUTES, 10, ticker);
+        assertNull(forEx.getExchangeRates("XXX"));
+        assertNull(forEx.getExchangeRates("XXX"));
+
+        assertEquals(2, delegate.callsFor("XXX"));
+    }
+
+    @Test
+    public void getAllExchangeRates_WithSomeCached_FetchesMissingCurrenciesInOneCall() {
+        CachingForEx forEx = new CachingForEx(delegate, 1, TimeUnit.MINUTES, 10, ticker);
+        forEx.getExchangeRates("AUD");
+
+        Map<String, Map<String, Object>> rates =
+                forEx.getAllExchangeRates(ImmutableSet.of("AUD", "GBP", "EUR"));
+
+        assertEquals(ImmutableSet.of("AUD", "GBP", "EUR"), rates.keySet());
+        assertEquals(1, delegate.bulkCalls);
+        assertEquals(ImmutableSet.of("GBP", "EUR"), delegate.lastBulkRequest);
+        assertEquals(1, delegate.callsFor("AUD"));
+    }
+
+    @Test
+    public void getAllExchangeRates_WithUnknownCurrency_OmitsIt() {
+        CachingForEx forEx = new CachingForEx(delegate, 1, TimeUnit.MINUTES, 10, ticker);
+
+        Map<String, Map<String, Object>> rates =
+                forEx.getAllExchangeRates(ImmutableSet.of("AUD", "XXX"));
+
+        assertEquals(ImmutableSet.of("AUD"), rates.keySet());
+    }
+
+    @Test
+    public void getExchangeRatesAsync_WithConcurrentMisses_CoalescesDelegateCalls()
+            throws Exception {
+        final CompletableFuture<Map<String, Object>> lookup = new CompletableFuture<>();
+        final AtomicInteger calls = new AtomicInteger();
+        CachingForEx forEx = new CachingForEx(new CountingForEx() {
+            @Override
+            public CompletableFuture<Map<String, Object>> getExchangeRatesAsync(
+                    String currencyCode) {
+                calls.incrementAndGet();
+                return lookup;
+            }
+        }, 1, TimeUnit.MINUTES, 10, ticker);
+
+        CompletableFuture<Map<String, Object>> first = forEx.getExchangeRatesAsync("AUD");
+        CompletableFuture<Map<String, Object>> second = forEx.getExchangeRatesAsync("AUD");
+        assertFalse(first.isDone());
+        lookup.complete(Collections.<String, Object>singletonMap("base", "AUD"));
+
+        assertEquals("AUD", first.get().get("base"));
+        assertEquals("AUD", second.get().get("base"));
+        assertEquals(1, calls.get());
+        // the completed lookup is cached
+        assertTrue(forEx.getExchangeRatesAsync("AUD").isDone());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void getExchangeRatesAsync_WhenLookupFails_DoesNotCache() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        CachingForEx forEx = new CachingForEx(new CountingForEx() {
+            @Override
+            public CompletableFuture<Map<String, Object>> getExchangeRatesAsync(
+                    String currencyCode) {
+                calls.incrementAndGet();
+                CompletableFuture<Map<String, Object>> lookup = new CompletableFuture<>();
+                lookup.completeExceptionally(new IllegalStateException("unavailable"));
+                return lookup;
+            }
+        }, 1, TimeUnit.MINUTES, 10, ticker);
+
+        assertTrue(forEx.getExchangeRatesAsync("AUD").isCompletedExceptionally());
+        assertTrue(forEx.getExchangeRatesAsync("AUD").isCompletedExceptionally());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void getExchangeRatesAsync_WithForExImpl_LooksUpOnItsExecutor() throws Exception {
+        final List<Runnable> lookups = new ArrayList<>();
+        Executor queued = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                lookups.add(command);
+            }
+        };
+        CachingForEx forEx = new CachingForEx(new CurrencyConverter.ForExImpl(queued), 1,
+                TimeUnit.MINUTES, 10, ticker);
+
+        // both lookups are in flight at once, and the caller is not held up by either
+        CompletableFuture<Map<String, Object>> aud = forEx.getExchangeRatesAsync("AUD");
+        CompletableFuture<Map<String, Object>> gbp = forEx.getExchangeRatesAsync("GBP");
+        assertFalse(aud.isDone());
+        assertFalse(gbp.isDone());
+        assertEquals(2, lookups.size());
+
+        for (Runnable lookup : lookups) {
+            lookup.run();
+        }
+        assertEquals("AUD", aud.get().get("base"));
+        assertEquals("GBP", gbp.get().get("base"));
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long delta) {
+            nanos += delta;
+        }
+    }
+
+    private static class CountingForEx implements ForEx {
+        private final ConcurrentMap<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        private int bulkCalls;
+        private Set<String> lastBulkRequest;
+
+        @Override
+        public Map<String, Object> getExchangeRates(String currencyCode) {
+            calls.putIfAbsent(currencyCode, new AtomicInteger());
+            calls.get(currencyCode).incrementAndGet();
+            if ("XXX".equals(currencyCode)) {
+                return null;
+            }
+            return Collections.<String, Object>singletonMap("base", currencyCode);
+        }
+
+        @Override
+        public Map<String, Map<String, Object>> getAllExchangeRates(Set<String> currencyCodes) {
+            bulkCalls++;
+            lastBulkRequest = currencyCodes;
+            Map<String, Map<String, Object>> rates = new LinkedHashMap<>();
+            for (String currencyCode : currencyCodes) {
+                Map<String, Object> rate = getExchangeRates(currencyCode);
+                if (rate != null) {
+                    rates.put(currencyCode, rate);
+                }
+            }
+            return rates;
+        }
+
+        int callsFor(String currencyCode) {
+            AtomicInteger count = calls.get(currencyCode);
+            return count == null ? 0 : count.get();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compares counting characters into a {@link Multiset} one decoded character at a time, as
+ * {@link CharacterCounter} used to, with reading the input in bulk into a
+ * {@link CharacterHistogram}.
+ *
+ * <p>Both read 16 MiB of generated text through a channel. The "mixed" input has one non-ASCII
+ * character in every eight.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class CharacterCountBenchmark {
+    private static final int SIZE = 16 * 1024 * 1024;
+    private static final String ASCII = "abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ.,\n";
+    private static final String NON_ASCII = "\u00e9\u00fc\u00df\u0436\u4e2d\uD83D\uDE00";
+
+    @Param({"ascii", "mixed"})
+    public String text;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+    private byte[] input;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(SIZE);
+        while (sb.length() < SIZE) {
+            if ("mixed".equals(text) && random.nextInt(8) == 0) {
+                int index = random.nextInt(NON_ASCII.length() - 1);
+                sb.append(NON_ASCII.charAt(index));
+                if (Character.isHighSurrogate(NON_ASCII.charAt(index))) {
+                    sb.append(NON_ASCII.charAt(index + 1));
+                }
+            } else {
+                sb.append(ASCII.charAt(random.nextInt(ASCII.length())));
+            }
+        }
+        input = sb.toString().getBytes(UTF_8);
+    }
+
+    @Benchmark
+    public Multiset<Character> multiset() throws IOException {
+        Multiset<Character> bagOfChars = HashMultiset.create();
+        try (Reader reader = new InputStreamReader(new BufferedInputStream(
+                Channels.newInputStream(channel())), UTF_8)) {
+            int characterRead;
+            while ((characterRead = reader.read()) != -1) {
+                bagOfChars.add((char) Character.toLowerCase(characterRead));
+            }
+        }
+        return bagOfChars;
+    }
+
+    @Benchmark
+    public CharacterHistogram histogram() throws IOException {
+        CharacterHistogram histogram = new CharacterHistogram();
+        try (ReadableByteChannel channel = channel()) {
+            readBuffer.clear();
+            while (channel.read(readBuffer) != -1) {
+                readBuffer.flip();
+                histogram.count(readBuffer, false);
+                readBuffer.compact();
+            }
+            readBuffer.flip();
+            histogram.count(readBuffer, true);
+        }
+        return histogram;
+    }
+
+    private ReadableByteChannel channel() {
+        return Channels.newChannel(new ByteArrayInputStream(input));
+    }
+}
@@ -29,4 +29,52 @@ public class CharacterCounterTest {
     public void characterCounter_WithSnapLogicAsInput_CountsOccurrences() throws Exception {
     }
 
+    @TestFixture(snap = CharacterCounter.class,
+            input = "data/character_counter/large_input_pointer.json",
+            outputs = "output0",
+            properties = "data/character_counter/parallel_properties.json",
+            expectedOutputPath = "data/character_counter")
+    public void characterCounter_WithParallelism_CountsOccurrences() throws Exception {
+    }
+
+    @TestFixture(snap = CharacterCounter.class,
+            input = "data/character_counter/multilingual_input_pointer.json",
+            outputs = "output0",
+            properties = "data/character_counter/code_points_properties.json",
+            expectedOutputPath = "data/character_counter")
+    public void characterCounter_WithCodePointMode_WritesSelectedCounts() throws Exception {
+    }
+
+    @TestFixture(snap = CharacterCounter.class,
+            input = "data/character_counter/log_input_pointer.json",
+            outputs = "output0",
+            properties = "data/character_counter/n_grams_properties.json",
+            expectedOutputPath = "data/character_counter")
+    public void characterCounter_WithNGramMode_WritesMostFrequentNGrams() throws Exception {
+    }
+
+    @TestFixture(snap = CharacterCounter.class,
+            input = "data/character_counter/large_input_pointer.json",
+            outputs = "output0",
+            properties = "data/character_counter/tumbling_windows_properties.json",
+            expectedOutputPath = "data/character_counter")
+    public void characterCounter_WithTumblingWindows_WritesCountsOfEachWindow() throws Exception {
+    }
+
+    @TestFixture(snap = CharacterCounter.class,
+            input = "data/character_counter/large_input_pointer.json",
+            outputs = "output0",
+            properties = "data/character_counter/cumulative_windows_properties.json",
+            expectedOutputPath = "data/character_counter")
+    public void characterCounter_WithCumulativeWindows_WritesRunningCounts() throws Exception {
+    }
+
+    @TestFixture(snap = CharacterCounter.class,
+            input = "data/character_counter/aggregated_input_pointer.json",
+            outputs = "output0",
+            properties = "data/character_counter/aggregated_properties.json",
+            expectedOutputPath = "data/character_counter")
+    public void characterCounter_WithAggregation_WritesEachAndAllCounts() throws Exception {
+    }
+
 }
@@ -0,0 +1,140 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that {@link CharacterHistogram} counts letters like decoding the whole input with an
+ * {@link InputStreamReader} does, however the input is split into buffers.
+ */
+public class CharacterHistogramTest {
+    // ASCII, accented and Cyrillic letters, CJK, emoji, and characters whose lower case form is
+    // an ASCII letter
+    private static final String ALPHABET = "aBcXyZ \n,.1\u00e9\u00c9\u00df\u0436\u0416"
+            + "\u4e2d\u6587\uD83D\uDE00\u0130\u212A";
+
+    @Test
+    public void count_WithMultilingualText_MatchesDecodedCounts() throws Exception {
+        Random random = new Random(7);
+        for (int round = 0; round < 50; round++) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                int index = random.nextInt(ALPHABET.length());
+                if (Character.isHighSurrogate(ALPHABET.charAt(index))) {
+                    text.append(ALPHABET, index, index + 2);
+                } else if (!Character.isLowSurrogate(ALPHABET.charAt(index))) {
+                    text.append(ALPHABET.charAt(index));
+                }
+            }
+            byte[] bytes = text.toString().getBytes(UTF_8);
+
+            assertCounts(bytes, 4 + random.nextInt(60));
+        }
+    }
+
+    @Test
+    public void count_WithMalformedInput_MatchesDecodedCounts() throws Exception {
+        Random random = new Random(11);
+        byte[] bytes = new byte[20000];
+        for (int i = 0; i < bytes.length; i++) {
+            // mostly letters, with stray lead and continuation bytes
+            bytes[i] = random.nextInt(4) == 0 ? (byte) (0x80 + random.nextInt(0x80)) :
+                    (byte) ('A' + random.nextInt(58));
+        }
+
+        assertCounts(bytes, 4);
+        assertCounts(bytes, 7);
+        assertCounts(bytes, 4096);
+    }
+
+    @Test
+    public void count_WithSpecialLowerCaseForms_CountsAsciiLetters() {
+        CharacterHistogram histogram = count("SnapLogic \u0130\u212A".getBytes(UTF_8), 64);
+
+        assertEquals(2, histogram.count('i'));
+        assertEquals(1, histogram.count('k'));
+        assertEquals(1, histogram.count('s'));
+        assertEquals(0, histogram.count('z'));
+    }
+
+    @Test
+    public void add_MergesCounts() {
+        CharacterHistogram histogram = count("abc".getBytes(UTF_8), 64);
+        histogram.add(count("A\u00e9".getBytes(UTF_8), 64));
+
+        assertEquals(2, histogram.count('a'));
+        assertEquals(1, histogram.count('c'));
+    }
+
+    @Test
+    public void codePoints_WithSupplementaryCharacters_CountsLowerCaseCodePoints() {
+        CharacterHistogram histogram = new CharacterHistogram(true);
+        byte[] bytes = "Ab\u00C9\u00E9\uD801\uDC00\uD801\uDC28\uD83D\uDE00".getBytes(UTF_8);
+        histogram.count(ByteBuffer.wrap(bytes), true);
+
+        CountTable codePoints = histogram.codePoints();
+
+        assertEquals(1, codePoints.get('a'));
+        assertEquals(0, codePoints.get('A'));
+        assertEquals(2, codePoints.get(0xE9));
+        // DESERET CAPITAL LETTER LONG I and its lower case form
+        assertEquals(2, codePoints.get(0x10428));
+        assertEquals(1, codePoints.get(0x1F600));
+        assertEquals(5, codePoints.size());
+    }
+
+    private static void assertCounts(byte[] bytes, int bufferSize) throws IOException {
+        long[] expected = new long[128];
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(bytes), UTF_8)) {
+            int character;
+            while ((character = reader.read()) != -1) {
+                char lowerCase = (char) Character.toLowerCase(character);
+                if (lowerCase < 128) {
+                    expected[lowerCase]++;
+                }
+            }
+        }
+
+        CharacterHistogram histogram = count(bytes, bufferSize);
+        for (char letter = 'a'; letter <= 'z'; letter++) {
+            assertEquals("count of " + letter, expected[letter], histogram.count(letter));
+        }
+    }
+
+    // reads the bytes through a buffer like the Snap does
+    private static CharacterHistogram count(byte[] bytes, int bufferSize) {
+        CharacterHistogram histogram = new CharacterHistogram();
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        int offset = 0;
+        while (offset < bytes.length) {
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+            buffer.flip();
+            histogram.count(buffer, false);
+            buffer.compact();
+        }
+        buffer.flip();
+        histogram.count(buffer, true);
+        return histogram;
+    }
+}
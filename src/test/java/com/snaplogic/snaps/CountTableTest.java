@@ -0,0 +1,100 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that {@link CountTable} counts keys like a map of boxed counts does.
+ */
+public class CountTableTest {
+
+    @Test
+    public void increment_WithRandomKeys_MatchesMapCounts() {
+        Random random = new Random(13);
+        CountTable table = new CountTable();
+        Map<Integer, Long> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            // mostly a few hot keys, some spread over all code points
+            int key = random.nextInt(4) == 0 ? random.nextInt(Character.MAX_CODE_POINT + 1) :
+                    random.nextInt(64) * 1024;
+            table.increment(key);
+            Long count = expected.get(key);
+            expected.put(key, count == null ? 1 : count + 1);
+        }
+
+        assertEquals(expected.size(), table.size());
+        for (Map.Entry<Integer, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().longValue(), table.get(entry.getKey()));
+        }
+        long[] keys = new long[expected.size()];
+        int next = 0;
+        for (int key : new TreeSet<>(expected.keySet())) {
+            keys[next++] = key;
+        }
+        assertArrayEquals(keys, table.sortedKeys());
+    }
+
+    @Test
+    public void get_WithUnknownKey_ReturnsZero() {
+        CountTable table = new CountTable();
+        table.add(0x1F600, 3);
+
+        assertEquals(3, table.get(0x1F600));
+        assertEquals(0, table.get(0));
+    }
+
+    @Test
+    public void remove_KeepsCollidingKeysReachable() {
+        Random random = new Random(17);
+        CountTable table = new CountTable();
+        Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            long key = random.nextInt(500);
+            if (random.nextBoolean()) {
+                table.put(key, i);
+                expected.put(key, (long) i);
+            } else {
+                Long count = expected.remove(key);
+                assertEquals(count == null ? 0 : count, table.remove(key));
+            }
+        }
+
+        assertEquals(expected.size(), table.size());
+        for (long key = 0; key < 500; key++) {
+            Long count = expected.get(key);
+            assertEquals(count == null ? 0 : count, table.get(key));
+        }
+    }
+
+    @Test
+    public void addAll_MergesCounts() {
+        CountTable table = new CountTable();
+        table.add(1, 2);
+        CountTable other = new CountTable(100);
+        other.add(1, 3);
+        other.add(2, 4);
+
+        table.addAll(other);
+
+        assertEquals(5, table.get(1));
+        assertEquals(4, table.get(2));
+        assertEquals(2, table.size());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the cross rates computed by {@link CrossRateMatrix}.
+ */
+public class CrossRateMatrixTest {
+    private static final ExchangeRates USD_RATES = ExchangeRates.of("USD", "2015-09-11",
+            ImmutableMap.of("AUD", 1.416, "EUR", 0.88747, "GBP", 0.64838, "JPY", 120.71));
+
+    @Test
+    public void get_FromBaseCurrency_ReturnsTableRate() {
+        CrossRateMatrix matrix = CrossRateMatrix.of(USD_RATES);
+
+        assertEquals(5, matrix.size());
+        assertEquals(1.416, matrix.get("USD", "AUD"), 0);
+        assertEquals(120.71, matrix.get("USD", "JPY"), 0);
+        assertEquals(1, matrix.get("USD", "USD"), 0);
+    }
+
+    @Test
+    public void get_BetweenOtherCurrencies_ReturnsCrossRate() {
+        CrossRateMatrix matrix = CrossRateMatrix.of(USD_RATES);
+
+        assertEquals(0.64838 / 0.88747, matrix.get("EUR", "GBP"), 0);
+        assertEquals(1 / 120.71, matrix.get("JPY", "USD"), 0);
+        assertEquals(1, matrix.get("GBP", "GBP"), 0);
+        assertEquals(matrix.get("EUR", "GBP"),
+                matrix.rate(matrix.indexOf("EUR"), matrix.indexOf("GBP")), 0);
+    }
+
+    @Test
+    public void get_WithUnknownCurrency_ReturnsNaN() {
+        CrossRateMatrix matrix = CrossRateMatrix.of(USD_RATES);
+
+        assertTrue(Double.isNaN(matrix.get("CHF", "EUR")));
+        assertTrue(Double.isNaN(matrix.get("EUR", "CHF")));
+        assertTrue(Double.isNaN(matrix.get(null, "EUR")));
+    }
+
+    @Test
+    public void get_WithBaseCurrencyInRates_KeepsTableRate() {
+        ExchangeRates rates = ExchangeRates.of("EUR", null,
+                ImmutableMap.of("EUR", 1, "USD", 1.1268));
+        CrossRateMatrix matrix = CrossRateMatrix.of(rates);
+
+        assertEquals(2, matrix.size());
+        assertEquals(1.1268, matrix.get("EUR", "USD"), 0);
+        assertEquals(1 / 1.1268, matrix.get("USD", "EUR"), 0);
+    }
+
+    @Test
+    public void crossRates_IsComputedOnce() {
+        assertSame(USD_RATES.crossRates(), USD_RATES.crossRates());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the decimal and fixed point arithmetic of the {@link CurrencyConverter}.
+ *
+ * <p>Run with {@code mvn test -P master,benchmarks -Dbenchmark=CurrencyConversionBenchmark};
+ * the gc profiler reports the allocation rate per conversion. Numbers parsed from documents
+ * arrive as {@link BigDecimal} and {@link BigInteger}, the {@code decimal} amount type.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CurrencyConversionBenchmark {
+    private static final String TARGET_CURRENCY = "EUR";
+    private static final int AMOUNTS = 1024;
+
+    @Param({"double", "decimal"})
+    public String amountType;
+
+    private final Number[] amounts = new Number[AMOUNTS];
+    private final FixedPointArithmetic fixedPointArithmetic =
+            new FixedPointArithmetic(6, RoundingMode.HALF_EVEN);
+    private Number rate;
+    private FixedPointArithmetic.Rate fixedPointRate;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        boolean decimal = "decimal".equals(amountType);
+        for (int i = 0; i < AMOUNTS; i++) {
+            // a mix of whole and cent amounts, like the test data
+            int whole = random.nextInt(100000);
+            int cents = random.nextInt(10000000);
+            if (decimal) {
+                amounts[i] = i % 2 == 0 ? (Number) BigInteger.valueOf(whole) :
+                        (Number) BigDecimal.valueOf(cents, 2);
+            } else {
+                amounts[i] = i % 2 == 0 ? (Number) (long) whole : (Number) (cents / 100d);
+            }
+        }
+        rate = decimal ? (Number) new BigDecimal("0.88747") : (Number) 0.88747;
+        fixedPointRate = new FixedPointArithmetic.Rate(rate);
+    }
+
+    @Benchmark
+    public Map<String, BigDecimal> decimal() {
+        Number amount = nextAmount();
+        return CurrencyConverter.getExchangeRateForCurrency(TARGET_CURRENCY,
+                BigDecimal.valueOf(amount.doubleValue()), rate);
+    }
+
+    @Benchmark
+    public Map<String, BigDecimal> fixedPoint() {
+        return CurrencyConverter.getFixedPointExchangeRateForCurrency(TARGET_CURRENCY,
+                nextAmount(), fixedPointRate, fixedPointArithmetic);
+    }
+
+    @Benchmark
+    public BigDecimal fixedPointPrimitive() {
+        return fixedPointArithmetic.multiply(nextAmount().doubleValue(), rate.doubleValue());
+    }
+
+    private Number nextAmount() {
+        index = (index + 1) & (AMOUNTS - 1);
+        return amounts[index];
+    }
+}
@@ -21,14 +21,22 @@ import com.snaplogic.snap.test.harness.TestSetup;
 import org.junit.runner.RunWith;
 
 import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.easymock.EasyMock.anyString;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
 @RunWith(SnapTestRunner.class)
@@ -85,6 +93,118 @@ public class CurrencyConverterTest {
 
     }
 
+    @TestFixture(snap = CurrencyConverter.class,
+            input = "data/currency_converter/input_documents.json",
+            outputs = "output0",
+            expectedOutputPath = "data/currency_converter",
+            properties = "data/currency_converter/exchange_rates_cached_properties.json",
+            dataFiles = {"data/currency_converter/exchange_rates_file.json"})
+    public void currencyConversion_WithRatesCacheTtl_ConvertsCorrectly() throws Exception {
+
+    }
+
+    @TestFixture(snap = CurrencyConverter.class,
+            input = "data/currency_converter/input_documents.json",
+            outputs = "output0",
+            expectedOutputPath = "data/currency_converter",
+            properties = "data/currency_converter/fixed_point_properties.json",
+            dataFiles = {"data/currency_converter/exchange_rates_file.json"})
+    public void currencyConversion_WithFixedPointArithmetic_RoundsToScale() throws Exception {
+
+    }
+
+    @TestFixture(snap = CurrencyConverter.class,
+            input = "data/currency_converter/input_documents_with_source_currency.json",
+            outputs = "output0",
+            expectedOutputPath = "data/currency_converter",
+            properties = "data/currency_converter/exchange_rates_from_file_properties.json",
+            dataFiles = {"data/currency_converter/exchange_rates_file.json"})
+    public void currencyConversion_WithSourceCurrency_ConvertsAtCrossRate() throws Exception {
+
+    }
+
+    @TestFixture(snap = CurrencyConverter.class,
+            input = "data/currency_converter/input_documents_with_date.json",
+            outputs = "output0",
+            expectedOutputPath = "data/currency_converter",
+            properties = "data/currency_converter/historical_rates_properties.json",
+            dataFiles = {"data/currency_converter/historical_rates_file.json"})
+    public void currencyConversion_WithHistoricalRates_ConvertsAtRatesOfDocumentDate()
+            throws Exception {
+
+    }
+
+    @TestFixture(snap = CurrencyConverter.class,
+            input = "data/currency_converter/input_documents.json",
+            outputs = "output0",
+            expectedOutputPath = "data/currency_converter",
+            properties = "data/currency_converter/batch_properties.json")
+    public void currencyConversion_WithBatchSize_LooksUpRatesOncePerBatch(TestSetup testSetup)
+            throws Exception {
+        FakeForeignExchange fakeForeignExchange = new FakeForeignExchange();
+        testSetup.inject().fieldName("foreignExchange").dependency(fakeForeignExchange).add();
+
+        TestResult testResult = testSetup.test();
+        assertNull(testResult.getException());
+
+        // all three documents fit into one batch
+        assertEquals(1, fakeForeignExchange.bulkLookups);
+    }
+
+    @TestFixture(snap = CurrencyConverter.class,
+            input = "data/currency_converter/input_documents.json",
+            outputs = "output0",
+            expectedOutputPath = "data/currency_converter",
+            properties = "data/currency_converter/pipelined_properties.json")
+    public void currencyConversion_WithMaxInFlight_WritesInInputOrder(TestSetup testSetup)
+            throws Exception {
+        // the first document's rates arrive last, yet it must still be written first
+        DelayedForeignExchange delayedForeignExchange = new DelayedForeignExchange("AUD");
+        testSetup.inject().fieldName("foreignExchange").dependency(delayedForeignExchange).add();
+
+        TestResult testResult = testSetup.test();
+        assertNull(testResult.getException());
+
+        assertEquals(2, delayedForeignExchange.maxInFlight.get());
+    }
+
+    // the ForEx the Snap binds itself looks up rates on its own threads; they are random, but
+    // each document keeps its place and target currency
+    @TestFixture(snap = CurrencyConverter.class,
+            input = "data/currency_converter/input_documents.json",
+            outputs = "output0",
+            properties = "data/currency_converter/pipelined_properties.json")
+    public void currencyConversion_WithMaxInFlightAndBoundForEx_WritesInInputOrder(
+            TestResult testResult) throws Exception {
+        assertNull(testResult.getException());
+        List<Object> output = testResult.getOutputViewByName("output0").getRecordedData();
+        List<Object> currencies = new ArrayList<>();
+        for (Object document : output) {
+            currencies.addAll(((Map<?, ?>) document).keySet());
+        }
+        assertEquals(Arrays.asList("AUD", "GBP", "EUR"), currencies);
+    }
+
+    // the lookups fail while no rates are known to fall back on, which fails only the documents
+    @TestFixture(snap = CurrencyConverter.class,
+            input = "data/currency_converter/input_documents.json",
+            outputs = "output0",
+            errors = "error0")
+    public void currencyConversion_WhenLookupsFail_WritesDocumentsToErrorView(
+            TestSetup testSetup) throws Exception {
+        ForEx forExMock = createMock(ForEx.class);
+        expect(forExMock.getExchangeRates(anyString()))
+                .andThrow(new IllegalStateException("unavailable")).anyTimes();
+        replay(forExMock);
+        testSetup.inject().fieldName("foreignExchange").dependency(forExMock).add();
+        testSetup.setPropertyValue("lookupTimeout", BigInteger.valueOf(1000));
+
+        TestResult testResult = testSetup.test();
+        assertNull(testResult.getException());
+        assertEquals(0, testResult.getOutputViewByName("output0").getDocumentCount());
+        assertEquals(3, testResult.getErrorViewByName("error0").getDocumentCount());
+    }
+
     public static class FakeForeignExchangeInjector extends AbstractModule {
         FakeForeignExchange fakeForeignExchange = new FakeForeignExchange();
 
@@ -96,6 +216,7 @@ public class CurrencyConverterTest {
 
     public static class FakeForeignExchange implements ForEx {
         private Map<String, Object> rate;
+        int bulkLookups;
 
         public FakeForeignExchange() {
             rate = new LinkedHashMap<>();
@@ -115,6 +236,49 @@ public class CurrencyConverterTest {
 
             return rate;
         }
+
+        @Override
+        public Map<String, Map<String, Object>> getAllExchangeRates(Set<String> currencyCodes) {
+            bulkLookups++;
+            Map<String, Map<String, Object>> rates = new LinkedHashMap<>();
+            for (String currencyCode : currencyCodes) {
+                rates.put(currencyCode, getExchangeRates(currencyCode));
+            }
+            return rates;
+        }
+    }
+
+    public static class DelayedForeignExchange extends FakeForeignExchange {
+        private final String delayedCurrency;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        public DelayedForeignExchange(String delayedCurrency) {
+            this.delayedCurrency = delayedCurrency;
+        }
+
+        @Override
+        public CompletableFuture<Map<String, Object>> getExchangeRatesAsync(
+                final String currencyCode) {
+            final CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+            int current = inFlight.incrementAndGet();
+            if (current > maxInFlight.get()) {
+                maxInFlight.set(current);
+            }
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(currencyCode.equals(delayedCurrency) ? 200 : 10);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    inFlight.decrementAndGet();
+                    future.complete(getExchangeRates(currencyCode));
+                }
+            }).start();
+            return future;
+        }
     }
 
     public static class ExchangeRatesSupplier implements Supplier<String[]> {
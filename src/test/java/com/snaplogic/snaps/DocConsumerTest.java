@@ -10,6 +10,7 @@
  */
 package com.snaplogic.snaps;
 
+import com.snaplogic.snap.test.harness.OutputRecorder;
 import com.snaplogic.snap.test.harness.SnapTestRunner;
 import com.snaplogic.snap.test.harness.TestFixture;
 import com.snaplogic.snap.test.harness.TestResult;
@@ -43,4 +44,17 @@ public class DocConsumerTest {
         assertNull(testResult.getException());
         assertEquals(4, count.get());
     }
+
+    @TestFixture(snap = DocConsumer.class,
+            errors = "error0")
+    public void docConsumer_WithSummaryToErrorView_WritesSummary(TestSetup testSetup)
+            throws Exception {
+        testSetup.addInputView("input0", Arrays.<Object>asList("1", "2", "3"));
+        testSetup.setPropertyValue("summary", "Error view");
+
+        TestResult testResult = testSetup.test();
+        assertNull(testResult.getException());
+        OutputRecorder errorRecorder = testResult.getErrorViewByName("error0");
+        assertEquals(1, errorRecorder.getDocumentCount());
+    }
 }
\ No newline at end of file
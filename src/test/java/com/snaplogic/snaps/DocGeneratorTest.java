@@ -10,14 +10,19 @@
  */
 package com.snaplogic.snaps;
 
+import com.google.common.collect.ImmutableMap;
 import com.snaplogic.snap.test.harness.OutputRecorder;
 import com.snaplogic.snap.test.harness.SnapTestRunner;
 import com.snaplogic.snap.test.harness.TestFixture;
 import com.snaplogic.snap.test.harness.TestResult;
+import com.snaplogic.snap.test.harness.TestSetup;
 
 import org.junit.Ignore;
 import org.junit.runner.RunWith;
 
+import java.math.BigDecimal;
+import java.util.Arrays;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
@@ -64,6 +69,49 @@ public class DocGeneratorTest {
             throws Exception {
     }
 
+    // the same seed always generates the same documents from a template
+    @TestFixture(snap = DocGenerator.class,
+            outputs = "output0",
+            expectedOutputPath = "data/doc_generator",
+            properties = "data/doc_generator/doc_generator_template_properties.json")
+    public void docGenerator_WithTemplate_OutputsSeededDocuments() throws Exception {
+    }
+
+    // the second of two partitions holds the last three of the six documents of the seed
+    @TestFixture(snap = DocGenerator.class,
+            outputs = "output0",
+            expectedOutputPath = "data/doc_generator",
+            properties = "data/doc_generator/doc_generator_partition_properties.json")
+    public void docGenerator_WithPartitionAndWorkers_OutputsPartitionInOrder() throws Exception {
+    }
+
+    // each input document's quantity is the number of documents generated as its children
+    @TestFixture(snap = DocGenerator.class,
+            input = "data/doc_generator/order_documents.json",
+            outputs = "output0",
+            expectedOutputPath = "data/doc_generator",
+            properties = "data/doc_generator/doc_generator_per_input_properties.json")
+    public void docGenerator_WithPerInputDocumentMode_OutputsChildrenOfEachInput()
+            throws Exception {
+    }
+
+    // a count of 1.5 is not truncated to one document, but fails its input document
+    @TestFixture(snap = DocGenerator.class,
+            outputs = "output0",
+            errors = "error0",
+            properties = "data/doc_generator/doc_generator_per_input_properties.json")
+    public void docGenerator_WithFractionalCountPerInputDocument_WritesErrorDocument(
+            TestSetup testSetup) throws Exception {
+        testSetup.addInputView("input0", Arrays.<Object>asList(
+                ImmutableMap.of("id", "A-1", "quantity", new BigDecimal("1.5")),
+                ImmutableMap.of("id", "B-2", "quantity", new BigDecimal("2.0"))));
+
+        TestResult testResult = testSetup.test();
+        assertNull(testResult.getException());
+        assertEquals(2, testResult.getOutputViewByName("output0").getDocumentCount());
+        assertEquals(1, testResult.getErrorViewByName("error0").getDocumentCount());
+    }
+
     // "expectedErrorPath" specifies the folder that contains the
     // "docGenerator_WithExpectedErrorPath_OutputsErrorDocumentCorrectly-err.json" file
     @TestFixture(snap = DocGenerator.class,
@@ -0,0 +1,77 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building synthetic documents field by field, with strings generated for each
+ * document, with generating them from a compiled {@link DocumentTemplate}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentTemplateBenchmark {
+    private static final String ALPHANUMERIC =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+    @Param({"10", "50"})
+    public int fieldCount;
+
+    @Param({"16", "256"})
+    public int valueSize;
+
+    private final Random random = new Random(42);
+    private DocumentTemplate template;
+    private long index;
+
+    @Setup
+    public void setUp() {
+        template = DocumentTemplate.compile(DocumentTemplate.synthetic(fieldCount, 0, valueSize),
+                42);
+    }
+
+    @Benchmark
+    public Map<String, Object> fieldByField() {
+        Map<String, Object> document = new LinkedHashMap<>();
+        char[] chars = new char[valueSize];
+        for (int i = 1; i <= fieldCount; i++) {
+            for (int j = 0; j < valueSize; j++) {
+                chars[j] = ALPHANUMERIC.charAt(random.nextInt(ALPHANUMERIC.length()));
+            }
+            document.put("field" + i, new String(chars));
+        }
+        return document;
+    }
+
+    @Benchmark
+    public Object template() {
+        return template.generate(index++);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link DocumentTemplate} fills in placeholders deterministically and shares the
+ * constant parts of a template.
+ */
+public class DocumentTemplateTest {
+
+    @Test
+    public void generate_WithSameSeedAndIndex_GeneratesSameDocument() {
+        Map<String, Object> template = template();
+        DocumentTemplate first = DocumentTemplate.compile(template, 7);
+        DocumentTemplate second = DocumentTemplate.compile(template, 7);
+
+        for (long index : new long[]{0, 1, 1000, Long.MAX_VALUE - 1}) {
+            assertEquals(first.generate(index), second.generate(index));
+        }
+        assertTrue(!first.generate(0).equals(first.generate(1)));
+        assertTrue(!first.generate(0).equals(DocumentTemplate.compile(template, 8).generate(0)));
+    }
+
+    @Test
+    public void generate_WithPlaceholders_GeneratesValuesInRange() {
+        DocumentTemplate documentTemplate = DocumentTemplate.compile(template(), 7);
+
+        for (long index = 0; index < 1000; index++) {
+            Map<?, ?> document = (Map<?, ?>) documentTemplate.generate(index);
+            assertEquals(index + 1, document.get("id"));
+            int quantity = (Integer) document.get("quantity");
+            assertTrue(quantity >= 1 && quantity < 10);
+            double price = (Double) document.get("price");
+            assertTrue(price >= 0 && price < 1);
+            assertTrue(document.get("active") instanceof Boolean);
+            assertTrue(((String) document.get("name")).matches("[A-Za-z0-9]{8}"));
+            assertEquals(36, ((String) document.get("uuid")).length());
+            assertTrue(Arrays.asList("red", "green", "blue").contains(document.get("color")));
+            assertEquals("demo", document.get("source"));
+        }
+    }
+
+    @Test
+    public void generate_WithConstantObject_SharesIt() {
+        DocumentTemplate documentTemplate = DocumentTemplate.compile(template(), 7);
+
+        Map<?, ?> first = (Map<?, ?>) documentTemplate.generate(0);
+        Map<?, ?> second = (Map<?, ?>) documentTemplate.generate(1);
+
+        assertSame(first.get("tags"), second.get("tags"));
+        assertEquals(Arrays.asList("load", "test"), first.get("tags"));
+    }
+
+    @Test
+    public void synthetic_WithNesting_GeneratesNestedFields() {
+        DocumentTemplate documentTemplate =
+                DocumentTemplate.compile(DocumentTemplate.synthetic(3, 2, 5), 1);
+
+        Map<?, ?> document = (Map<?, ?>) documentTemplate.generate(0);
+        for (int depth = 0; depth <= 2; depth++) {
+            assertEquals(depth < 2 ? 4 : 3, document.size());
+            assertEquals(5, ((String) document.get("field3")).length());
+            document = (Map<?, ?>) document.get("nested");
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compile_WithUnknownPlaceholder_Throws() {
+        Map<String, Object> template = new LinkedHashMap<>();
+        template.put("date", "${date}");
+        DocumentTemplate.compile(template, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compile_WithEmptyIntRange_Throws() {
+        Map<String, Object> template = new LinkedHashMap<>();
+        template.put("quantity", "${int:5:5}");
+        DocumentTemplate.compile(template, 0);
+    }
+
+    private static Map<String, Object> template() {
+        Map<String, Object> template = new LinkedHashMap<>();
+        template.put("id", "${sequence}");
+        template.put("quantity", "${int:1:10}");
+        template.put("price", "${double}");
+        template.put("active", "${boolean}");
+        template.put("name", "${string:8}");
+        template.put("uuid", "${uuid}");
+        template.put("color", "${choice:red|green|blue}");
+        template.put("source", "demo");
+        List<String> tags = Arrays.asList("load", "test");
+        template.put("tags", tags);
+        return template;
+    }
+}
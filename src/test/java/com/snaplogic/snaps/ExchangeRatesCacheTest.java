@@ -0,0 +1,235 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests that the {@link ExchangeRatesCache} loads each file once, reloads it once stale or, for
+ * watched files, once changed, and evicts it once no lease is left and it is stale.
+ */
+public class ExchangeRatesCacheTest {
+    private static final URI RATES_URI = URI.create("file:///exchange_rates_file.json");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final FakeTicker ticker = new FakeTicker();
+    private final ExchangeRatesCache cache =
+            new ExchangeRatesCache(ticker, MoreExecutors.directExecutor());
+
+    @Test
+    public void get_WithinTtl_LoadsFileOnce() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        ExchangeRatesCache.Lease lease = cache.acquire(RATES_URI, 1000, loader);
+        for (int i = 0; i < 10; i++) {
+            lease.get();
+        }
+
+        assertEquals(1, loader.loads);
+        assertEquals(1, cache.missCount());
+        assertEquals(9, cache.hitCount());
+        assertEquals(0, cache.reloadCount());
+    }
+
+    @Test
+    public void get_AfterTtl_ServesStaleRatesAndReloads() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        ExchangeRatesCache.Lease lease = cache.acquire(RATES_URI, 1000, loader);
+        assertEquals("1", lease.get().getDate());
+
+        ticker.advance(TimeUnit.SECONDS.toNanos(2));
+
+        // the stale value is returned while the reload runs
+        assertEquals("1", lease.get().getDate());
+        assertEquals("2", lease.get().getDate());
+        assertEquals(2, loader.loads);
+        assertEquals(1, cache.reloadCount());
+    }
+
+    @Test
+    public void get_WhenReloadFails_KeepsPreviousRates() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        ExchangeRatesCache.Lease lease = cache.acquire(RATES_URI, 1000, loader);
+        lease.get();
+        ticker.advance(TimeUnit.SECONDS.toNanos(2));
+
+        loader.fail = true;
+        assertEquals("1", lease.get().getDate());
+        assertEquals("1", lease.get().getDate());
+        assertEquals(0, cache.reloadCount());
+    }
+
+    @Test
+    public void get_WithLeasesOfTwoSnaps_SharesRates() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        ExchangeRatesCache.Lease first = cache.acquire(RATES_URI, 1000, loader);
+        ExchangeRatesCache.Lease second = cache.acquire(RATES_URI, 1000, loader);
+
+        assertSame(first.get(), second.get());
+        assertEquals(1, loader.loads);
+    }
+
+    @Test
+    public void acquire_InSequentialExecutions_LoadsFileOnce() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        for (int execution = 0; execution < 2; execution++) {
+            try (ExchangeRatesCache.Lease lease = cache.acquire(RATES_URI, 1000, loader)) {
+                assertEquals("1", lease.get().getDate());
+            }
+            assertEquals(1, cache.size());
+        }
+
+        assertEquals(1, loader.loads);
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void acquire_AfterTtlOfClosedLease_EvictsEntry() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        ExchangeRatesCache.Lease first = cache.acquire(RATES_URI, 1000, loader);
+        ExchangeRatesCache.Lease second = cache.acquire(RATES_URI, 1000, loader);
+        first.get();
+        first.close();
+        first.close();
+        second.close();
+        assertEquals(1, cache.size());
+
+        ticker.advance(TimeUnit.SECONDS.toNanos(2));
+
+        // the expired entry is evicted, so the new lease loads the file again
+        assertEquals("2", cache.acquire(RATES_URI, 1000, loader).get().getDate());
+        assertEquals(2, cache.missCount());
+        assertEquals(0, cache.reloadCount());
+    }
+
+    @Test
+    public void acquire_AfterFileChangedWhileNotWatched_ReloadsIt() throws Exception {
+        File file = temporaryFolder.newFile("exchange_rates_file.json");
+        writeRates(file, "2015-09-11");
+        ExchangeRatesCache.Loader loader = new FileLoader(file);
+        try {
+            try (ExchangeRatesCache.Lease lease = cache.acquire(file.toURI(), Long.MAX_VALUE,
+                    loader)) {
+                assertEquals("2015-09-11", lease.get().getDate());
+            }
+
+            writeRates(file, "2015-09-14");
+            FileTime modified = Files.getLastModifiedTime(file.toPath());
+            Files.setLastModifiedTime(file.toPath(),
+                    FileTime.fromMillis(modified.toMillis() + TimeUnit.HOURS.toMillis(1)));
+
+            try (ExchangeRatesCache.Lease lease = cache.acquire(file.toURI(), Long.MAX_VALUE,
+                    loader)) {
+                // the reload runs once the current rates were served
+                assertEquals("2015-09-11", lease.get().getDate());
+                assertEquals("2015-09-14", lease.get().getDate());
+            }
+            assertEquals(1, cache.reloadCount());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void get_WhenWatchedFileChanges_ReloadsThroughLoader() throws Exception {
+        File file = temporaryFolder.newFile("exchange_rates_file.json");
+        writeRates(file, "2015-09-11");
+        FileLoader loader = new FileLoader(file);
+        // the time-to-live alone would never reload the file
+        try (ExchangeRatesCache.Lease lease = cache.acquire(file.toURI(), Long.MAX_VALUE,
+                loader)) {
+            assertEquals("2015-09-11", lease.get().getDate());
+            assertEquals("2015-09-11", lease.get().getDate());
+            assertEquals(1, loader.loads.get());
+
+            writeRates(file, "2015-09-14");
+            long deadline = System.currentTimeMillis() + 30000;
+            while (!"2015-09-14".equals(lease.get().getDate())
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+
+            assertEquals("2015-09-14", lease.get().getDate());
+            assertEquals(1, cache.missCount());
+        } finally {
+            cache.close();
+        }
+    }
+
+    private static void writeRates(File file, String date) throws IOException {
+        Files.write(file.toPath(), date.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long delta) {
+            nanos += delta;
+        }
+    }
+
+    // the date of the rates is the content of the file
+    private static class FileLoader implements ExchangeRatesCache.Loader {
+        private final File file;
+        private final AtomicInteger loads = new AtomicInteger();
+
+        FileLoader(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public ExchangeRates load(URI uri) throws IOException {
+            assertEquals(file.toURI(), uri);
+            loads.incrementAndGet();
+            return ExchangeRates.of("USD", new String(Files.readAllBytes(file.toPath()),
+                    StandardCharsets.UTF_8), Collections.<String, Double>emptyMap());
+        }
+    }
+
+    private static class CountingLoader implements ExchangeRatesCache.Loader {
+        private int loads;
+        private boolean fail;
+
+        @Override
+        public ExchangeRates load(URI uri) throws IOException {
+            if (fail) {
+                throw new IOException("unavailable");
+            }
+            loads++;
+            return ExchangeRates.of("USD", String.valueOf(loads),
+                    Collections.singletonMap("EUR", 0.88747));
+        }
+    }
+}
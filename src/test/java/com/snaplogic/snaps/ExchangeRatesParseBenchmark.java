@@ -0,0 +1,105 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading an exchange rates file into a map with streaming only its rates into
+ * {@link ExchangeRates}.
+ *
+ * <p>The generated file holds the current rates of 170 currencies plus a block of historical
+ * rates for the given number of days. The gc profiler's {@code gc.alloc.rate.norm} is the number
+ * of bytes allocated per load.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class ExchangeRatesParseBenchmark {
+    private static final int CURRENCIES = 170;
+
+    @Param({"0", "365", "3650"})
+    public int historicalDays;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final TypeReference<Map<String, Object>> mapTypeReference =
+            new TypeReference<Map<String, Object>>() {
+            };
+    private byte[] file;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonGenerator generator = mapper.getFactory().createGenerator(out);
+        generator.writeStartObject();
+        generator.writeStringField("base", "USD");
+        generator.writeStringField("date", "2016-09-12");
+        generator.writeObjectFieldStart("historical");
+        for (int day = 0; day < historicalDays; day++) {
+            generator.writeObjectFieldStart("day-" + day);
+            writeRates(generator, random);
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+        generator.writeObjectFieldStart("rates");
+        writeRates(generator, random);
+        generator.writeEndObject();
+        generator.writeEndObject();
+        generator.close();
+        file = out.toByteArray();
+    }
+
+    @Benchmark
+    public Map<String, Object> readValue() throws IOException {
+        return mapper.readValue(file, mapTypeReference);
+    }
+
+    @Benchmark
+    public ExchangeRates streaming() throws IOException {
+        JsonParser parser = mapper.getFactory().createParser(file);
+        try {
+            return ExchangeRates.read(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static void writeRates(JsonGenerator generator, Random random) throws IOException {
+        for (int i = 0; i < CURRENCIES; i++) {
+            generator.writeNumberField(String.format("C%02d", i), 100 * random.nextDouble());
+        }
+    }
+}
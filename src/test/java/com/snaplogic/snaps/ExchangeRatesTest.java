@@ -0,0 +1,92 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the streaming parse of exchange rate payloads by {@link ExchangeRates}.
+ */
+public class ExchangeRatesTest {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Test
+    public void read_WithOtherFields_KeepsOnlyBaseDateAndRates() throws Exception {
+        ExchangeRates rates = read("{\"disclaimer\":\"none\","
+                + "\"historical\":{\"2015-09-10\":{\"AUD\":1.4,\"GBP\":[0.6,0.7]}},"
+                + "\"base\":\"USD\",\"date\":\"2015-09-11\","
+                + "\"rates\":{\"GBP\":0.64838,\"AUD\":1.416,\"IDR\":14301,\"XXX\":null},"
+                + "\"sources\":[{\"rates\":{\"AUD\":2}}]}");
+
+        assertEquals("USD", rates.getBase());
+        assertEquals("2015-09-11", rates.getDate());
+        assertEquals(3, rates.size());
+        assertEquals(1.416, rates.get("AUD"), 0);
+        assertEquals(0.64838, rates.get("GBP"), 0);
+        assertEquals(14301, rates.get("IDR"), 0);
+        assertTrue(Double.isNaN(rates.get("XXX")));
+        assertTrue(Double.isNaN(rates.get("EUR")));
+    }
+
+    @Test
+    public void read_WithRepeatedCurrency_KeepsLastRate() throws Exception {
+        ExchangeRates rates = read("{\"rates\":{\"EUR\":0.8,\"AUD\":1.4,\"EUR\":0.88747}}");
+
+        assertNull(rates.getBase());
+        assertEquals(2, rates.size());
+        assertEquals("AUD", rates.code(0));
+        assertEquals("EUR", rates.code(1));
+        assertEquals(0.88747, rates.rate(rates.indexOf("EUR")), 0);
+    }
+
+    @Test
+    public void read_WithManyCurrencies_FindsEachRate() throws Exception {
+        StringBuilder json = new StringBuilder("{\"rates\":{");
+        for (int i = 0; i < 1000; i++) {
+            json.append(i == 0 ? "" : ",").append("\"C").append(i).append("\":").append(i);
+        }
+        ExchangeRates rates = read(json.append("}}").toString());
+
+        assertEquals(1000, rates.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, rates.get("C" + i), 0);
+        }
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void read_WithoutRates_Throws() throws Exception {
+        read("{\"base\":\"USD\",\"date\":\"2015-09-11\"}");
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void read_WithArray_Throws() throws Exception {
+        read("[{\"rates\":{}}]");
+    }
+
+    private static ExchangeRates read(String json) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(json);
+        try {
+            return ExchangeRates.read(parser);
+        } finally {
+            parser.close();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the order {@link FairInputDrain} passes on the documents of its inputs in.
+ */
+public class FairInputDrainTest {
+    private static final long TIMEOUT = 10000;
+
+    @Test(timeout = TIMEOUT)
+    public void drain_WithEqualWeights_AlternatesInputs() throws Exception {
+        Input first = new Input("a1", "a2", "a3");
+        Input second = new Input("b1", "b2", "b3");
+        Events events = drain(Arrays.asList(first, second), new int[] {1, 1});
+
+        assertEquals(ImmutableList.of("a1", "b1", "a2", "b2", "a3", "b3"), events.documents);
+        events.assertEndsFollowDocuments(2);
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void drain_WithWeights_TakesInputsInProportion() throws Exception {
+        Input first = new Input("a1", "a2", "a3", "a4", "a5", "a6");
+        Input second = new Input("b1", "b2", "b3");
+        Events events = drain(Arrays.asList(first, second), new int[] {2, 1});
+
+        assertEquals(ImmutableList.of("a1", "b1", "a2", "a3", "b2", "a4", "a5", "b3", "a6"),
+                events.documents);
+        events.assertEndsFollowDocuments(2);
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void drain_WithBlockedInput_PassesOnOtherInput() throws Exception {
+        final CountDownLatch unblock = new CountDownLatch(1);
+        // its second document only comes once the other input was passed on in full
+        Iterator<String> blocked = new Iterator<String>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == 1) {
+                    await(unblock);
+                }
+                return next < 2;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return "a" + ++next;
+            }
+        };
+        Input other = new Input("b1", "b2", "b3");
+        final List<String> documents = new ArrayList<>();
+        try (FairInputDrain<String> drain = new FairInputDrain<>(
+                Arrays.asList(blocked, other), new int[] {1, 1}, 2)) {
+            drain.drain(new FairInputDrain.Sink<String>() {
+                @Override
+                public void accept(String document, int input) {
+                    documents.add(document);
+                }
+
+                @Override
+                public void end(int input) {
+                    if (input == 1) {
+                        unblock.countDown();
+                    }
+                }
+            });
+        }
+        assertEquals(5, documents.size());
+        assertEquals("a2", documents.get(4));
+        List<String> others = new ArrayList<>(documents.subList(0, 4));
+        others.remove("a1");
+        assertEquals(ImmutableList.of("b1", "b2", "b3"), others);
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void drain_WithInputNotTaken_ReadsUpToCapacity() throws Exception {
+        final AtomicInteger read = new AtomicInteger();
+        Iterator<String> endless = new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                return "a" + read.incrementAndGet();
+            }
+        };
+        try (FairInputDrain<String> ignored = new FairInputDrain<>(
+                Arrays.asList(endless), new int[] {1}, 4)) {
+            Thread.sleep(200);
+            // the reader waits to queue the document after the queue's four
+            assertTrue("read " + read.get(), read.get() <= 5);
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void drain_WithFailedInput_ThrowsAfterDocumentsReadBefore() throws Exception {
+        Iterator<String> failing = new Iterator<String>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                if (next == 2) {
+                    throw new IllegalStateException("upstream failed");
+                }
+                return "a" + ++next;
+            }
+        };
+        final List<String> documents = new ArrayList<>();
+        try (FairInputDrain<String> drain = new FairInputDrain<>(
+                Arrays.asList(failing, new Input()), new int[] {1, 1}, 4)) {
+            drain.drain(new FairInputDrain.Sink<String>() {
+                @Override
+                public void accept(String document, int input) {
+                    documents.add(document);
+                }
+
+                @Override
+                public void end(int input) {
+                    assertEquals(1, input);
+                }
+            });
+            fail("The failure of the first input was not thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("upstream failed", e.getMessage());
+        }
+        assertEquals(ImmutableList.of("a1", "a2"), documents);
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void drain_WithInputFailedWithError_ThrowsIt() throws Exception {
+        Iterator<String> failing = new Iterator<String>() {
+            private boolean read;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                if (read) {
+                    throw new StackOverflowError("upstream failed");
+                }
+                read = true;
+                return "a1";
+            }
+        };
+        final List<String> documents = new ArrayList<>();
+        try (FairInputDrain<String> drain = new FairInputDrain<>(
+                Arrays.asList(failing), new int[] {1}, 4)) {
+            drain.drain(new FairInputDrain.Sink<String>() {
+                @Override
+                public void accept(String document, int input) {
+                    documents.add(document);
+                }
+
+                @Override
+                public void end(int input) {
+                    fail("The failed input was ended");
+                }
+            });
+            fail("The error of the input was not thrown");
+        } catch (StackOverflowError e) {
+            assertEquals("upstream failed", e.getMessage());
+        }
+        assertEquals(ImmutableList.of("a1"), documents);
+    }
+
+    // drains once every input was queued in full, so that the order does not depend on timing
+    private static Events drain(List<Input> inputs, int[] weights) throws InterruptedException {
+        final Events events = new Events();
+        try (FairInputDrain<String> drain = new FairInputDrain<>(inputs, weights, 16)) {
+            for (Input input : inputs) {
+                input.read.await();
+            }
+            drain.drain(new FairInputDrain.Sink<String>() {
+                @Override
+                public void accept(String document, int input) {
+                    events.all.add(document);
+                    events.documents.add(document);
+                }
+
+                @Override
+                public void end(int input) {
+                    events.all.add("end" + input);
+                }
+            });
+        }
+        return events;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Not unblocked");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The documents and ends passed on, in order.
+     */
+    private static final class Events {
+        private final List<String> all = new ArrayList<>();
+        private final List<String> documents = new ArrayList<>();
+
+        // documents of input i start with the i-th letter
+        void assertEndsFollowDocuments(int inputs) {
+            for (int i = 0; i < inputs; i++) {
+                int end = all.indexOf("end" + i);
+                assertTrue("no end of input " + i, end >= 0);
+                assertEquals(end, all.lastIndexOf("end" + i));
+                for (int j = end + 1; j < all.size(); j++) {
+                    assertTrue(all.get(j).charAt(0) != (char) ('a' + i));
+                }
+            }
+        }
+    }
+
+    /**
+     * An input of a list of documents, which counts down once all of them were read.
+     */
+    private static final class Input implements Iterator<String> {
+        private final Iterator<String> documents;
+        private final CountDownLatch read = new CountDownLatch(1);
+
+        Input(String... documents) {
+            this.documents = Arrays.asList(documents).iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (documents.hasNext()) {
+                return true;
+            }
+            read.countDown();
+            return false;
+        }
+
+        @Override
+        public String next() {
+            return documents.next();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that {@link FixedPointArithmetic} produces the same results as multiplying with
+ * {@link BigDecimal} and rounding the product.
+ */
+public class FixedPointArithmeticTest {
+    private static final RoundingMode[] ROUNDING_MODES = {RoundingMode.UP, RoundingMode.DOWN,
+            RoundingMode.CEILING, RoundingMode.FLOOR, RoundingMode.HALF_UP,
+            RoundingMode.HALF_DOWN, RoundingMode.HALF_EVEN};
+
+    @Test
+    public void multiply_WithRandomOperands_MatchesBigDecimal() {
+        Random random = new Random(42);
+        for (RoundingMode roundingMode : ROUNDING_MODES) {
+            for (int scale = 0; scale <= 8; scale++) {
+                FixedPointArithmetic arithmetic = new FixedPointArithmetic(scale, roundingMode);
+                for (int i = 0; i < 2000; i++) {
+                    double amount = (random.nextBoolean() ? 1 : -1)
+                            * randomDecimal(random, 1000000, random.nextInt(5));
+                    double rate = randomDecimal(random, 200, 1 + random.nextInt(12));
+                    assertEquals(amount + " * " + rate + " " + roundingMode + " scale " + scale,
+                            expected(amount, rate, scale, roundingMode),
+                            arithmetic.multiply(amount, rate));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void multiply_WithOverflowingProduct_FallsBackToBigDecimal() {
+        FixedPointArithmetic arithmetic = new FixedPointArithmetic(6, RoundingMode.HALF_EVEN);
+
+        Long amount = Long.MAX_VALUE / 10;
+
+        assertEquals(new BigDecimal("111335323856873998681.800000"),
+                arithmetic.multiply(amount, Double.valueOf(120.71)));
+    }
+
+    @Test
+    public void multiply_WithIntegralOperands_RoundsToScale() {
+        FixedPointArithmetic arithmetic = new FixedPointArithmetic(2, RoundingMode.HALF_EVEN);
+
+        assertEquals(new BigDecimal("8873.81"), arithmetic.multiply(9999, 0.88747));
+        assertEquals(new BigDecimal("-250.00"), arithmetic.multiply(-25L, 10));
+    }
+
+    @Test
+    public void multiply_WithBigDecimalOperands_RoundsToScale() {
+        FixedPointArithmetic arithmetic = new FixedPointArithmetic(4, RoundingMode.HALF_UP);
+
+        assertEquals(new BigDecimal("16.4176"),
+                arithmetic.multiply(12.345, BigDecimal.valueOf(1.3299)));
+        assertEquals(new BigDecimal("32758.9147"),
+                arithmetic.multiply(BigDecimal.valueOf(43534.02), 0.75249));
+    }
+
+    @Test
+    public void multiply_WithParsedOperands_MatchesBigDecimal() {
+        Random random = new Random(7);
+        for (RoundingMode roundingMode : ROUNDING_MODES) {
+            FixedPointArithmetic arithmetic = new FixedPointArithmetic(4, roundingMode);
+            for (int i = 0; i < 2000; i++) {
+                // as parsed from documents, including unscaled values too large for a long
+                BigDecimal amount = new BigDecimal(BigInteger.valueOf(random.nextLong())
+                        .shiftLeft(random.nextInt(3)), random.nextInt(12));
+                BigDecimal rate = BigDecimal.valueOf(random.nextInt(2000000), random.nextInt(8));
+                BigInteger wholeAmount = BigInteger.valueOf(random.nextInt());
+                FixedPointArithmetic.Rate prepared = new FixedPointArithmetic.Rate(rate);
+
+                BigDecimal expected = amount.multiply(rate).setScale(4, roundingMode);
+                assertEquals(amount + " * " + rate, expected, arithmetic.multiply(amount, rate));
+                assertEquals(amount + " * " + rate, expected,
+                        arithmetic.multiply(amount, prepared));
+                assertEquals(wholeAmount + " * " + rate,
+                        new BigDecimal(wholeAmount).multiply(rate).setScale(4, roundingMode),
+                        arithmetic.multiply(wholeAmount, prepared));
+            }
+        }
+    }
+
+    @Test
+    public void divide_WithEachRoundingMode_MatchesBigDecimal() {
+        long[] dividends = {15, -15, 25, -25, 14, -14, 16, -16, 10, -10};
+        for (RoundingMode roundingMode : ROUNDING_MODES) {
+            for (long dividend : dividends) {
+                assertEquals(dividend + " " + roundingMode,
+                        BigDecimal.valueOf(dividend).divide(BigDecimal.TEN, 0, roundingMode)
+                                .longValueExact(),
+                        FixedPointArithmetic.divide(dividend, 10, roundingMode));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_WithScaleAboveMaximum_Throws() {
+        new FixedPointArithmetic(FixedPointArithmetic.MAX_SCALE + 1, RoundingMode.HALF_EVEN);
+    }
+
+    private static double randomDecimal(Random random, int bound, int decimals) {
+        return BigDecimal.valueOf(random.nextInt(bound))
+                .add(BigDecimal.valueOf(Math.abs(random.nextLong()) % 1000000000000L, 12))
+                .setScale(decimals, RoundingMode.DOWN)
+                .doubleValue();
+    }
+
+    private static BigDecimal expected(double amount, double rate, int scale,
+            RoundingMode roundingMode) {
+        return BigDecimal.valueOf(amount).multiply(BigDecimal.valueOf(rate))
+                .setScale(scale, roundingMode);
+    }
+}
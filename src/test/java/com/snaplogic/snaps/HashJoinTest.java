@@ -0,0 +1,264 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Ordering;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link HashJoin} joins like a nested loop over both sides does, whether the build
+ * side fits in memory, is spilled, or has a key too frequent to be partitioned.
+ */
+public class HashJoinTest {
+    // parses numbers as the platform's mapper does
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .enable(DeserializationFeature.USE_BIG_INTEGER_FOR_INTS)
+            .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+    private static final HashJoin.Adapter<Map<String, Object>> ADAPTER =
+            new HashJoin.Adapter<Map<String, Object>>() {
+                @Override
+                public Object key(Map<String, Object> document) {
+                    return document.get("key");
+                }
+
+                @Override
+                public Object data(Map<String, Object> document) {
+                    return document;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public Map<String, Object> restore(Object data) {
+                    return (Map<String, Object>) data;
+                }
+            };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void join_WithBuildSideInMemory_MatchesNestedLoopJoin() throws IOException {
+        List<Map<String, Object>> probe = documents("p", 200, 50, new Random(1));
+        List<Map<String, Object>> build = documents("b", 100, 50, new Random(2));
+
+        for (MergeJoin.Type type : MergeJoin.Type.values()) {
+            HashJoin<Map<String, Object>> join = join(type, 1024 * 1024);
+            assertEquals(nestedLoopJoin(type, probe, build), join(join, probe, build));
+            assertEquals(0, join.partitions());
+        }
+    }
+
+    @Test
+    public void join_WithBuildSideSpilled_MatchesNestedLoopJoin() throws IOException {
+        List<Map<String, Object>> probe = documents("p", 3000, 1000, new Random(3));
+        List<Map<String, Object>> build = documents("b", 2000, 1000, new Random(4));
+
+        for (MergeJoin.Type type : MergeJoin.Type.values()) {
+            HashJoin<Map<String, Object>> join = join(type, 16 * 1024);
+            assertEquals(nestedLoopJoin(type, probe, build), join(join, probe, build));
+            // partitioned at least twice, as the partitions are larger than the budget
+            assertTrue(join.partitions() > HashJoin.PARTITIONS);
+            assertTrue(join.spilledBytes() > 0);
+            assertEquals(3000, join.probeDocuments());
+        }
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void join_WithOneKeyLargerThanBudget_JoinsItInParts() throws IOException {
+        List<Map<String, Object>> probe = documents("p", 40, 2, new Random(5));
+        List<Map<String, Object>> build = documents("b", 400, 2, new Random(6));
+
+        for (MergeJoin.Type type : MergeJoin.Type.values()) {
+            assertEquals(nestedLoopJoin(type, probe, build),
+                    join(join(type, 4 * 1024), probe, build));
+        }
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void join_WithBuildSideSpilled_ReadsValuesBackAsTheMapperParsesThem()
+            throws IOException {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("id", "b0");
+        data.put("key", BigInteger.ONE);
+        data.put("count", BigInteger.valueOf(7));
+        data.put("price", new BigDecimal("1.50"));
+        data.put("large", new BigInteger("123456789012345678901234567890"));
+        List<Map<String, Object>> build = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            build.add(data);
+        }
+        final List<Map<String, Object>> restored = new ArrayList<>();
+
+        try (HashJoin<Map<String, Object>> join = join(MergeJoin.Type.INNER, 1024)) {
+            join.join(Collections.<Map<String, Object>>singletonList(
+                    ImmutableMap.<String, Object>of("id", "p0", "key", 1)).iterator(),
+                    build.iterator(),
+                    new MergeJoin.Handler<Map<String, Object>>() {
+                        @Override
+                        public void matched(Map<String, Object> left,
+                                Map<String, Object> right) {
+                            restored.add(right);
+                        }
+
+                        @Override
+                        public void unmatchedLeft(Map<String, Object> left) {
+                        }
+
+                        @Override
+                        public void unmatchedRight(Map<String, Object> right) {
+                        }
+
+                        @Override
+                        public void invalidKey(Map<String, Object> document,
+                                RuntimeException e) {
+                            throw new AssertionError(e);
+                        }
+
+                        @Override
+                        public void outOfOrder(Map<String, Object> document, Object key,
+                                Object previousKey) {
+                            throw new AssertionError("A hash join has no order");
+                        }
+                    });
+            assertTrue(join.spilledBytes() > 0);
+        }
+
+        assertEquals(200, restored.size());
+        for (Map<String, Object> right : restored) {
+            assertEquals(data, right);
+        }
+    }
+
+    @Test
+    public void normalize_WithNumbersOfEqualValue_ReturnsEqualKeys() {
+        assertEquals(3L, HashJoin.normalize(3));
+        assertEquals(3L, HashJoin.normalize(new BigDecimal("3.00")));
+        assertEquals(3L, HashJoin.normalize(3.0));
+        assertEquals(HashJoin.normalize(new BigDecimal("2.50")), HashJoin.normalize(2.5f));
+        assertEquals(new BigDecimal("1E+30"), HashJoin.normalize(new BigDecimal("1E+30")));
+        assertEquals("3", HashJoin.normalize("3"));
+    }
+
+    private HashJoin<Map<String, Object>> join(MergeJoin.Type type, long memoryBudget)
+            throws IOException {
+        File directory = folder.getRoot();
+        return new HashJoin<>(type, ADAPTER, memoryBudget, directory.toPath(), MAPPER);
+    }
+
+    private static List<String> join(HashJoin<Map<String, Object>> join,
+            List<Map<String, Object>> probe, List<Map<String, Object>> build)
+            throws IOException {
+        final List<String> joined = new ArrayList<>();
+        try {
+            join.join(probe.iterator(), build.iterator(),
+                    new MergeJoin.Handler<Map<String, Object>>() {
+                        @Override
+                        public void matched(Map<String, Object> left,
+                                Map<String, Object> right) {
+                            joined.add(left.get("id") + "+" + right.get("id"));
+                        }
+
+                        @Override
+                        public void unmatchedLeft(Map<String, Object> left) {
+                            joined.add(left.get("id") + "+");
+                        }
+
+                        @Override
+                        public void unmatchedRight(Map<String, Object> right) {
+                            joined.add("+" + right.get("id"));
+                        }
+
+                        @Override
+                        public void invalidKey(Map<String, Object> document,
+                                RuntimeException e) {
+                            joined.add("invalid:" + document.get("id"));
+                        }
+
+                        @Override
+                        public void outOfOrder(Map<String, Object> document, Object key,
+                                Object previousKey) {
+                            throw new AssertionError("A hash join has no order");
+                        }
+                    });
+        } finally {
+            join.close();
+        }
+        return Ordering.natural().sortedCopy(joined);
+    }
+
+    private static List<String> nestedLoopJoin(MergeJoin.Type type,
+            List<Map<String, Object>> probe, List<Map<String, Object>> build) {
+        List<String> joined = new ArrayList<>();
+        boolean[] buildMatched = new boolean[build.size()];
+        for (Map<String, Object> left : probe) {
+            boolean matched = false;
+            for (int i = 0; i < build.size(); i++) {
+                Object key = left.get("key");
+                if (key != null && HashJoin.normalize(key)
+                        .equals(HashJoin.normalize(build.get(i).get("key")))) {
+                    joined.add(left.get("id") + "+" + build.get(i).get("id"));
+                    matched = true;
+                    buildMatched[i] = true;
+                }
+            }
+            if (!matched && type != MergeJoin.Type.INNER) {
+                joined.add(left.get("id") + "+");
+            }
+        }
+        for (int i = 0; i < build.size(); i++) {
+            if (!buildMatched[i] && type == MergeJoin.Type.FULL_OUTER) {
+                joined.add("+" + build.get(i).get("id"));
+            }
+        }
+        return Ordering.natural().sortedCopy(joined);
+    }
+
+    // documents with keys of mixed types, some null, and nested data to spill
+    private static List<Map<String, Object>> documents(String prefix, int count, int keys,
+            Random random) {
+        List<Map<String, Object>> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int key = random.nextInt(keys);
+            Map<String, Object> document = new LinkedHashMap<>();
+            document.put("id", prefix + i);
+            document.put("key", random.nextInt(20) == 0 ? null :
+                    key % 3 == 0 ? "k" + key : key % 3 == 1 ? key : new BigDecimal(key + ".0"));
+            document.put("tags", ImmutableList.of("a", "b"));
+            document.put("values", Arrays.asList(random.nextDouble(), random.nextLong()));
+            documents.add(document);
+        }
+        return documents;
+    }
+}
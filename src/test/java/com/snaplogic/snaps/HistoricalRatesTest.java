@@ -0,0 +1,150 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the date lookups and the memory use of {@link HistoricalRates}.
+ */
+public class HistoricalRatesTest {
+    private static final int SEP_10 = HistoricalRates.toEpochDay("2015-09-10");
+    private static final int SEP_11 = HistoricalRates.toEpochDay("2015-09-11");
+    private static final int SEP_14 = HistoricalRates.toEpochDay("2015-09-14");
+
+    private static final HistoricalRates RATES = HistoricalRates.of(Arrays.asList(
+            ExchangeRates.of("USD", "2015-09-14", ImmutableMap.of("EUR", 0.8861, "GBP", 0.6491)),
+            ExchangeRates.of("USD", "2015-09-10", ImmutableMap.of("EUR", 0.8885)),
+            ExchangeRates.of("USD", "2015-09-11",
+                    ImmutableMap.of("EUR", 0.88747, "GBP", 0.64838))));
+
+    @Test
+    public void get_OnDayWithRates_ReturnsRatesOfThatDay() {
+        assertEquals(0.8885, RATES.get("EUR", SEP_10), 0);
+        assertEquals(0.88747, RATES.get("EUR", SEP_11), 0);
+        assertEquals(0.6491, RATES.get("GBP", SEP_14), 0);
+    }
+
+    @Test
+    public void get_OnDayWithoutRates_ReturnsRatesOfLatestEarlierDay() {
+        // 2015-09-12 and 13 fall on a weekend
+        assertEquals(0.88747, RATES.get("EUR", SEP_11 + 1), 0);
+        assertEquals(0.64838, RATES.get("GBP", SEP_14 - 1), 0);
+        assertEquals(0.8861, RATES.get("EUR", SEP_14 + 365), 0);
+    }
+
+    @Test
+    public void get_BeforeFirstRate_ReturnsNaN() {
+        assertTrue(Double.isNaN(RATES.get("EUR", SEP_10 - 1)));
+        assertTrue(Double.isNaN(RATES.get("GBP", SEP_10)));
+        assertTrue(Double.isNaN(RATES.get("JPY", SEP_14)));
+    }
+
+    @Test
+    public void get_BetweenCurrencies_ReturnsCrossRateOfThatDay() {
+        assertEquals(0.64838 / 0.88747, RATES.get("EUR", "GBP", SEP_11), 0);
+        assertEquals(1 / 0.8885, RATES.get("EUR", "USD", SEP_10), 0);
+        assertEquals(0.8885, RATES.get("USD", "EUR", SEP_10), 0);
+        assertEquals(0.8885, RATES.get(null, "EUR", SEP_10), 0);
+    }
+
+    @Test
+    public void of_WithRepeatedDay_KeepsLastRates() {
+        HistoricalRates rates = HistoricalRates.of(Arrays.asList(
+                ExchangeRates.of("USD", "2015-09-11", ImmutableMap.of("EUR", 0.8)),
+                ExchangeRates.of("USD", "2015-09-11", ImmutableMap.of("EUR", 0.88747))));
+
+        assertEquals(0.88747, rates.get("EUR", SEP_11), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void of_WithDifferentBaseCurrencies_Throws() {
+        HistoricalRates.of(Arrays.asList(
+                ExchangeRates.of("USD", "2015-09-11", ImmutableMap.of("EUR", 0.88747)),
+                ExchangeRates.of("EUR", "2015-09-14", ImmutableMap.of("USD", 1.1285))));
+    }
+
+    @Test
+    public void read_WithArrayOfDays_IndexesEachDay() throws Exception {
+        HistoricalRates rates = read("[{\"base\":\"USD\",\"date\":\"2015-09-11\","
+                + "\"rates\":{\"EUR\":0.88747}},{\"base\":\"USD\",\"date\":\"2015-09-10\","
+                + "\"disclaimer\":\"none\",\"rates\":{\"EUR\":0.8885}}]");
+
+        assertEquals("USD", rates.getBase());
+        assertEquals(0.8885, rates.get("EUR", SEP_10), 0);
+        assertEquals(0.88747, rates.get("EUR", SEP_11), 0);
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void read_WithoutDate_Throws() throws Exception {
+        read("[{\"base\":\"USD\",\"rates\":{\"EUR\":0.88747}}]");
+    }
+
+    @Test
+    public void of_WithRepeatedDayOutOfOrder_KeepsLastRates() {
+        HistoricalRates rates = HistoricalRates.of(Arrays.asList(
+                ExchangeRates.of("USD", "2015-09-11", ImmutableMap.of("EUR", 0.8)),
+                ExchangeRates.of("USD", "2015-09-10", ImmutableMap.of("EUR", 0.8885)),
+                ExchangeRates.of("USD", "2015-09-11", ImmutableMap.of("EUR", 0.88747))));
+
+        assertEquals(0.8885, rates.get("EUR", SEP_10), 0);
+        assertEquals(0.88747, rates.get("EUR", SEP_11), 0);
+    }
+
+    @Test
+    public void build_ForTenYearsOfRates_TakesTwelveBytesPerRate() {
+        int currencies = 170;
+        LocalDate first = LocalDate.of(2006, 1, 1);
+        int days = (int) (LocalDate.of(2016, 1, 1).toEpochDay() - first.toEpochDay());
+
+        HistoricalRates.Builder builder = new HistoricalRates.Builder();
+        for (int day = 0; day < days; day++) {
+            Map<String, Double> rates = new LinkedHashMap<>();
+            for (int c = 0; c < currencies; c++) {
+                rates.put(String.format("C%03d", c), c + day / 10000d);
+            }
+            builder.add(ExchangeRates.of("USD", first.plusDays(day).toString(), rates));
+        }
+        HistoricalRates rates = builder.build();
+
+        assertEquals(currencies, rates.currencyCount());
+        assertEquals(42 + 1234 / 10000d, rates.get("C042", (int) first.toEpochDay() + 1234), 0);
+        // the size computed from the array lengths, rather than measured on the heap: an int day
+        // and a double rate each, in arrays trimmed to the rates of each currency, plus the
+        // headers of those arrays and of the arrays holding them
+        long points = (long) days * currencies;
+        long headers = 3 * (16 + 4L * currencies) + 2 * 16L * currencies;
+        assertEquals(12 * points + headers, rates.estimatedBytes());
+    }
+
+    private static HistoricalRates read(String json) throws IOException {
+        JsonParser parser = new JsonFactory().createParser(json);
+        try {
+            return HistoricalRates.read(parser);
+        } finally {
+            parser.close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Function;
+import com.google.common.collect.Multimaps;
+import com.google.common.io.Resources;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the output of a {@link MultiInputSnap}, whose documents come out in the order of
+ * their input view, but in the order they arrive in across input views.
+ */
+final class InputViewsOutput {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private InputViewsOutput() {
+    }
+
+    /**
+     * Reads the documents of an output view from an expected output file on the class path.
+     */
+    static List<Object> readExpected(String path, String outputViewName) throws IOException {
+        Map<String, List<Object>> outputs = MAPPER.readValue(Resources.getResource(path),
+                new TypeReference<Map<String, List<Object>>>() {});
+        return outputs.get(outputViewName);
+    }
+
+    /**
+     * Asserts that the output has the documents expected, in the expected order among those of
+     * the same input view and in any order across input views.
+     *
+     * @param inputViewOf returns the name of the input view a document comes from
+     */
+    static void assertSameDocuments(List<Object> expected, List<Object> output,
+            Function<Object, String> inputViewOf) {
+        assertEquals(Multimaps.index(expected, inputViewOf),
+                Multimaps.index(output, inputViewOf));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link LatencyHistogram} estimates percentiles within its precision.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentile_WithSpreadValues_IsWithinPrecision() {
+        Random random = new Random(5);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            // from nanoseconds to about a minute, evenly spread over the magnitudes
+            values[i] = (long) Math.pow(10, random.nextDouble() * 11);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[]{1, 50, 90, 99, 99.9, 100}) {
+            long actual = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long estimate = histogram.percentile(percentile);
+            assertTrue(percentile + ": " + estimate + " below " + actual, estimate >= actual);
+            assertTrue(percentile + ": " + estimate + " too far above " + actual,
+                    estimate <= actual + actual / 32);
+        }
+        assertEquals(values[0], histogram.min());
+        assertEquals(values[values.length - 1], histogram.max());
+        assertEquals(values.length, histogram.count());
+    }
+
+    @Test
+    public void percentile_WithSmallValues_IsExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 0; value < 64; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(31, histogram.percentile(50));
+        assertEquals(63, histogram.percentile(100));
+        assertEquals(31.5, histogram.mean(), 0);
+    }
+
+    @Test
+    public void percentile_WithLargestValue_ReturnsIt() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(Long.MAX_VALUE, histogram.percentile(99));
+    }
+
+    @Test
+    public void add_WithOtherHistogram_CombinesCounts() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        for (int i = 1; i <= 50; i++) {
+            first.record(i * 1000);
+            second.record((i + 50) * 1000);
+        }
+
+        first.add(second);
+
+        assertEquals(100, first.count());
+        assertEquals(1000, first.min());
+        assertEquals(100000, first.max());
+        long median = first.percentile(50);
+        assertTrue(median >= 50000 && median <= 50000 + 50000 / 32);
+    }
+
+    @Test
+    public void percentile_WithoutValues_ReturnsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.percentile(99));
+        assertEquals(0, histogram.min());
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the documents each {@link MergeJoin} type outputs, in the order of their keys.
+ */
+public class MergeJoinTest {
+    private static final Function<Map<String, Object>, Object> KEY =
+            new Function<Map<String, Object>, Object>() {
+                @Override
+                public Object apply(Map<String, Object> document) {
+                    return document.get("key");
+                }
+            };
+
+    // keys 1 and 3 match, twice by two documents on key 3
+    private static final List<Map<String, Object>> LEFT = Arrays.asList(
+            document("a", 1), document("b", 2), document("c", 3), document("d", 3));
+    private static final List<Map<String, Object>> RIGHT = Arrays.asList(
+            document("w", 1), document("x", 3), document("y", 3), document("z", 4));
+
+    @Test
+    public void join_WithInnerJoin_OutputsMatchedDocuments() {
+        assertEquals(ImmutableList.of("a+w", "c+x", "c+y", "d+x", "d+y"),
+                join(MergeJoin.Type.INNER, LEFT, RIGHT));
+    }
+
+    @Test
+    public void join_WithLeftOuterJoin_AlsoOutputsUnmatchedLeftDocuments() {
+        assertEquals(ImmutableList.of("a+w", "b+", "c+x", "c+y", "d+x", "d+y"),
+                join(MergeJoin.Type.LEFT_OUTER, LEFT, RIGHT));
+    }
+
+    @Test
+    public void join_WithFullOuterJoin_AlsoOutputsUnmatchedRightDocuments() {
+        assertEquals(ImmutableList.of("a+w", "b+", "c+x", "c+y", "d+x", "d+y", "+z"),
+                join(MergeJoin.Type.FULL_OUTER, LEFT, RIGHT));
+    }
+
+    @Test
+    public void join_WithEmptyInput_OutputsOtherInputUnmatched() {
+        List<Map<String, Object>> none = Collections.emptyList();
+
+        assertEquals(ImmutableList.of(), join(MergeJoin.Type.INNER, LEFT, none));
+        assertEquals(ImmutableList.of("+w", "+x", "+y", "+z"),
+                join(MergeJoin.Type.FULL_OUTER, none, RIGHT));
+    }
+
+    @Test
+    public void join_WithNullKeys_NeverMatchesThem() {
+        List<Map<String, Object>> left = Arrays.asList(document("a", null), document("b", 1));
+        List<Map<String, Object>> right = Arrays.asList(document("x", null), document("y", 1));
+
+        assertEquals(ImmutableList.of("b+y"), join(MergeJoin.Type.INNER, left, right));
+        assertEquals(ImmutableList.of("a+", "+x", "b+y"),
+                join(MergeJoin.Type.FULL_OUTER, left, right));
+    }
+
+    @Test
+    public void join_WithNumbersOfDifferentTypes_MatchesEqualValues() {
+        List<Map<String, Object>> left = Arrays.asList(document("a", 1),
+                document("b", new BigDecimal("2.50")), document("c", 3.0));
+        List<Map<String, Object>> right = Arrays.asList(document("x", BigInteger.ONE),
+                document("y", 2.5), document("z", 3L));
+
+        assertEquals(ImmutableList.of("a+x", "b+y", "c+z"),
+                join(MergeJoin.Type.INNER, left, right));
+    }
+
+    @Test
+    public void join_WithUnsortedAndInvalidKeys_ReportsAndSkipsThem() {
+        List<Map<String, Object>> left = Arrays.asList(document("a", "ann"),
+                document("b", "zoe"), document("c", "bob"), document("d", ImmutableList.of()));
+        List<Map<String, Object>> right = Arrays.asList(document("x", "ann"),
+                document("y", "zoe"));
+
+        assertEquals(ImmutableList.of("a+x", "b+y", "order:c", "invalid:d"),
+                join(MergeJoin.Type.INNER, left, right));
+    }
+
+    @Test
+    public void keyOrder_WithMixedTypes_OrdersNullBooleansNumbersThenStrings() {
+        List<Object> keys = new ArrayList<>(Arrays.<Object>asList("b", 2.5, null, true, "a",
+                BigInteger.TEN, false, -1));
+
+        Collections.sort(keys, MergeJoin.KEY_ORDER);
+
+        assertEquals(Arrays.<Object>asList(null, false, true, -1, 2.5, BigInteger.TEN, "a", "b"),
+                keys);
+        assertTrue(MergeJoin.KEY_ORDER.compare(Double.NaN, 1) > 0);
+    }
+
+    private static List<String> join(MergeJoin.Type type, List<Map<String, Object>> left,
+            List<Map<String, Object>> right) {
+        final List<String> joined = new ArrayList<>();
+        new MergeJoin<>(type, KEY).join(left.iterator(), right.iterator(),
+                new MergeJoin.Handler<Map<String, Object>>() {
+                    @Override
+                    public void matched(Map<String, Object> left, Map<String, Object> right) {
+                        joined.add(left.get("id") + "+" + right.get("id"));
+                    }
+
+                    @Override
+                    public void unmatchedLeft(Map<String, Object> left) {
+                        joined.add(left.get("id") + "+");
+                    }
+
+                    @Override
+                    public void unmatchedRight(Map<String, Object> right) {
+                        joined.add("+" + right.get("id"));
+                    }
+
+                    @Override
+                    public void invalidKey(Map<String, Object> document, RuntimeException e) {
+                        joined.add("invalid:" + document.get("id"));
+                    }
+
+                    @Override
+                    public void outOfOrder(Map<String, Object> document, Object key,
+                            Object previousKey) {
+                        joined.add("order:" + document.get("id"));
+                    }
+                });
+        return joined;
+    }
+
+    private static Map<String, Object> document(String id, Object key) {
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("id", id);
+        document.put("key", key);
+        return document;
+    }
+}
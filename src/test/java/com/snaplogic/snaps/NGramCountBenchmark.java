@@ -0,0 +1,106 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compares counting the n-grams of a generated 8 MiB log into a {@link Multiset} of strings with
+ * counting them exactly and within a 1 MiB budget in an {@link NGramCounter}.
+ *
+ * <p>The gc profiler's {@code gc.alloc.rate.norm} shows the bytes allocated per count.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class NGramCountBenchmark {
+    private static final int SIZE = 8 * 1024 * 1024;
+    private static final String[] LEVELS = {"INFO", "WARN", "ERROR", "DEBUG"};
+
+    @Param({"2", "4"})
+    public int length;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+    private byte[] input;
+    private String text;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(SIZE);
+        while (sb.length() < SIZE) {
+            sb.append("2016-09-12T10:").append(random.nextInt(60)).append(' ')
+                    .append(LEVELS[random.nextInt(LEVELS.length)])
+                    .append(" request ").append(Long.toHexString(random.nextLong()))
+                    .append(" took ").append(random.nextInt(1000)).append(" ms\n");
+        }
+        text = sb.toString();
+        input = text.getBytes(UTF_8);
+    }
+
+    @Benchmark
+    public Multiset<String> multiset() {
+        Multiset<String> nGrams = HashMultiset.create();
+        String lowerCase = text.toLowerCase();
+        for (int i = 0; i + length <= lowerCase.length(); i++) {
+            nGrams.add(lowerCase.substring(i, i + length));
+        }
+        return nGrams;
+    }
+
+    @Benchmark
+    public NGramCounter exact() {
+        return count(new NGramCounter(length, 0, 256 * 1024 * 1024));
+    }
+
+    @Benchmark
+    public NGramCounter topK() {
+        return count(new NGramCounter(length, 100, 1024 * 1024));
+    }
+
+    private NGramCounter count(NGramCounter counter) {
+        int offset = 0;
+        readBuffer.clear();
+        while (offset < input.length) {
+            int chunk = Math.min(readBuffer.remaining(), input.length - offset);
+            readBuffer.put(input, offset, chunk);
+            offset += chunk;
+            readBuffer.flip();
+            counter.count(readBuffer, false);
+            readBuffer.compact();
+        }
+        readBuffer.flip();
+        counter.count(readBuffer, true);
+        return counter;
+    }
+}
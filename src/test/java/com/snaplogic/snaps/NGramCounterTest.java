@@ -0,0 +1,146 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link NGramCounter} counts n-grams exactly within its memory budget, and keeps the
+ * most frequent ones beyond it.
+ */
+public class NGramCounterTest {
+    // ASCII, accented and Cyrillic letters, and an emoji
+    private static final String ALPHABET = "aBc \n\u00E9\u00C9\u0436\uD83D\uDE00";
+
+    @Test
+    public void count_WithinBudget_MatchesExactCounts() {
+        Random random = new Random(19);
+        String text = randomText(random, 5000);
+        for (int length = 1; length <= NGramCounter.MAX_LENGTH; length++) {
+            NGramCounter counter = new NGramCounter(length, 0, 64 * 1024 * 1024);
+            count(counter, text.getBytes(UTF_8), 5 + random.nextInt(20));
+
+            Map<String, Long> expected = countNGrams(text.toLowerCase(Locale.ROOT), length);
+            assertFalse(counter.isApproximate());
+            assertEquals(expected, counter.mostFrequent());
+            long total = 0;
+            for (long count : expected.values()) {
+                total += count;
+            }
+            assertEquals(total, counter.total());
+        }
+    }
+
+    @Test
+    public void count_OverBudget_KeepsMostFrequentNGrams() {
+        Random random = new Random(23);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            // a few frequent words among many random ones
+            if (random.nextInt(3) == 0) {
+                text.append(i % 2 == 0 ? "error " : "warn ");
+            } else {
+                for (int j = 0; j < 5; j++) {
+                    text.append((char) ('a' + random.nextInt(26)));
+                }
+                text.append(' ');
+            }
+        }
+        NGramCounter counter = new NGramCounter(4, 5, 16 * 1024);
+        count(counter, text.toString().getBytes(UTF_8), 4096);
+
+        Map<String, Long> expected = countNGrams(text.toString(), 4);
+        Map<String, Long> mostFrequent = counter.mostFrequent();
+        assertTrue(counter.isApproximate());
+        assertEquals(5, mostFrequent.size());
+        for (Map.Entry<String, Long> entry : mostFrequent.entrySet()) {
+            long actual = expected.get(entry.getKey());
+            // only 4-grams of the frequent words occur thousands of times
+            assertTrue(entry.getKey(), actual > 3000);
+            assertTrue(entry.getKey(), entry.getValue() >= actual);
+        }
+    }
+
+    @Test
+    public void count_WithManyDistinctCharacters_CountsTheirIdsAgainstBudget() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            // CJK ideographs, which have no lower case
+            text.appendCodePoint(0x4E00 + i);
+        }
+        // the 1000 distinct characters fit in 64 KiB, but not with the ids of the characters
+        NGramCounter counter = new NGramCounter(1, 5, 64 * 1024);
+        count(counter, text.toString().getBytes(UTF_8), 4096);
+
+        assertTrue(counter.isApproximate());
+        assertEquals(5, counter.mostFrequent().size());
+        for (long count : counter.mostFrequent().values()) {
+            assertTrue(count >= 1);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void count_OverBudgetWithoutTopK_Throws() {
+        Random random = new Random(29);
+        NGramCounter counter = new NGramCounter(4, 0, 1024);
+        count(counter, randomText(random, 10000).getBytes(UTF_8), 4096);
+    }
+
+    private static void count(NGramCounter counter, byte[] bytes, int bufferSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        int offset = 0;
+        while (offset < bytes.length) {
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+            buffer.flip();
+            counter.count(buffer, false);
+            buffer.compact();
+        }
+        buffer.flip();
+        counter.count(buffer, true);
+    }
+
+    private static Map<String, Long> countNGrams(String text, int length) {
+        int[] codePoints = text.codePoints().toArray();
+        Map<String, Long> counts = new HashMap<>();
+        for (int i = 0; i + length <= codePoints.length; i++) {
+            String nGram = new String(codePoints, i, length);
+            Long count = counts.get(nGram);
+            counts.put(nGram, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            int index = random.nextInt(ALPHABET.length());
+            if (Character.isHighSurrogate(ALPHABET.charAt(index))) {
+                text.append(ALPHABET, index, index + 2);
+            } else if (!Character.isLowSurrogate(ALPHABET.charAt(index))) {
+                text.append(ALPHABET.charAt(index));
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares adding a field to a deep or shallow copy of a document, as copying a document does,
+ * with adding it to an {@link OverlayMap} over the document, and then iterating over or
+ * serializing the result as the next Snap would.
+ *
+ * <p>Run with <code>-prof gc</code> to see the bytes allocated per document, as
+ * <code>gc.alloc.rate.norm</code>.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OverlayMapBenchmark {
+
+    @Param({"10", "500"})
+    public int fieldCount;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private Map<String, Object> document;
+
+    @Setup
+    public void setUp() {
+        document = new LinkedHashMap<>();
+        for (int i = 1; i <= fieldCount; i++) {
+            // every tenth field is a nested object
+            if (i % 10 == 0) {
+                Map<String, Object> nested = new LinkedHashMap<>();
+                nested.put("id", i);
+                nested.put("name", "nested" + i);
+                document.put("field" + i, nested);
+            } else {
+                document.put("field" + i, "value" + i);
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> deepCopy() {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> copy = (Map<String, Object>) copy(document);
+        copy.put("processed", "True");
+        return copy;
+    }
+
+    @Benchmark
+    public Map<String, Object> shallowCopy() {
+        Map<String, Object> copy = new LinkedHashMap<>(document);
+        copy.put("processed", "True");
+        return copy;
+    }
+
+    @Benchmark
+    public Map<String, Object> overlay() {
+        Map<String, Object> overlay = new OverlayMap(document);
+        overlay.put("processed", "True");
+        return overlay;
+    }
+
+    @Benchmark
+    public void iterateShallowCopy(Blackhole blackhole) {
+        iterate(shallowCopy(), blackhole);
+    }
+
+    @Benchmark
+    public void iterateOverlay(Blackhole blackhole) {
+        iterate(overlay(), blackhole);
+    }
+
+    @Benchmark
+    public long serializeDeepCopy() throws IOException {
+        return serialize(deepCopy());
+    }
+
+    @Benchmark
+    public long serializeOverlay() throws IOException {
+        return serialize(overlay());
+    }
+
+    private static void iterate(Map<String, Object> map, Blackhole blackhole) {
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            blackhole.consume(entry.getValue());
+        }
+    }
+
+    private static long serialize(Map<String, Object> map) throws IOException {
+        CountingOutputStream bytes = new CountingOutputStream(ByteStreams.nullOutputStream());
+        MAPPER.writeValue(bytes, map);
+        return bytes.getCount();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copy(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> copy = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                copy.put(entry.getKey(), copy(entry.getValue()));
+            }
+            return copy;
+        }
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            for (Object element : (List<Object>) value) {
+                copy.add(copy(element));
+            }
+            return copy;
+        }
+        return value;
+    }
+}
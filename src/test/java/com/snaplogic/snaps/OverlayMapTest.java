@@ -0,0 +1,225 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link OverlayMap} behaves like a copy of the map it wraps, which it never changes.
+ */
+public class OverlayMapTest {
+
+    @Test
+    public void put_WithNewAndExistingKeys_KeepsWrappedMapUnchanged() {
+        Map<String, Object> base = document();
+        Map<String, Object> original = new LinkedHashMap<>(base);
+        OverlayMap overlay = new OverlayMap(base);
+
+        assertNull(overlay.put("processed", "True"));
+        assertEquals("Jane", overlay.put("name", "John"));
+
+        assertEquals(original, base);
+        Map<String, Object> expected = new LinkedHashMap<>(original);
+        expected.put("name", "John");
+        expected.put("processed", "True");
+        assertEquals(expected, overlay);
+        assertEquals(ImmutableList.copyOf(expected.keySet()),
+                ImmutableList.copyOf(overlay.keySet()));
+    }
+
+    @Test
+    public void remove_WithWrappedAndAddedKeys_HidesThem() {
+        Map<String, Object> base = document();
+        OverlayMap overlay = new OverlayMap(base);
+        overlay.put("processed", "True");
+
+        assertEquals("Jane", overlay.remove("name"));
+        assertNull(overlay.remove("name"));
+        assertEquals("True", overlay.remove("processed"));
+
+        assertEquals(3, overlay.size());
+        assertFalse(overlay.containsKey("name"));
+        assertNull(overlay.get("name"));
+        assertTrue(overlay.containsKey("age"));
+        assertEquals(ImmutableList.of("gender", "address", "age"),
+                ImmutableList.copyOf(overlay.keySet()));
+        assertEquals("Jane", base.get("name"));
+
+        overlay.put("name", "John");
+        assertEquals(4, overlay.size());
+        assertEquals("John", overlay.get("name"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void get_WithNestedObjectsAndArraysChanged_CopiesThemOnDemand() {
+        Map<String, Object> base = document();
+        OverlayMap overlay = new OverlayMap(base);
+
+        Map<String, Object> address = (Map<String, Object>) overlay.get("address");
+        address.put("city", "Oakland");
+        List<Object> phones = (List<Object>) address.get("phones");
+        ((Map<String, Object>) phones.get(0)).put("type", "work");
+        phones.add("555-0102");
+
+        assertEquals(document(), base);
+        // the same overlays are returned each time, also when iterating
+        assertSame(address, overlay.get("address"));
+        assertSame(phones, address.get("phones"));
+        Map<String, Object> expected = document();
+        Map<String, Object> expectedAddress = (Map<String, Object>) expected.get("address");
+        expectedAddress.put("city", "Oakland");
+        List<Object> expectedPhones = (List<Object>) expectedAddress.get("phones");
+        ((Map<String, Object>) expectedPhones.get(0)).put("type", "work");
+        expectedPhones.add("555-0102");
+        assertEquals(expected, overlay);
+        assertEquals(expected, new LinkedHashMap<>(overlay));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void overlay_OfObjectSharedByTwoDocuments_KeepsTheirChangesApart() {
+        Map<String, Object> shared = (Map<String, Object>) document().get("address");
+        OverlayMap first = new OverlayMap(new LinkedHashMap<String, Object>());
+        OverlayMap second = new OverlayMap(new LinkedHashMap<String, Object>());
+        first.put("address", OverlayMap.overlay(shared));
+        second.put("address", OverlayMap.overlay(shared));
+
+        ((Map<String, Object>) first.get("address")).put("city", "Oakland");
+        ((List<Object>) ((Map<String, Object>) first.get("address")).get("phones")).clear();
+
+        assertEquals(document().get("address"), shared);
+        assertEquals(shared, second.get("address"));
+        assertEquals("Oakland", ((Map<String, Object>) first.get("address")).get("city"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void put_WithChangedCopyOfNestedObject_KeepsWrappedMapUnchanged() {
+        Map<String, Object> base = document();
+        OverlayMap overlay = new OverlayMap(base);
+
+        Map<String, Object> address = new LinkedHashMap<>(
+                (Map<String, Object>) overlay.get("address"));
+        address.put("city", "Oakland");
+        overlay.put("address", address);
+
+        assertEquals(document(), base);
+        assertEquals("Oakland", ((Map<String, Object>) overlay.get("address")).get("city"));
+    }
+
+    @Test
+    public void get_FromSeveralThreads_ReturnsSameOverlays() throws Exception {
+        final Map<String, Object> base = document();
+        final OverlayMap overlay = new OverlayMap(base);
+        overlay.put("processed", "True");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> readers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                readers.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        Object address = overlay.get("address");
+                        for (int j = 0; j < 10000; j++) {
+                            for (Map.Entry<String, Object> entry : overlay.entrySet()) {
+                                Object expected = entry.getKey().equals("processed") ? "True" :
+                                        base.get(entry.getKey());
+                                if (!Objects.equals(expected, entry.getValue())
+                                        || entry.getValue() != overlay.get(entry.getKey())) {
+                                    return null;
+                                }
+                            }
+                        }
+                        return address;
+                    }
+                }));
+            }
+            Object address = readers.get(0).get();
+            assertEquals(base.get("address"), address);
+            for (Future<Object> reader : readers) {
+                assertSame(address, reader.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void entrySet_WithValuesSetAndRemovedWhileIterating_ChangesOverlay() {
+        Map<String, Object> base = document();
+        OverlayMap overlay = new OverlayMap(base);
+        overlay.put("processed", "True");
+
+        Iterator<Map.Entry<String, Object>> entries = overlay.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Object> entry = entries.next();
+            if (entry.getKey().equals("gender") || entry.getKey().equals("processed")) {
+                entries.remove();
+            } else if (entry.getKey().equals("name")) {
+                entry.setValue("John");
+            }
+        }
+
+        assertEquals(ImmutableList.of("name", "address", "age"),
+                ImmutableList.copyOf(overlay.keySet()));
+        assertEquals("John", overlay.get("name"));
+        assertEquals("female", base.get("gender"));
+    }
+
+    @Test
+    public void clear_WithWrappedAndAddedKeys_EmptiesOverlay() {
+        Map<String, Object> base = document();
+        OverlayMap overlay = new OverlayMap(base);
+        overlay.put("processed", "True");
+
+        overlay.clear();
+
+        assertTrue(overlay.isEmpty());
+        assertFalse(overlay.entrySet().iterator().hasNext());
+        assertEquals(4, base.size());
+    }
+
+    private static Map<String, Object> document() {
+        List<Object> phones = new ArrayList<>();
+        phones.add(new LinkedHashMap<String, Object>(ImmutableMap.of("number", "555-0100")));
+        phones.add("555-0101");
+        Map<String, Object> address = new LinkedHashMap<>();
+        address.put("city", "San Mateo");
+        address.put("phones", phones);
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("name", "Jane");
+        document.put("gender", "female");
+        document.put("address", address);
+        document.put("age", null);
+        return document;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Measures how counting the characters of a 512 MiB file with {@link ParallelCharacterCount}
+ * scales with the number of threads.
+ *
+ * <p>The file is written once and stays in the page cache, so the results show the counting
+ * rather than the disk. One character in eight of the text is not ASCII.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class ParallelCharacterCountBenchmark {
+    private static final int SIZE = 512 * 1024 * 1024;
+    private static final String ASCII = "abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ.,\n";
+    private static final String NON_ASCII = "\u00e9\u00fc\u00df\u0436\u4e2d";
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private Path path;
+    private FileChannel file;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        path = Files.createTempFile("character-count", ".txt");
+        try (OutputStream out = Files.newOutputStream(path)) {
+            StringBuilder line = new StringBuilder();
+            for (long written = 0; written < SIZE; ) {
+                line.setLength(0);
+                for (int i = 0; i < 4096; i++) {
+                    line.append(random.nextInt(8) == 0
+                            ? NON_ASCII.charAt(random.nextInt(NON_ASCII.length()))
+                            : ASCII.charAt(random.nextInt(ASCII.length())));
+                }
+                byte[] bytes = line.toString().getBytes(UTF_8);
+                out.write(bytes);
+                written += bytes.length;
+            }
+        }
+        file = FileChannel.open(path);
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        file.close();
+        Files.delete(path);
+    }
+
+    @Benchmark
+    public CharacterHistogram count() throws IOException {
+        return ParallelCharacterCount.count(file, pool, false);
+    }
+}
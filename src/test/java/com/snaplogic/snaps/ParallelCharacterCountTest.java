@@ -0,0 +1,111 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link ParallelCharacterCount} counts a file like a single {@link CharacterHistogram}
+ * does, wherever the chunks would start.
+ */
+public class ParallelCharacterCountTest {
+    private static final String ALPHABET = "aBcXyZ \n\u00E9\u00C9\u0436\u4E2D\uD83D\uDE00\u212A";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void count_WithSmallChunks_MatchesSequentialCounts() throws IOException {
+        byte[] bytes = randomText(new Random(3), 5000).getBytes(UTF_8);
+        CharacterHistogram expected = new CharacterHistogram();
+        expected.count(ByteBuffer.wrap(bytes), true);
+
+        try (FileChannel file = open(bytes)) {
+            for (long chunkSize : new long[]{1, 2, 3, 5, 64, 1 << 20}) {
+                CharacterHistogram histogram =
+                        ParallelCharacterCount.count(file, pool, chunkSize, false);
+                for (char letter = 'a'; letter <= 'z'; letter++) {
+                    assertEquals("count of " + letter, expected.count(letter),
+                            histogram.count(letter));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void split_StartsChunksAtCharacters() throws IOException {
+        byte[] bytes = randomText(new Random(5), 5000).getBytes(UTF_8);
+
+        try (FileChannel file = open(bytes)) {
+            long[] boundaries = ParallelCharacterCount.split(file, 7);
+
+            assertEquals(0, boundaries[0]);
+            assertEquals(bytes.length, boundaries[boundaries.length - 1]);
+            for (int i = 1; i < boundaries.length - 1; i++) {
+                assertTrue("continuation byte at " + boundaries[i],
+                        boundaries[i] == bytes.length
+                                || (bytes[(int) boundaries[i]] & 0xC0) != 0x80);
+            }
+        }
+    }
+
+    @Test
+    public void count_FromFilePosition_SkipsEarlierBytes() throws IOException {
+        try (FileChannel file = open("zzzz\u00E9abc".getBytes(UTF_8))) {
+            file.position(4);
+            CharacterHistogram histogram = ParallelCharacterCount.count(file, pool, false);
+
+            assertEquals(0, histogram.count('z'));
+            assertEquals(1, histogram.count('a'));
+        }
+    }
+
+    private FileChannel open(byte[] bytes) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), bytes);
+        return FileChannel.open(file.toPath());
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            int index = random.nextInt(ALPHABET.length());
+            if (Character.isHighSurrogate(ALPHABET.charAt(index))) {
+                text.append(ALPHABET, index, index + 2);
+            } else if (!Character.isLowSurrogate(ALPHABET.charAt(index))) {
+                text.append(ALPHABET.charAt(index));
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that {@link ParallelDocumentGeneration} generates the same documents as generating them
+ * one by one.
+ */
+public class ParallelDocumentGenerationTest {
+    private static final long START = 1000;
+    // not a multiple of the batch size
+    private static final long END = START + 10 * ParallelDocumentGeneration.BATCH_SIZE + 17;
+
+    @Test
+    public void next_WithOrder_ReturnsDocumentsInOrder() throws Exception {
+        DocumentTemplate template = template();
+
+        List<Object> documents = generate(template, 4, true);
+
+        assertEquals(sequential(template), documents);
+    }
+
+    @Test
+    public void next_WithoutOrder_ReturnsEveryDocument() throws Exception {
+        DocumentTemplate template = template();
+
+        List<Object> documents = generate(template, 3, false);
+
+        assertEquals(END - START, documents.size());
+        assertEquals(new HashSet<>(sequential(template)), new HashSet<>(documents));
+    }
+
+    @Test
+    public void next_WithMoreWorkersThanBatches_ReturnsDocumentsInOrder() throws Exception {
+        DocumentTemplate template = template();
+        List<Object> documents = new ArrayList<>();
+        try (ParallelDocumentGeneration generation =
+                     new ParallelDocumentGeneration(template, 0, 3, 8, true)) {
+            List<Object> batch;
+            while ((batch = generation.next()) != null) {
+                documents.addAll(batch);
+            }
+        }
+
+        assertEquals(3, documents.size());
+        assertEquals(template.generate(2), documents.get(2));
+    }
+
+    private static List<Object> generate(DocumentTemplate template, int workers,
+            boolean ordered) throws InterruptedException {
+        List<Object> documents = new ArrayList<>();
+        try (ParallelDocumentGeneration generation =
+                     new ParallelDocumentGeneration(template, START, END, workers, ordered)) {
+            List<Object> batch;
+            while ((batch = generation.next()) != null) {
+                documents.addAll(batch);
+            }
+        }
+        return documents;
+    }
+
+    private static List<Object> sequential(DocumentTemplate template) {
+        List<Object> documents = new ArrayList<>();
+        for (long index = START; index < END; index++) {
+            documents.add(template.generate(index));
+        }
+        return documents;
+    }
+
+    private static DocumentTemplate template() {
+        Map<String, Object> template = new LinkedHashMap<>();
+        template.put("id", "${sequence}");
+        template.put("value", "${int:0:1000}");
+        return DocumentTemplate.compile(template, 3);
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import com.snaplogic.snaps.CurrencyConverter.ForEx;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that {@link ResilientForEx} bounds lookup latency while the underlying {@link ForEx}
+ * is slow or failing.
+ */
+public class ResilientForExTest {
+    private static final long TIMEOUT_MILLIS = 50;
+    private static final long SLOW_MILLIS = 1000;
+
+    private final FakeTicker ticker = new FakeTicker();
+    private final SlowForEx delegate = new SlowForEx();
+    private final ResilientForEx forEx = new ResilientForEx(delegate, TIMEOUT_MILLIS, 3,
+            30000, TimeUnit.MILLISECONDS, ticker);
+
+    @Test
+    public void getExchangeRates_WhenBackendIsFast_ReturnsFreshRates() {
+        Map<String, Object> rates = forEx.getExchangeRates("EUR");
+
+        assertEquals("EUR", rates.get("base"));
+        assertNull(rates.get(ResilientForEx.STALE));
+    }
+
+    @Test
+    public void getExchangeRates_DuringBrownOut_BoundsLatencyAndServesStaleRates() {
+        forEx.getExchangeRates("EUR");
+        delegate.delayMillis = SLOW_MILLIS;
+
+        long[] latencies = new long[100];
+        for (int i = 0; i < latencies.length; i++) {
+            long start = System.nanoTime();
+            Map<String, Object> rates = forEx.getExchangeRates("EUR");
+            latencies[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertEquals("EUR", rates.get("base"));
+            assertEquals(true, rates.get(ResilientForEx.STALE));
+        }
+        Arrays.sort(latencies);
+
+        // without the timeout every lookup would take a second
+        assertTrue("p99 was " + latencies[98] + " ms", latencies[98] < SLOW_MILLIS / 2);
+        // the circuit opened after three slow lookups, so the backend saw no more calls
+        assertTrue(forEx.isOpen());
+        assertEquals(4, delegate.calls.get());
+    }
+
+    @Test
+    public void getExchangeRates_AfterResetTime_ProbesAndClosesCircuit() {
+        forEx.getExchangeRates("EUR");
+        delegate.failing = true;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(true, forEx.getExchangeRates("EUR").get(ResilientForEx.STALE));
+        }
+        assertTrue(forEx.isOpen());
+
+        delegate.failing = false;
+        assertEquals(true, forEx.getExchangeRates("EUR").get(ResilientForEx.STALE));
+        ticker.advance(TimeUnit.SECONDS.toNanos(31));
+
+        assertNull(forEx.getExchangeRates("EUR").get(ResilientForEx.STALE));
+        assertFalse(forEx.isOpen());
+    }
+
+    @Test
+    public void getExchangeRates_WhenProbeFails_KeepsCircuitOpen() {
+        delegate.failing = true;
+        for (int i = 0; i < 3; i++) {
+            try {
+                forEx.getExchangeRates("EUR");
+            } catch (IllegalStateException e) {
+                // no rates are known yet
+            }
+        }
+        ticker.advance(TimeUnit.SECONDS.toNanos(31));
+        try {
+            forEx.getExchangeRates("EUR");
+        } catch (IllegalStateException e) {
+            // the probe failed too
+        }
+
+        assertTrue(forEx.isOpen());
+        assertEquals(4, delegate.calls.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getExchangeRates_WithoutKnownRates_Throws() {
+        delegate.failing = true;
+        forEx.getExchangeRates("EUR");
+    }
+
+    @Test
+    public void getExchangeRates_WhenLookupThreadsAreTaken_ServesStaleRatesAtOnce() {
+        ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(1));
+        try {
+            ResilientForEx bounded = new ResilientForEx(delegate, TIMEOUT_MILLIS, 5, 30000,
+                    TimeUnit.MILLISECONDS, ticker, executor);
+            bounded.getExchangeRates("EUR");
+            delegate.delayMillis = SLOW_MILLIS;
+            // the first times out and keeps the only thread busy, the second waits in the queue
+            for (int i = 0; i < 2; i++) {
+                assertEquals(true, bounded.getExchangeRates("EUR").get(ResilientForEx.STALE));
+            }
+
+            long start = System.nanoTime();
+            assertEquals(true, bounded.getExchangeRates("EUR").get(ResilientForEx.STALE));
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS));
+            assertEquals(2, delegate.calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void getAllExchangeRates_WhenBackendIsSlow_ServesStaleRates() {
+        forEx.getAllExchangeRates(ImmutableSet.of("EUR", "GBP"));
+        delegate.delayMillis = SLOW_MILLIS;
+
+        Map<String, Map<String, Object>> rates =
+                forEx.getAllExchangeRates(ImmutableSet.of("EUR", "GBP"));
+
+        assertEquals(ImmutableSet.of("EUR", "GBP"), rates.keySet());
+        assertEquals(true, rates.get("GBP").get(ResilientForEx.STALE));
+    }
+
+    @Test
+    public void getAllExchangeRates_WithoutKnownRatesOfOneCurrency_LeavesOutOnlyIt() {
+        forEx.getExchangeRates("EUR");
+        delegate.delayMillis = SLOW_MILLIS;
+
+        Map<String, Map<String, Object>> rates =
+                forEx.getAllExchangeRates(ImmutableSet.of("EUR", "GBP"));
+
+        assertEquals(ImmutableSet.of("EUR"), rates.keySet());
+        assertEquals(true, rates.get("EUR").get(ResilientForEx.STALE));
+    }
+
+    @Test
+    public void getExchangeRatesAsync_WhenBackendIsFast_ReturnsFreshRates() throws Exception {
+        Map<String, Object> rates = forEx.getExchangeRatesAsync("EUR").get(1, TimeUnit.SECONDS);
+
+        assertEquals("EUR", rates.get("base"));
+        assertNull(rates.get(ResilientForEx.STALE));
+        assertEquals(1, delegate.calls.get());
+    }
+
+    @Test
+    public void getExchangeRatesAsync_WhenLookupHangs_CompletesWithStaleRates() throws Exception {
+        forEx.getExchangeRates("EUR");
+        delegate.hanging = true;
+
+        long start = System.nanoTime();
+        CompletableFuture<Map<String, Object>> rates = forEx.getExchangeRatesAsync("EUR");
+        // the caller is not blocked while the lookup is pending
+        assertFalse(rates.isDone());
+        assertEquals(true, rates.get(SLOW_MILLIS, TimeUnit.MILLISECONDS)
+                .get(ResilientForEx.STALE));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < SLOW_MILLIS);
+
+        // the lookup that timed out still refreshes the last known rates
+        delegate.hangingLookups.get(0).complete(
+                Collections.<String, Object>singletonMap("base", "refreshed"));
+        delegate.failing = true;
+        assertEquals("refreshed", forEx.getExchangeRates("EUR").get("base"));
+    }
+
+    @Test
+    public void getExchangeRatesAsync_AfterFailures_OpensCircuit() throws Exception {
+        delegate.failing = true;
+        for (int i = 0; i < 3; i++) {
+            try {
+                forEx.getExchangeRatesAsync("EUR").get(1, TimeUnit.SECONDS);
+                fail("No rates of EUR are known");
+            } catch (ExecutionException e) {
+                assertEquals("unavailable", e.getCause().getMessage());
+            }
+        }
+        assertTrue(forEx.isOpen());
+
+        CompletableFuture<Map<String, Object>> rates = forEx.getExchangeRatesAsync("EUR");
+        assertTrue(rates.isCompletedExceptionally());
+        assertEquals(3, delegate.calls.get());
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long delta) {
+            nanos += delta;
+        }
+    }
+
+    private static class SlowForEx implements ForEx {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final List<CompletableFuture<Map<String, Object>>> hangingLookups =
+                new CopyOnWriteArrayList<>();
+        private volatile long delayMillis;
+        private volatile boolean failing;
+        private volatile boolean hanging;
+
+        @Override
+        public Map<String, Object> getExchangeRates(String currencyCode) {
+            calls.incrementAndGet();
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failing) {
+                throw new IllegalStateException("unavailable");
+            }
+            return Collections.<String, Object>singletonMap("base", currencyCode);
+        }
+
+        @Override
+        public Map<String, Map<String, Object>> getAllExchangeRates(Set<String> currencyCodes) {
+            Map<String, Map<String, Object>> rates = new LinkedHashMap<>();
+            for (String currencyCode : currencyCodes) {
+                rates.put(currencyCode, getExchangeRates(currencyCode));
+            }
+            return rates;
+        }
+
+        @Override
+        public CompletableFuture<Map<String, Object>> getExchangeRatesAsync(
+                String currencyCode) {
+            if (!hanging) {
+                return ForEx.super.getExchangeRatesAsync(currencyCode);
+            }
+            calls.incrementAndGet();
+            CompletableFuture<Map<String, Object>> lookup = new CompletableFuture<>();
+            hangingLookups.add(lookup);
+            return lookup;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the documents and bytes per second a {@link SegmentWriter} sustains, forcing writes
+ * to disk after every document, after a batch of documents, or only when segments are closed.
+ *
+ * <p>The bytes counter is reported as a rate, so divided by 1048576 it is the MB/s written.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SegmentWriterBenchmark {
+    private static final long SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    @Param({"1", "1000", "0"})
+    public int commitDocuments;
+
+    private final Map<String, Object> document = new LinkedHashMap<>();
+    private Path directory;
+    private SegmentWriter writer;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Written {
+        public long bytes;
+    }
+
+    @Setup
+    public void setUp() {
+        document.put("id", 12345);
+        document.put("name", "synthetic document");
+        document.put("price", 12.5);
+        document.put("tags", new String[]{"load", "test"});
+        Map<String, Object> address = new LinkedHashMap<>();
+        address.put("city", "San Mateo");
+        address.put("zip", "94402");
+        document.put("address", address);
+    }
+
+    @Setup(Level.Iteration)
+    public void openWriter() throws IOException {
+        directory = Files.createTempDirectory("segment-writer-benchmark");
+        writer = new SegmentWriter(directory, "benchmark", SEGMENT_BYTES, commitDocuments, 0,
+                new SmileFactory(), new ObjectMapper());
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeWriter() throws IOException {
+        writer.close();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Benchmark
+    public void write(Written written) throws IOException {
+        long before = writer.bytesWritten();
+        writer.write(document);
+        written.bytes += writer.bytesWritten() - before;
+    }
+}
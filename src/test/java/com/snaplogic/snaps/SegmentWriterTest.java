@@ -0,0 +1,125 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link SegmentWriter} persists documents that can be read back from its segments.
+ */
+public class SegmentWriterTest {
+    private final ObjectMapper mapper = new ObjectMapper(new SmileFactory());
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void write_WithSmallSegments_RollsSegmentsAndKeepsEveryDocument() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        List<Object> expected = documents(2000);
+        SegmentWriter writer = new SegmentWriter(directory, "test", 16 * 1024, 0, 0,
+                mapper.getFactory(), mapper);
+        for (Object document : expected) {
+            writer.write(document);
+        }
+        writer.close();
+
+        assertTrue(writer.segments() > 1);
+        assertEquals(expected.size(), writer.documents());
+        List<Object> actual = new ArrayList<>();
+        long bytes = 0;
+        for (int i = 0; i < writer.segments(); i++) {
+            Path segment = writer.segment(i);
+            bytes += Files.size(segment);
+            actual.addAll(read(segment));
+        }
+        assertEquals(expected, actual);
+        assertEquals(bytes, writer.bytesWritten());
+        // a segment is forced once when it is closed
+        assertEquals(writer.segments(), writer.commits());
+    }
+
+    @Test
+    public void write_WithCommitDocuments_ForcesEveryBatch() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        SegmentWriter writer = new SegmentWriter(directory, "test", Long.MAX_VALUE, 100, 0,
+                mapper.getFactory(), mapper);
+        for (Object document : documents(1050)) {
+            writer.write(document);
+        }
+
+        assertEquals(10, writer.commits());
+        // committed documents are readable before the segment is closed
+        assertEquals(1000, read(writer.segment(0)).size());
+
+        writer.close();
+        assertEquals(11, writer.commits());
+        assertEquals(1050, read(writer.segment(0)).size());
+    }
+
+    @Test
+    public void write_WithJsonMapper_SerializesWithItsFeatures() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        ObjectMapper jsonMapper = new ObjectMapper()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        SegmentWriter writer = new SegmentWriter(directory, "test", Long.MAX_VALUE, 0, 0,
+                mapper.getFactory(), jsonMapper);
+        writer.write(Collections.singletonMap("date", new Date(0)));
+        writer.close();
+
+        // encoded as Smile, with the date serialized as text as the JSON mapper does
+        Map<?, ?> document = (Map<?, ?>) read(writer.segment(0)).get(0);
+        assertEquals(jsonMapper.convertValue(new Date(0), String.class), document.get("date"));
+    }
+
+    private List<Object> read(Path segment) throws IOException {
+        List<Object> documents = new ArrayList<>();
+        try (MappingIterator<Object> iterator = mapper.readValues(
+                mapper.getFactory().createParser(segment.toFile()), Object.class)) {
+            while (iterator.hasNext()) {
+                documents.add(iterator.next());
+            }
+        }
+        return documents;
+    }
+
+    private static List<Object> documents(int count) {
+        List<Object> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> document = new LinkedHashMap<>();
+            document.put("id", i);
+            document.put("name", "document " + i);
+            document.put("active", i % 2 == 0);
+            documents.add(document);
+        }
+        return documents;
+    }
+}
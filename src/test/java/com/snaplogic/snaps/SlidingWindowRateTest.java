@@ -0,0 +1,60 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that {@link SlidingWindowRate} only counts the events of its window.
+ */
+public class SlidingWindowRateTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void rate_WithSteadyEvents_ReturnsEventsPerSecond() {
+        SlidingWindowRate rate = new SlidingWindowRate(5, SECOND);
+        // 100 events per second for 20 seconds
+        for (long nanos = 0; nanos < 20 * SECOND; nanos += SECOND / 100) {
+            rate.record(nanos);
+        }
+
+        assertEquals(100, rate.rate(20 * SECOND), 1);
+        assertEquals(100, rate.peakRate(), 0);
+    }
+
+    @Test
+    public void rate_AfterBurst_ForgetsIt() {
+        SlidingWindowRate rate = new SlidingWindowRate(5, SECOND);
+        for (int i = 0; i < 1000; i++) {
+            rate.record(SECOND / 2);
+        }
+        rate.record(10 * SECOND);
+
+        assertEquals(1000, rate.peakRate(), 0);
+        // slots start at the first event, so at 11 seconds the window is the four slots since
+        // 6.5 seconds and half of the current one, and only holds the last event
+        assertEquals(1 / 4.5, rate.rate(11 * SECOND), 1e-9);
+    }
+
+    @Test
+    public void rate_BeforeWindowPassed_CountsElapsedTimeOnly() {
+        SlidingWindowRate rate = new SlidingWindowRate(10, SECOND);
+        for (int i = 0; i < 50; i++) {
+            rate.record(i * SECOND / 100);
+        }
+
+        assertEquals(100, rate.rate(SECOND / 2), 0);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * SnapLogic - Data Integration
+ *
+ * Copyright (C) 2016, SnapLogic, Inc.  All rights reserved.
+ *
+ * This program is licensed under the terms of
+ * the SnapLogic Commercial Subscription agreement.
+ *
+ * "SnapLogic" is a trademark of SnapLogic, Inc.
+ */
+package com.snaplogic.snaps;
+
+import com.google.common.base.Function;
+import com.google.common.base.Strings;
+import com.snaplogic.snap.test.harness.SnapTestRunner;
+import com.snaplogic.snap.test.harness.TestFixture;
+import com.snaplogic.snap.test.harness.TestResult;
+import com.snaplogic.snap.test.harness.TestSetup;
+
+import org.junit.runner.RunWith;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(SnapTestRunner.class)
+public class TwoInputsTest {
+    private static final int SPILLED_DOCUMENTS = 2000;
+
+    // documents of the two inputs come out in the order they arrive in, so only the order of
+    // each input's documents is fixed; those of the first have a phone, those of the second a city
+    @TestFixture(snap = TwoInputs.class,
+            input = "data/two_inputs/phone_books.json",
+            outputs = "output0")
+    public void twoInputs_WithConcatenateMode_OutputsBothInputsProcessed(TestResult testResult)
+            throws Exception {
+        assertNull(testResult.getException());
+        List<Object> expected = InputViewsOutput.readExpected("data/two_inputs/"
+                + "twoInputs_WithConcatenateMode_OutputsBothInputsProcessed-out.json", "output0");
+        InputViewsOutput.assertSameDocuments(expected,
+                testResult.getOutputViewByName("output0").getRecordedData(),
+                new Function<Object, String>() {
+                    @Override
+                    public String apply(Object document) {
+                        return ((Map<?, ?>) document).containsKey("phone") ? "input0" : "input1";
+                    }
+                });
+    }
+
+    // both phone books are sorted by name; Robin is only in the first, Sarah in the second
+    @TestFixture(snap = TwoInputs.class,
+            input = "data/two_inputs/phone_books.json",
+            outputs = "output0",
+            expectedOutputPath = "data/two_inputs",
+            properties = "data/two_inputs/two_inputs_merge_join_properties.json")
+    public void twoInputs_WithFullOuterMergeJoin_OutputsMatchedAndUnmatched() throws Exception {
+    }
+
+    // the documents of the first input come out in its order, joined with those of the second
+    @TestFixture(snap = TwoInputs.class,
+            input = "data/two_inputs/phone_books.json",
+            outputs = "output0",
+            expectedOutputPath = "data/two_inputs",
+            properties = "data/two_inputs/two_inputs_hash_join_properties.json")
+    public void twoInputs_WithLeftOuterHashJoin_OutputsFirstInputJoined() throws Exception {
+    }
+
+    // the second input takes more than the memory budget of 1 MB, so both are spilled
+    @TestFixture(snap = TwoInputs.class,
+            outputs = "output0",
+            properties = "data/two_inputs/two_inputs_hash_join_spill_properties.json")
+    public void twoInputs_WithHashJoinOverMemoryBudget_JoinsSpilledDocuments(
+            TestSetup testSetup) throws Exception {
+        List<Object> phoneBook = new ArrayList<>();
+        List<Object> addressBook = new ArrayList<>();
+        String street = Strings.repeat("Main Street ", 50);
+        for (int i = 0; i < SPILLED_DOCUMENTS; i++) {
+            Map<String, Object> phone = new LinkedHashMap<>();
+            phone.put("name", "Person " + i);
+            phone.put("phone", "555-" + i);
+            phoneBook.add(phone);
+            // in the opposite order of the first input
+            Map<String, Object> address = new LinkedHashMap<>();
+            address.put("name", "Person " + (SPILLED_DOCUMENTS - 1 - i));
+            address.put("number", BigInteger.valueOf(SPILLED_DOCUMENTS - 1 - i));
+            address.put("street", street);
+            addressBook.add(address);
+        }
+        testSetup.addInputView("input0", phoneBook);
+        testSetup.addInputView("input1", addressBook);
+
+        TestResult testResult = testSetup.test();
+        assertNull(testResult.getException());
+        List<Object> output = testResult.getOutputViewByName("output0").getRecordedData();
+        assertEquals(SPILLED_DOCUMENTS, output.size());
+        Set<Object> names = new HashSet<>();
+        for (Object document : output) {
+            Map<?, ?> joined = (Map<?, ?>) document;
+            String name = (String) joined.get("name");
+            int number = Integer.parseInt(name.substring("Person ".length()));
+            assertEquals("555-" + number, joined.get("phone"));
+            assertEquals(number, ((Number) joined.get("number")).intValue());
+            assertEquals(street, joined.get("street"));
+            names.add(name);
+        }
+        assertEquals(SPILLED_DOCUMENTS, names.size());
+    }
+}
@@ -10,18 +10,85 @@
  */
 package com.snaplogic.snaps;
 
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSet;
 import com.snaplogic.snap.test.harness.SnapTestRunner;
 import com.snaplogic.snap.test.harness.TestFixture;
+import com.snaplogic.snap.test.harness.TestResult;
+import com.snaplogic.snap.test.harness.TestSetup;
 
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertNull;
+
 @RunWith(SnapTestRunner.class)
 public class TwoInputsTwoOutputsTest {
+    private static final String EXPECTED_OUTPUT = "data/two_inputs_two_outputs/"
+            + "twoInputsTwoOutputs_WithParentsAndChildren_GroupsByGender-out.json";
+    private static final Set<String> PARENTS = ImmutableSet.of("Robin", "Sarah");
+    // several times the documents an input view's queue holds
+    private static final int MANY_DOCUMENTS = 2000;
 
+    // documents of the two inputs come out in the order they arrive in, so only the order of
+    // each input's documents is fixed
     @TestFixture(snap = TwoInputsTwoOutputs.class,
             input = "data/two_inputs_two_outputs/input_files.json",
-            outputs = {"output_male", "output_female"},
-            expectedOutputPath = "data/two_inputs_two_outputs")
-    public void twoInputsTwoOutputs_WithParentsAndChildren_GroupsByGender() throws Exception {
+            outputs = {"output_male", "output_female"})
+    public void twoInputsTwoOutputs_WithParentsAndChildren_GroupsByGender(TestResult testResult)
+            throws Exception {
+        assertNull(testResult.getException());
+        Function<Object, String> inputViewOf = new Function<Object, String>() {
+            @Override
+            public String apply(Object document) {
+                return PARENTS.contains(((Map<?, ?>) document).get("name")) ? "input0" : "input1";
+            }
+        };
+        for (String outputView : new String[] {"output_male", "output_female"}) {
+            InputViewsOutput.assertSameDocuments(
+                    InputViewsOutput.readExpected(EXPECTED_OUTPUT, outputView),
+                    testResult.getOutputViewByName(outputView).getRecordedData(), inputViewOf);
+        }
+    }
+
+    // the input views are read on threads of their own, through the iterators of the platform
+    @TestFixture(snap = TwoInputsTwoOutputs.class,
+            outputs = {"output_male", "output_female"})
+    public void twoInputsTwoOutputs_WithManyDocuments_KeepsOrderOfEachInput(TestSetup testSetup)
+            throws Exception {
+        List<Object> expectedMale = new ArrayList<>();
+        List<Object> expectedFemale = new ArrayList<>();
+        for (String inputView : new String[] {"input0", "input1"}) {
+            List<Object> documents = new ArrayList<>();
+            for (int i = 0; i < MANY_DOCUMENTS; i++) {
+                Map<String, Object> person = new LinkedHashMap<>();
+                person.put("name", inputView + " person " + i);
+                person.put("gender", i % 2 == 0 ? "male" : "female");
+                documents.add(person);
+                Map<String, Object> processed = new LinkedHashMap<>(person);
+                processed.put("processed", "True");
+                (i % 2 == 0 ? expectedMale : expectedFemale).add(processed);
+            }
+            testSetup.addInputView(inputView, documents);
+        }
+
+        TestResult testResult = testSetup.test();
+        assertNull(testResult.getException());
+        Function<Object, String> inputViewOf = new Function<Object, String>() {
+            @Override
+            public String apply(Object document) {
+                String name = (String) ((Map<?, ?>) document).get("name");
+                return name.substring(0, name.indexOf(' '));
+            }
+        };
+        InputViewsOutput.assertSameDocuments(expectedMale,
+                testResult.getOutputViewByName("output_male").getRecordedData(), inputViewOf);
+        InputViewsOutput.assertSameDocuments(expectedFemale,
+                testResult.getOutputViewByName("output_female").getRecordedData(), inputViewOf);
     }
 }